@@ -110,15 +110,15 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
     }
 
     protected class FileLoadJob implements Runnable {
-        InputStream input = null;
+        protected InputStream input = null;
 
-        int tilex, tiley, zoom;
-        Tile tile;
-        TileSource source;
-        File tileCacheDir;
-        File tileFile = null;
-        long fileAge = 0;
-        boolean fileTilePainted = false;
+        protected int tilex, tiley, zoom;
+        protected Tile tile;
+        protected TileSource source;
+        protected File tileCacheDir;
+        protected File tileFile = null;
+        protected long fileAge = 0;
+        protected boolean fileTilePainted = false;
 
         public FileLoadJob(TileSource source, int tilex, int tiley, int zoom) {
             this.source = source;
@@ -135,7 +135,7 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
                     return;
                 tile.loading = true;
             }
-            tileCacheDir = new File(cacheDirBase, source.getName().replaceAll("[\\\\/:*?\"<>|]", "_"));
+            tileCacheDir = getSourceCacheDir(cacheDirBase, source);
             if (!tileCacheDir.exists()) {
                 tileCacheDir.mkdirs();
             }
@@ -423,6 +423,21 @@ public class OsmFileCacheTileLoader extends OsmTileLoader {
 
     }
 
+    /**
+     * Returns the directory the tiles of the given source are stored in.
+     */
+    public static File getSourceCacheDir(String cacheDirBase, TileSource source) {
+        return new File(cacheDirBase, source.getName().replaceAll("[\\\\/:*?\"<>|]", "_"));
+    }
+
+    /**
+     * Returns the file the given tile is stored in.
+     */
+    public static File getTileFile(String cacheDirBase, TileSource source, int zoom, int tilex, int tiley) {
+        return new File(getSourceCacheDir(cacheDirBase, source), zoom + "_" + tilex + "_" + tiley + "."
+                + source.getTileType());
+    }
+
     public long getMaxFileAge() {
         return maxCacheFileAge;
     }
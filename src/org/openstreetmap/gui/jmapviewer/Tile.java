@@ -185,6 +185,10 @@ public class Tile {
         return loading;
     }
 
+    public void setLoading(boolean loading) {
+        this.loading = loading;
+    }
+
     public void setLoaded(boolean loaded) {
         this.loaded = loaded;
     }
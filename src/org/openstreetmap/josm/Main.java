@@ -54,11 +54,13 @@ import org.openstreetmap.josm.data.Preferences;
 import org.openstreetmap.josm.data.UndoRedoHandler;
 import org.openstreetmap.josm.data.coor.CoordinateFormat;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.ChangesetCache;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.PrimitiveDeepCopy;
 import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.data.projection.ProjectionChangeListener;
 import org.openstreetmap.josm.data.validation.OsmValidator;
+import org.openstreetmap.josm.data.validation.ValidationCache;
 import org.openstreetmap.josm.gui.GettingStarted;
 import org.openstreetmap.josm.gui.MainMenu;
 import org.openstreetmap.josm.gui.MapFrame;
@@ -71,8 +73,11 @@ import org.openstreetmap.josm.gui.layer.OsmDataLayer.CommandQueueListener;
 import org.openstreetmap.josm.gui.preferences.ImageryPreference;
 import org.openstreetmap.josm.gui.preferences.MapPaintPreference;
 import org.openstreetmap.josm.gui.preferences.ProjectionPreference;
+import org.openstreetmap.josm.gui.preferences.SourceEntry;
 import org.openstreetmap.josm.gui.preferences.TaggingPresetPreference;
 import org.openstreetmap.josm.gui.preferences.ToolbarPreferences;
+import org.openstreetmap.josm.gui.tagging.TaggingPreset;
+import org.openstreetmap.josm.io.MirroredInputStream;
 import org.openstreetmap.josm.io.OsmApi;
 import org.openstreetmap.josm.plugins.PluginHandler;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
@@ -84,6 +89,7 @@ import org.openstreetmap.josm.tools.PlatformHookOsx;
 import org.openstreetmap.josm.tools.PlatformHookUnixoid;
 import org.openstreetmap.josm.tools.PlatformHookWindows;
 import org.openstreetmap.josm.tools.Shortcut;
+import org.openstreetmap.josm.tools.TaskExecutor;
 import org.openstreetmap.josm.tools.Utils;
 
 abstract public class Main {
@@ -113,6 +119,16 @@ abstract public class Main {
      * and sequential.
      */
     public final static ExecutorService worker = Executors.newSingleThreadExecutor();
+    /**
+     * Workers for tasks which mostly wait for the network, like downloading the history of
+     * primitives. Several tasks run at the same time, so they must not depend on each other.
+     */
+    public final static TaskExecutor networkWorker = new TaskExecutor("Network worker", 4);
+    /**
+     * Worker for short tasks which shouldn't wait for a download or a calculation, like
+     * saving a file the user just asked for.
+     */
+    public final static TaskExecutor quickWorker = new TaskExecutor("Quick worker", 1);
     /**
      * Global application preferences
      */
@@ -245,6 +261,13 @@ abstract public class Main {
         registerActionShortcut(menu.help, Shortcut.registerShortcut("system:help", tr("Help"),
                 KeyEvent.VK_F1, Shortcut.GROUP_DIRECT));
 
+        // download the presets and styles at the same time instead of one after the other
+        List<String> sources = new ArrayList<String>(TaggingPreset.getPresetSources());
+        for (SourceEntry e : MapPaintPreference.MapPaintPrefMigration.INSTANCE.get()) {
+            sources.add(e.url);
+        }
+        MirroredInputStream.prefetch(sources);
+
         TaggingPresetPreference.initialize();
         MapPaintPreference.initialize();
         ImageryPreference.initialize();
@@ -553,6 +576,8 @@ abstract public class Main {
     public static boolean exitJosm(boolean exit) {
         if (Main.saveUnsavedModifications()) {
             Main.saveGuiGeometry();
+            ValidationCache.saveInstance();
+            ChangesetCache.saveInstance();
             // Remove all layers because somebody may rely on layerRemoved events (like AutosaveTask)
             if (Main.isDisplayingMapView()) {
                 Collection<Layer> layers = new ArrayList<Layer>(Main.map.mapView.getAllLayers());
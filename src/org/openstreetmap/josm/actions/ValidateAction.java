@@ -17,6 +17,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.data.validation.ValidationEngine;
 import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
 import org.openstreetmap.josm.gui.PleaseWaitRunnable;
 import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
@@ -91,6 +92,7 @@ public class ValidateAction extends JosmAction {
             }
         }
 
+        // run after the downloads and uploads queued on the worker, which modify the data
         ValidationTask task = new ValidationTask(tests, selection, lastSelection);
         Main.worker.submit(task);
     }
@@ -111,6 +113,7 @@ public class ValidateAction extends JosmAction {
         private Collection<OsmPrimitive> formerValidatedPrimitives;
         private boolean canceled;
         private List<TestError> errors;
+        private volatile ValidationEngine engine;
 
         /**
          *
@@ -128,6 +131,10 @@ public class ValidateAction extends JosmAction {
         @Override
         protected void cancel() {
             this.canceled = true;
+            ValidationEngine engine = this.engine;
+            if (engine != null) {
+                engine.cancel();
+            }
         }
 
         @Override
@@ -156,20 +163,12 @@ public class ValidateAction extends JosmAction {
                 OsmTransferException {
             if (tests == null || tests.isEmpty())
                 return;
-            errors = new ArrayList<TestError>(200);
-            getProgressMonitor().setTicksCount(tests.size() * validatedPrimitives.size());
-            int testCounter = 0;
-            for (Test test : tests) {
-                if (canceled)
-                    return;
-                testCounter++;
-                getProgressMonitor().setCustomText(tr("Test {0}/{1}: Starting {2}", testCounter, tests.size(),test.getName()));
-                test.setPartialSelection(formerValidatedPrimitives != null);
-                test.startTest(getProgressMonitor().createSubTaskMonitor(validatedPrimitives.size(), false));
-                test.visit(validatedPrimitives);
-                test.endTest();
-                errors.addAll(test.getErrors());
-            }
+            engine = new ValidationEngine(tests);
+            if (canceled)
+                return;
+            errors = engine.validate(validatedPrimitives, formerValidatedPrimitives != null, getProgressMonitor());
+            if (canceled)
+                return;
             tests = null;
             if (Main.pref.getBoolean(ValidatorPreference.PREF_USE_IGNORE, true)) {
                 getProgressMonitor().subTask(tr("Updating ignored errors ..."));
@@ -70,6 +70,70 @@ public class DownloadOsmTask extends AbstractDownloadTask {
         }
     }
 
+    private static OsmDataLayer getEditLayer() {
+        if (!Main.isDisplayingMapView()) return null;
+        return Main.map.mapView.getEditLayer();
+    }
+
+    private static int getNumDataLayers() {
+        int count = 0;
+        if (!Main.isDisplayingMapView()) return 0;
+        Collection<Layer> layers = Main.map.mapView.getAllLayers();
+        for (Layer layer : layers) {
+            if (layer instanceof OsmDataLayer) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static OsmDataLayer getFirstDataLayer() {
+        if (!Main.isDisplayingMapView()) return null;
+        Collection<Layer> layers = Main.map.mapView.getAllLayersAsList();
+        for (Layer layer : layers) {
+            if (layer instanceof OsmDataLayer)
+                return (OsmDataLayer) layer;
+        }
+        return null;
+    }
+
+    /**
+     * Adds downloaded data to the edit layer, or to a new layer if the user wants one or
+     * if it isn't clear which layer to merge to, and zooms to the downloaded area.
+     * Must be called on the event dispatch thread.
+     *
+     * @param dataSet the downloaded data
+     * @param newLayer true, if the user explicitly wants a new layer
+     * @param area the downloaded area
+     */
+    static void addDownloadedData(DataSet dataSet, boolean newLayer, BoundingXYVisitor area) {
+        int numDataLayers = getNumDataLayers();
+        if (newLayer || numDataLayers == 0 || (numDataLayers > 1 && getEditLayer() == null)) {
+            // the user explicitly wants a new layer, we don't have any layer at all
+            // or it is not clear which layer to merge to
+            //
+            OsmDataLayer layer = new OsmDataLayer(dataSet, OsmDataLayer.createNewName(), null);
+            final boolean isDisplayingMapView = Main.isDisplayingMapView();
+
+            Main.main.addLayer(layer);
+
+            // If the mapView is not there yet, we cannot calculate the bounds (see constructor of MapView).
+            // Otherwise jump to the current download.
+            if (isDisplayingMapView) {
+                Main.map.mapView.recalculateCenterScale(area);
+            }
+        } else {
+            OsmDataLayer target;
+            target = getEditLayer();
+            if (target == null) {
+                target = getFirstDataLayer();
+            }
+            target.mergeFrom(dataSet);
+            Main.map.mapView.recalculateCenterScale(area);
+            target.onPostDownloadFromServer();
+        }
+    }
+
     private class DownloadTask extends PleaseWaitRunnable {
         private OsmServerReader reader;
         private DataSet dataSet;
@@ -103,33 +167,6 @@ public class DownloadOsmTask extends AbstractDownloadTask {
             }
         }
 
-        protected OsmDataLayer getEditLayer() {
-            if (!Main.isDisplayingMapView()) return null;
-            return Main.map.mapView.getEditLayer();
-        }
-
-        protected int getNumDataLayers() {
-            int count = 0;
-            if (!Main.isDisplayingMapView()) return 0;
-            Collection<Layer> layers = Main.map.mapView.getAllLayers();
-            for (Layer layer : layers) {
-                if (layer instanceof OsmDataLayer) {
-                    count++;
-                }
-            }
-            return count;
-        }
-
-        protected OsmDataLayer getFirstDataLayer() {
-            if (!Main.isDisplayingMapView()) return null;
-            Collection<Layer> layers = Main.map.mapView.getAllLayersAsList();
-            for (Layer layer : layers) {
-                if (layer instanceof OsmDataLayer)
-                    return (OsmDataLayer) layer;
-            }
-            return null;
-        }
-
         @Override protected void finish() {
             if (isFailed() || isCanceled())
                 return;
@@ -143,43 +180,13 @@ public class DownloadOsmTask extends AbstractDownloadTask {
             }
 
             rememberDownloadedData(dataSet);
-            int numDataLayers = getNumDataLayers();
-            if (newLayer || numDataLayers == 0 || (numDataLayers > 1 && getEditLayer() == null)) {
-                // the user explicitly wants a new layer, we don't have any layer at all
-                // or it is not clear which layer to merge to
-                //
-                OsmDataLayer layer = new OsmDataLayer(dataSet, OsmDataLayer.createNewName(), null);
-                final boolean isDisplayingMapView = Main.isDisplayingMapView();
-
-                Main.main.addLayer(layer);
-
-                // If the mapView is not there yet, we cannot calculate the bounds (see constructor of MapView).
-                // Otherwise jump to the current download.
-                if (isDisplayingMapView) {
-                    BoundingXYVisitor v = new BoundingXYVisitor();
-                    if (currentBounds != null) {
-                        v.visit(currentBounds);
-                    } else {
-                        v.computeBoundingBox(dataSet.getNodes());
-                    }
-                    Main.map.mapView.recalculateCenterScale(v);
-                }
+            BoundingXYVisitor v = new BoundingXYVisitor();
+            if (currentBounds != null) {
+                v.visit(currentBounds);
             } else {
-                OsmDataLayer target;
-                target = getEditLayer();
-                if (target == null) {
-                    target = getFirstDataLayer();
-                }
-                target.mergeFrom(dataSet);
-                BoundingXYVisitor v = new BoundingXYVisitor();
-                if (currentBounds != null) {
-                    v.visit(currentBounds);
-                } else {
-                    v.computeBoundingBox(dataSet.getNodes());
-                }
-                Main.map.mapView.recalculateCenterScale(v);
-                target.onPostDownloadFromServer();
+                v.computeBoundingBox(dataSet.getNodes());
             }
+            addDownloadedData(dataSet, newLayer, v);
         }
 
         @Override protected void cancel() {
@@ -8,14 +8,19 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 import java.awt.EventQueue;
 import java.awt.geom.Area;
 import java.awt.geom.Rectangle2D;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.JOptionPane;
 
@@ -23,13 +28,22 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.UpdateSelectionAction;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSetMerger;
+import org.openstreetmap.josm.data.osm.DataSource;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.HelpAwareOptionPane;
 import org.openstreetmap.josm.gui.HelpAwareOptionPane.ButtonSpec;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor.CancelListener;
+import org.openstreetmap.josm.io.BoundingBoxDownloader;
+import org.openstreetmap.josm.io.OsmApi;
+import org.openstreetmap.josm.io.OsmTransferCancelledException;
+import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.tools.ExceptionUtil;
 import org.openstreetmap.josm.tools.ImageProvider;
 
@@ -37,12 +51,24 @@ import org.openstreetmap.josm.tools.ImageProvider;
  * This class encapsulates the downloading of several bounding boxes that would otherwise be too
  * large to download in one go. Error messages will be collected for all downloads and displayed as
  * a list in the end.
+ *
+ * Up to {@link #PROP_SIMULTANEOUS_DOWNLOADS} bounding boxes are downloaded and parsed at the same time,
+ * each into its own {@link DataSet}. When all downloads are finished, the data sets are merged and the
+ * result is merged into the edit layer in one go.
  * @author xeen
  *
  */
 public class DownloadOsmTaskList {
-    private List<DownloadTask> osmTasks = new LinkedList<DownloadTask>();
-    private List<Future<?>> osmTaskFutures = new LinkedList<Future<?>>();
+    /**
+     * the max. number of bounding boxes downloaded at the same time
+     */
+    public static final IntegerProperty PROP_SIMULTANEOUS_DOWNLOADS = new IntegerProperty("download.osm.simultaneous-connections", 2);
+
+    private List<Bounds> bounds = new ArrayList<Bounds>();
+    private List<BoundingBoxDownloader> downloaders = new ArrayList<BoundingBoxDownloader>();
+    private LinkedHashSet<Object> errors = new LinkedHashSet<Object>();
+    private DataSet downloadedData;
+    private boolean canceled;
     private ProgressMonitor progressMonitor;
 
     /**
@@ -59,20 +85,18 @@ public class DownloadOsmTaskList {
         }
 
         progressMonitor.beginTask(null, rects.size());
-        int i = 0;
         for (Rectangle2D td : rects) {
-            i++;
-            DownloadTask dt = new DownloadOsmTask();
-            ProgressMonitor childProgress = progressMonitor.createSubTaskMonitor(1, false);
-            childProgress.setCustomText(tr("Download {0} of {1} ({2} left)", i, rects.size(), rects.size() - i));
-            Future<?> future = dt.download(false, new Bounds(td), childProgress);
-            osmTaskFutures.add(future);
-            osmTasks.add(dt);
+            Bounds b = new Bounds(td);
+            bounds.add(b);
+            downloaders.add(new BoundingBoxDownloader(b));
         }
         progressMonitor.addCancelListener(new CancelListener() {
             public void operationCanceled() {
-                for (DownloadTask dt : osmTasks) {
-                    dt.cancel();
+                synchronized (DownloadOsmTaskList.this) {
+                    canceled = true;
+                }
+                for (BoundingBoxDownloader downloader : downloaders) {
+                    downloader.cancel();
                 }
             }
         });
@@ -195,38 +219,140 @@ public class DownloadOsmTaskList {
      */
     public Set<OsmPrimitive> getDownloadedPrimitives() {
         HashSet<OsmPrimitive> ret = new HashSet<OsmPrimitive>();
-        for (DownloadTask task : osmTasks) {
-            if (task instanceof DownloadOsmTask) {
-                DataSet ds = ((DownloadOsmTask) task).getDownloadedData();
-                if (ds != null) {
-                    ret.addAll(ds.allPrimitives());
+        if (downloadedData != null) {
+            ret.addAll(downloadedData.allPrimitives());
+        }
+        return ret;
+    }
+
+    protected synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Downloads the bounding boxes concurrently and merges the downloaded data sets, in the
+     * order of the bounding boxes.
+     *
+     * @return the merged data, null if the download was canceled
+     */
+    protected DataSet downloadAll() {
+        try {
+            // negotiate the protocol version before the bounding boxes are downloaded concurrently
+            OsmApi.getOsmApi().initialize(NullProgressMonitor.INSTANCE);
+        } catch (OsmTransferException e) {
+            errors.add(e);
+            return null;
+        }
+
+        int threads = Math.max(1, Math.min(PROP_SIMULTANEOUS_DOWNLOADS.get(), downloaders.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Download " + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<DataSet>> futures = new ArrayList<Future<DataSet>>(downloaders.size());
+            for (final BoundingBoxDownloader downloader : downloaders) {
+                futures.add(executor.submit(new Callable<DataSet>() {
+                    public DataSet call() throws OsmTransferException {
+                        if (isCanceled())
+                            return null;
+                        return downloader.parseOsm(NullProgressMonitor.INSTANCE);
+                    }
+                }));
+            }
+            DataSet merged = new DataSet();
+            for (int i = 0; i < futures.size(); i++) {
+                progressMonitor.setCustomText(tr("Download {0} of {1} ({2} left)", i + 1, futures.size(), futures.size() - i - 1));
+                DataSet ds = null;
+                try {
+                    ds = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (isCanceled()) {
+                        System.out.println(tr("Ignoring exception because download has been cancelled. Exception was: {0}", cause.toString()));
+                    } else if (cause instanceof OsmTransferCancelledException) {
+                        synchronized (this) {
+                            canceled = true;
+                        }
+                    } else if (cause instanceof OsmTransferException) {
+                        errors.add(cause);
+                    } else {
+                        errors.add(new OsmTransferException(cause));
+                    }
+                }
+                progressMonitor.worked(1);
+                if (isCanceled())
+                    return null;
+                if (ds == null) {
+                    continue;
+                }
+                if (ds.allPrimitives().isEmpty()) {
+                    errors.add(tr("No data found in this area."));
+                    // need to synthesize a download bounds lest the visual indication of downloaded
+                    // area doesn't work
+                    ds.dataSources.add(new DataSource(bounds.get(i), "OpenStreetMap server"));
+                }
+                new DataSetMerger(merged, ds).merge();
+                merged.dataSources.addAll(ds.dataSources);
+                if (merged.getVersion() == null) {
+                    merged.setVersion(ds.getVersion());
                 }
             }
+            return merged;
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                canceled = true;
+            }
+            return null;
+        } finally {
+            executor.shutdownNow();
         }
-        return ret;
+    }
+
+    /**
+     * Merges the downloaded data into the edit layer, or into a new layer if there is no layer
+     * the data clearly belongs to, like {@link DownloadOsmTask} does.
+     *
+     * @param data the downloaded data
+     */
+    protected void mergeDownloadedData(DataSet data) {
+        BoundingXYVisitor v = new BoundingXYVisitor();
+        for (Bounds b : bounds) {
+            v.visit(b);
+        }
+        DownloadOsmTask.addDownloadedData(data, false, v);
     }
 
     class PostDownloadProcessor implements Runnable {
         /**
-         * Grabs and displays the error messages after all download threads have finished.
+         * Downloads the bounding boxes, merges the data and displays the error messages after
+         * all downloads have finished.
          */
         public void run() {
-            progressMonitor.finishTask();
-
-            // wait for all download tasks to finish
-            //
-            for (Future<?> future : osmTaskFutures) {
+            try {
+                downloadedData = downloadAll();
+            } finally {
+                progressMonitor.finishTask();
+            }
+            if (downloadedData != null) {
                 try {
-                    future.get();
-                } catch (Exception e) {
+                    EventQueue.invokeAndWait(new Runnable() {
+                        public void run() {
+                            mergeDownloadedData(downloadedData);
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                } catch (InvocationTargetException e) {
                     e.printStackTrace();
                     return;
                 }
             }
-            LinkedHashSet<Object> errors = new LinkedHashSet<Object>();
-            for (DownloadTask dt : osmTasks) {
-                errors.addAll(dt.getErrorObjects());
-            }
             if (!errors.isEmpty()) {
                 StringBuffer sb = new StringBuffer();
                 for (Object error : errors) {
@@ -246,28 +372,15 @@ public class DownloadOsmTaskList {
                 return;
             }
 
-            // FIXME: this is a hack. We assume that the user canceled the whole download if at
-            // least
-            // one task was canceled or if it failed
+            // we assume that the user canceled the whole download if at least one download
+            // was canceled or if it failed
             //
-            for (DownloadTask task : osmTasks) {
-                if (task instanceof DownloadOsmTask) {
-                    DownloadOsmTask osmTask = (DownloadOsmTask) task;
-                    if (osmTask.isCanceled() || osmTask.isFailed())
-                        return;
-                }
-            }
+            if (downloadedData == null || !Main.isDisplayingMapView())
+                return;
             final OsmDataLayer editLayer = Main.map.mapView.getEditLayer();
             if (editLayer != null) {
                 Set<OsmPrimitive> myPrimitives = getCompletePrimitives(editLayer.data);
-                for (DownloadTask task : osmTasks) {
-                    if (task instanceof DownloadOsmTask) {
-                        DataSet ds = ((DownloadOsmTask) task).getDownloadedData();
-                        if (ds != null) {
-                            myPrimitives.removeAll(ds.allPrimitives());
-                        }
-                    }
-                }
+                myPrimitives.removeAll(downloadedData.allPrimitives());
                 if (!myPrimitives.isEmpty()) {
                     handlePotentiallyDeletedPrimitives(myPrimitives);
                 }
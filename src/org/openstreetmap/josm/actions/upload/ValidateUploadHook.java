@@ -19,7 +19,9 @@ import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.data.validation.ValidationEngine;
 import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
+import org.openstreetmap.josm.data.validation.util.ValUtil;
 import org.openstreetmap.josm.gui.ExtendedDialog;
 import org.openstreetmap.josm.gui.dialogs.validator.ValidatorTreePanel;
 import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
@@ -51,25 +53,21 @@ public class ValidateUploadHook implements UploadHook
         AggregatePrimitivesVisitor v = new AggregatePrimitivesVisitor();
         v.visit(apiDataSet.getPrimitivesToAdd());
         Collection<OsmPrimitive> selection = v.visit(apiDataSet.getPrimitivesToUpdate());
+        // compare the changes with the data around them only, instead of the whole layer
+        Collection<OsmPrimitive> neighbourhood = null;
+        if (Main.pref.getBoolean(ValidatorPreference.PREF_UPLOAD_NEIGHBOURHOOD, true)) {
+            neighbourhood = ValUtil.getNeighbourhood(selection, ValUtil.getNeighbourhoodDistance());
+        }
 
-        List<TestError> errors = new ArrayList<TestError>(30);
         for (Test test : tests) {
             test.setBeforeUpload(true);
-            test.setPartialSelection(true);
-            test.startTest(null);
-            test.visit(selection);
-            test.endTest();
-            if (Main.pref.getBoolean(ValidatorPreference.PREF_OTHER, false) && 
-                Main.pref.getBoolean(ValidatorPreference.PREF_OTHER_UPLOAD, false))
+        }
+        List<TestError> errors = new ArrayList<TestError>(30);
+        for (TestError e : new ValidationEngine(tests).validate(selection, neighbourhood, true, null)) {
+            if (e.getSeverity() != Severity.OTHER || (Main.pref.getBoolean(ValidatorPreference.PREF_OTHER, false) &&
+                Main.pref.getBoolean(ValidatorPreference.PREF_OTHER_UPLOAD, false)))
             {
-                errors.addAll( test.getErrors() );
-            }
-            else {
-                for (TestError e : test.getErrors()) {
-                    if (e.getSeverity() != Severity.OTHER) {
-                        errors.add(e);
-                    }
-                }
+                errors.add(e);
             }
         }
         tests = null;
@@ -14,9 +14,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.imageio.ImageIO;
 
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.layer.ImageryLayer;
@@ -27,11 +31,29 @@ public class GeorefImage implements Serializable {
 
     public enum State { IMAGE, NOT_IN_CACHE, FAILED, PARTLY_IN_CACHE}
 
+    /**
+     * Worker pool that prepares the resized copies for the current zoom level, so that
+     * the paint code only has to blit ready images.
+     */
+    private static final ExecutorService scaler = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            new ThreadFactory() {
+                private int count;
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "WMS image scaler " + (count++));
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+
     private WMSLayer layer;
     private State state;
 
-    private BufferedImage image;
-    private SoftReference<BufferedImage> reImg;
+    private volatile BufferedImage image;
+    private volatile SoftReference<BufferedImage> reImg;
+    private volatile ScaleJob pendingScale;
     private int xIndex;
     private int yIndex;
 
@@ -94,9 +116,7 @@ public class GeorefImage implements Serializable {
             break;
         }
         default:
-            if (this.image != null) {
-                this.image = layer.sharpenImage(this.image);
-            }
+            // image has already been sharpened and converted by WMSLayer.finishRequest()
             break;
         }
     }
@@ -138,14 +158,16 @@ public class GeorefImage implements Serializable {
             return true;
         }
 
+        if (!fadeColor.equals(newFadeColor)) {
+            // the fade color is baked into the resized copy, so it can't be reused
+            flushedResizedCachedInstance();
+            img = null;
+        }
         fadeColor = newFadeColor;
 
         boolean alphaChannel = WMSLayer.PROP_ALPHA_CHANNEL.get() && getImage().getTransparency() != Transparency.OPAQUE;
 
         try {
-            if(img != null) {
-                img.flush();
-            }
             long freeMem = Runtime.getRuntime().maxMemory() - Runtime.getRuntime().totalMemory();
             //System.out.println("Free Memory:           "+ (freeMem/1024/1024) +" MB");
             // Notice that this value can get negative due to integer overflows
@@ -158,17 +180,21 @@ public class GeorefImage implements Serializable {
             // Also prevent caching if we're out of memory soon
             if(width > 2000 || height > 2000 || width*height*multipl > freeMem) {
                 fallbackDraw(g, getImage(), x, y, width, height, alphaChannel);
+            } else if (WMSLayer.PROP_BACKGROUND_SCALING.get()) {
+                // Resize in the background and use the copy of the previous scale until it is ready
+                scheduleScaling(width, height, alphaChannel);
+                if (img != null) {
+                    g.drawImage(img, x, y, width, height, null);
+                } else {
+                    // don't flush, that would cancel the job just scheduled
+                    drawStretched(g, getImage(), x, y, width, height, alphaChannel);
+                }
             } else {
                 // We haven't got a saved resized copy, so resize and cache it
-                img = new BufferedImage(width, height, alphaChannel?BufferedImage.TYPE_INT_ARGB:BufferedImage.TYPE_3BYTE_BGR);
-                img.getGraphics().drawImage(getImage(),
-                        0, 0, width, height, // dest
-                        0, 0, getImage().getWidth(null), getImage().getHeight(null), // src
-                        null);
-                if (!alphaChannel) {
-                    drawFadeRect(img.getGraphics(), 0, 0, width, height);
+                if(img != null) {
+                    img.flush();
                 }
-                img.getGraphics().dispose();
+                img = createScaledImage(getImage(), width, height, alphaChannel, fadeColor);
                 g.drawImage(img, x, y, null);
                 reImg = new SoftReference<BufferedImage>(img);
             }
@@ -178,8 +204,89 @@ public class GeorefImage implements Serializable {
         return true;
     }
 
+    private static BufferedImage createScaledImage(BufferedImage source, int width, int height, boolean alphaChannel, Color fadeColor) {
+        BufferedImage img = ImageryLayer.createCompatibleImage(width, height, alphaChannel ? Transparency.TRANSLUCENT : Transparency.OPAQUE);
+        Graphics g = img.getGraphics();
+        g.drawImage(source,
+                0, 0, width, height, // dest
+                0, 0, source.getWidth(null), source.getHeight(null), // src
+                null);
+        if (!alphaChannel && fadeColor != transparentColor) {
+            g.setColor(fadeColor);
+            g.fillRect(0, 0, width, height);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private void scheduleScaling(int width, int height, boolean alphaChannel) {
+        ScaleJob job = pendingScale;
+        if (job != null && job.source == image && job.width == width && job.height == height
+                && job.alphaChannel == alphaChannel && job.fadeColor.equals(fadeColor))
+            return;
+        job = new ScaleJob(image, width, height, alphaChannel, fadeColor);
+        pendingScale = job;
+        scaler.execute(job);
+    }
+
+    /**
+     * Resizes the source image for one zoom level. The result is discarded if the tile
+     * has changed or a newer zoom level has been requested in the meantime.
+     */
+    private class ScaleJob implements Runnable {
+        private final BufferedImage source;
+        private final int width;
+        private final int height;
+        private final boolean alphaChannel;
+        private final Color fadeColor;
+
+        public ScaleJob(BufferedImage source, int width, int height, boolean alphaChannel, Color fadeColor) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+            this.alphaChannel = alphaChannel;
+            this.fadeColor = fadeColor;
+        }
+
+        private boolean isOutdated() {
+            return pendingScale != this || image != source;
+        }
+
+        @Override
+        public void run() {
+            if (isOutdated())
+                return;
+            BufferedImage img;
+            try {
+                img = createScaledImage(source, width, height, alphaChannel, fadeColor);
+            } catch (OutOfMemoryError e) {
+                pendingScale = null;
+                return;
+            }
+            synchronized (GeorefImage.this) {
+                if (isOutdated()) {
+                    img.flush();
+                    return;
+                }
+                BufferedImage old = reImg == null ? null : reImg.get();
+                if (old != null) {
+                    old.flush();
+                }
+                reImg = new SoftReference<BufferedImage>(img);
+                pendingScale = null;
+            }
+            if (Main.map != null) {
+                Main.map.repaint();
+            }
+        }
+    }
+
     private void fallbackDraw(Graphics g, Image img, int x, int y, int width, int height, boolean alphaChannel) {
         flushedResizedCachedInstance();
+        drawStretched(g, img, x, y, width, height, alphaChannel);
+    }
+
+    private void drawStretched(Graphics g, Image img, int x, int y, int width, int height, boolean alphaChannel) {
         g.drawImage(
                 img, x, y, x + width, y + height,
                 0, 0, img.getWidth(null), img.getHeight(null),
@@ -218,7 +325,8 @@ public class GeorefImage implements Serializable {
         }
     }
 
-    public void flushedResizedCachedInstance() {
+    public synchronized void flushedResizedCachedInstance() {
+        pendingScale = null;
         if (reImg != null) {
             BufferedImage img = reImg.get();
             if (img != null) {
@@ -362,6 +362,15 @@ public class WmsCache {
         return null;
     }
 
+    /**
+     * Tells whether a tile is stored in the cache, without loading it.
+     */
+    public synchronized boolean hasExactMatch(Projection projection, double pixelPerDegree, double east, double north) {
+        ProjectionEntries projectionEntries = getProjectionEntries(projection);
+        CacheEntry entry = findEntry(projectionEntries, pixelPerDegree, east, north);
+        return entry != null && getImageFile(projectionEntries, entry).exists();
+    }
+
     public synchronized BufferedImage getPartialMatch(Projection projection, double pixelPerDegree, double east, double north) {
         List<CacheEntry> matches = new ArrayList<WmsCache.CacheEntry>();
 
@@ -1,20 +1,42 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.osm;
 
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.swing.SwingUtilities;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.io.ChangesetQuery;
+import org.openstreetmap.josm.io.ChangesetQuery.ChangesetQueryUrlException;
 
 /**
  * ChangesetCache is global in-memory cache for changesets downloaded from
@@ -31,27 +53,62 @@ import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
  *
  * {@see ChangesetCacheEvent}s are delivered on the EDT.
  *
+ * The cache is saved in the file <code>cache/changesets</code> in the preferences
+ * directory when JOSM exits, and loaded again in the background when the cache is
+ * used in the next session. It keeps at most {@see #PROP_MAX_ENTRIES} changesets,
+ * the ones created most recently. For each {@see ChangesetQuery} sent to the server,
+ * it remembers the latest closing date of the replied changesets, so that the query
+ * can be restricted to the changesets closed since then when it is sent again.
+ *
  */
 public class ChangesetCache implements PreferenceChangedListener{
+    /** Whether the cache is saved between sessions */
+    public static final BooleanProperty PROP_PERSISTENT = new BooleanProperty("changeset.cache.persistent", true);
+    /** The maximum number of cached changesets */
+    public static final IntegerProperty PROP_MAX_ENTRIES = new IntegerProperty("changeset.cache.maxEntries", 10000);
+
+    private static final int MAGIC = 0x4a435331;
+
     /** the unique instance */
     static private final ChangesetCache instance = new ChangesetCache();
 
     /**
-     * Replies the unique instance of the cache
+     * Replies the unique instance of the cache. The changesets saved in the previous
+     * session are loaded in the background when it is requested the first time.
      *
      * @return the unique instance of the cache
      */
     public static ChangesetCache getInstance() {
+        instance.startLoading();
         return instance;
     }
 
+    /**
+     * Saves the changesets of the unique instance if they changed since they were loaded.
+     * Called when JOSM exits.
+     */
+    public static void saveInstance() {
+        instance.saveIfDirty();
+    }
+
     /** the cached changesets */
     private final Map<Integer, Changeset> cache  = new HashMap<Integer, Changeset>();
+    /** the cached changesets by user id */
+    private final Map<Long, Set<Changeset>> byUser = new HashMap<Long, Set<Changeset>>();
+    /** the latest closing date of the changesets replied for a query, by query string */
+    private final Map<String, Date> lastClosedAt = new ConcurrentHashMap<String, Date>();
+
+    /** true, if the changesets saved in the previous session are loaded or being loaded */
+    private boolean loadStarted;
+    /** true, if the changesets saved in the previous session were added to the cache. Only used on the EDT. */
+    private boolean loaded;
+    /** true, if the cache changed since it was loaded. Only used on the EDT. */
+    private boolean dirty;
 
     private final CopyOnWriteArrayList<ChangesetCacheListener> listeners =
         new CopyOnWriteArrayList<ChangesetCacheListener>();
 
-    private ChangesetCache() {
+    ChangesetCache() {
         Main.pref.addPreferenceChangeListener(this);
     }
 
@@ -78,22 +135,54 @@ public class ChangesetCache implements PreferenceChangedListener{
         }
     }
 
+    private static Long getUserId(Changeset cs) {
+        return cs.getUser() == null ? null : cs.getUser().getId();
+    }
+
+    private void index(Changeset cs) {
+        Long uid = getUserId(cs);
+        if (uid == null) return;
+        Set<Changeset> changesets = byUser.get(uid);
+        if (changesets == null) {
+            changesets = new HashSet<Changeset>();
+            byUser.put(uid, changesets);
+        }
+        changesets.add(cs);
+    }
+
+    private void unindex(Changeset cs) {
+        Long uid = getUserId(cs);
+        if (uid == null) return;
+        Set<Changeset> changesets = byUser.get(uid);
+        if (changesets != null) {
+            changesets.remove(cs);
+            if (changesets.isEmpty()) {
+                byUser.remove(uid);
+            }
+        }
+    }
+
     protected void update(Changeset cs, DefaultChangesetCacheEvent e) {
         if (cs == null) return;
         if (cs.isNew()) return;
         Changeset inCache = cache.get(cs.getId());
         if (inCache != null) {
+            unindex(inCache);
             inCache.mergeFrom(cs);
+            index(inCache);
             e.rememberUpdatedChangeset(inCache);
         } else {
             e.rememberAddedChangeset(cs);
             cache.put(cs.getId(), cs);
+            index(cs);
         }
     }
 
     public void update(Changeset cs) {
         DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
         update(cs, e);
+        evict(e);
+        changed(e);
         fireChangesetCacheEvent(e);
     }
 
@@ -103,9 +192,129 @@ public class ChangesetCache implements PreferenceChangedListener{
         for (Changeset cs: changesets) {
             update(cs, e);
         }
+        evict(e);
+        changed(e);
         fireChangesetCacheEvent(e);
     }
 
+    /**
+     * Removes the changesets created first if there are more than
+     * {@see #PROP_MAX_ENTRIES} changesets in the cache.
+     */
+    protected void evict(DefaultChangesetCacheEvent e) {
+        int max = PROP_MAX_ENTRIES.get();
+        if (cache.size() <= max) return;
+        List<Changeset> changesets = new ArrayList<Changeset>(cache.values());
+        Collections.sort(changesets, new Comparator<Changeset>() {
+            public int compare(Changeset cs1, Changeset cs2) {
+                // changesets without a creation date first
+                long t1 = cs1.getCreatedAt() == null ? Long.MIN_VALUE : cs1.getCreatedAt().getTime();
+                long t2 = cs2.getCreatedAt() == null ? Long.MIN_VALUE : cs2.getCreatedAt().getTime();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < changesets.size() - max; i++) {
+            remove(changesets.get(i).getId(), e);
+        }
+    }
+
+    /**
+     * Marks the cache as changed, unless the event is empty. The queries whose
+     * results included one of the removed changesets are sent in full again.
+     */
+    private void changed(DefaultChangesetCacheEvent e) {
+        if (e.isEmpty()) return;
+        forgetQueryResults(e.getRemovedChangesets());
+        dirty = true;
+    }
+
+    /**
+     * Forgets the closing dates remembered for the queries which match one of the
+     * changesets <code>removed</code>, their results would miss the changeset.
+     */
+    private void forgetQueryResults(Collection<Changeset> removed) {
+        if (removed.isEmpty() || lastClosedAt.isEmpty()) return;
+        for (String key : new ArrayList<String>(lastClosedAt.keySet())) {
+            ChangesetQuery query;
+            try {
+                query = ChangesetQuery.buildFromUrlQuery(key);
+            } catch (ChangesetQueryUrlException ex) {
+                lastClosedAt.remove(key);
+                continue;
+            }
+            for (Changeset cs : removed) {
+                if (query.matches(cs)) {
+                    lastClosedAt.remove(key);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replies the cached changesets which the OSM API replies for the query
+     * <code>query</code>.
+     *
+     * @param query the query. Must not be null.
+     * @return the cached changesets matching the query
+     */
+    public List<Changeset> getChangesets(ChangesetQuery query) {
+        Collection<Changeset> candidates = cache.values();
+        if (query.getUserId() != null) {
+            candidates = byUser.get(query.getUserId().longValue());
+            if (candidates == null)
+                return new ArrayList<Changeset>();
+        }
+        List<Changeset> ret = new ArrayList<Changeset>();
+        for (Changeset cs : candidates) {
+            if (query.matches(cs)) {
+                ret.add(cs);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Replies the latest closing date of the changesets the server replied for the
+     * query <code>query</code> since the cache was created or cleared. Can be called
+     * outside of the EDT.
+     *
+     * @param query the query. Must not be null.
+     * @return the date, or null if the query wasn't sent to the server yet
+     */
+    public Date getLastClosedAt(ChangesetQuery query) {
+        return lastClosedAt.get(query.getQueryString());
+    }
+
+    /**
+     * Remembers the changesets the server replied for the query <code>query</code>.
+     * Changesets which are still open or don't match the query are ignored. A reply
+     * with {@see ChangesetQuery#MAX_REPLY_SIZE} changesets may be truncated, the
+     * changesets closed before may be missing, so it is ignored as a whole.
+     *
+     * @param query the query. Must not be null.
+     * @param changesets the changesets replied by the server
+     * @see #getLastClosedAt(ChangesetQuery)
+     */
+    public void rememberQueryResult(ChangesetQuery query, Collection<Changeset> changesets) {
+        if (changesets.size() >= ChangesetQuery.MAX_REPLY_SIZE)
+            return;
+        String key = query.getQueryString();
+        Date latest = lastClosedAt.get(key);
+        for (Changeset cs : changesets) {
+            if (cs.isOpen() || cs.getClosedAt() == null || !query.matches(cs)) {
+                continue;
+            }
+            if (latest == null || latest.before(cs.getClosedAt())) {
+                latest = cs.getClosedAt();
+            }
+        }
+        if (latest != null) {
+            lastClosedAt.put(key, latest);
+            dirty = true;
+        }
+    }
+
     public boolean contains(int id) {
         if (id <=0) return false;
         return cache.get(id) != null;
@@ -130,6 +339,7 @@ public class ChangesetCache implements PreferenceChangedListener{
         Changeset cs = cache.get(id);
         if (cs == null) return;
         cache.remove(id);
+        unindex(cs);
         e.rememberRemovedChangeset(cs);
     }
 
@@ -137,6 +347,7 @@ public class ChangesetCache implements PreferenceChangedListener{
         DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
         remove(id, e);
         if (! e.isEmpty()) {
+            changed(e);
             fireChangesetCacheEvent(e);
         }
     }
@@ -163,6 +374,7 @@ public class ChangesetCache implements PreferenceChangedListener{
             remove(cs.getId(), evt);
         }
         if (! evt.isEmpty()) {
+            changed(evt);
             fireChangesetCacheEvent(evt);
         }
     }
@@ -177,6 +389,9 @@ public class ChangesetCache implements PreferenceChangedListener{
             e.rememberRemovedChangeset(cs);
         }
         cache.clear();
+        byUser.clear();
+        lastClosedAt.clear();
+        dirty = true;
         fireChangesetCacheEvent(e);
     }
 
@@ -190,6 +405,241 @@ public class ChangesetCache implements PreferenceChangedListener{
         return ret;
     }
 
+    /* ------------------------------------------------------------------------- */
+    /* persistence                                                               */
+    /* ------------------------------------------------------------------------- */
+    private static File getFile() {
+        return new File(Main.pref.getPreferencesDir(), "cache/changesets");
+    }
+
+    private static String getServerUrl() {
+        return Main.pref.get("osm-server.url", "http://api.openstreetmap.org/api");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    private static void writeDate(DataOutputStream out, Date d) throws IOException {
+        out.writeLong(d == null ? Long.MIN_VALUE : d.getTime());
+    }
+
+    private static LatLon readLatLon(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new LatLon(in.readDouble(), in.readDouble()) : null;
+    }
+
+    private static void writeLatLon(DataOutputStream out, LatLon ll) throws IOException {
+        out.writeBoolean(ll != null);
+        if (ll != null) {
+            out.writeDouble(ll.lat());
+            out.writeDouble(ll.lon());
+        }
+    }
+
+    /**
+     * The changesets and query dates read from the file of a previous session.
+     */
+    private static class SavedState {
+        private final String serverUrl;
+        private final List<Changeset> changesets;
+        private final Map<String, Date> lastClosedAt;
+
+        SavedState(String serverUrl, List<Changeset> changesets, Map<String, Date> lastClosedAt) {
+            this.serverUrl = serverUrl;
+            this.changesets = changesets;
+            this.lastClosedAt = lastClosedAt;
+        }
+    }
+
+    /**
+     * Starts to load the changesets saved in the previous session in the background,
+     * if this wasn't done yet.
+     */
+    protected synchronized void startLoading() {
+        if (loadStarted) return;
+        loadStarted = true;
+        if (!PROP_PERSISTENT.get()) return;
+        Main.quickWorker.execute(new Runnable() {
+            public void run() {
+                final SavedState state = read(getFile());
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        restore(state);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the changesets saved in a file.
+     *
+     * @param file the file
+     * @return the saved changesets, null if there is no valid file
+     */
+    private static SavedState read(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            if (in.readInt() != MAGIC)
+                return null;
+            String serverUrl = in.readUTF();
+            int count = in.readInt();
+            List<Changeset> changesets = new ArrayList<Changeset>(count);
+            for (int i = 0; i < count; i++) {
+                Changeset cs = new Changeset(in.readInt());
+                cs.setIncomplete(in.readBoolean());
+                if (in.readBoolean()) {
+                    cs.setUser(User.createOsmUser(in.readLong(), readString(in)));
+                }
+                cs.setCreatedAt(readDate(in));
+                cs.setClosedAt(readDate(in));
+                cs.setOpen(in.readBoolean());
+                cs.setMin(readLatLon(in));
+                cs.setMax(readLatLon(in));
+                int numTags = in.readInt();
+                for (int j = 0; j < numTags; j++) {
+                    cs.put(in.readUTF(), in.readUTF());
+                }
+                changesets.add(cs);
+            }
+            Map<String, Date> dates = new HashMap<String, Date>();
+            int numQueries = in.readInt();
+            for (int i = 0; i < numQueries; i++) {
+                dates.put(in.readUTF(), new Date(in.readLong()));
+            }
+            return new SavedState(serverUrl, changesets, dates);
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+            return null;
+        } catch (IOException e) {
+            System.out.println(tr("Warning: failed to load changeset cache {0}: {1}", file, e.getMessage()));
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the changesets saved in the previous session, if they were downloaded from
+     * the current server. Changesets downloaded in this session are kept as they are.
+     *
+     * @param state the saved changesets. Ignored if null.
+     */
+    private void restore(SavedState state) {
+        loaded = true;
+        if (state == null || !getServerUrl().equals(state.serverUrl))
+            return;
+        DefaultChangesetCacheEvent e = new DefaultChangesetCacheEvent(this);
+        for (Changeset cs : state.changesets) {
+            if (!cache.containsKey(cs.getId())) {
+                cache.put(cs.getId(), cs);
+                index(cs);
+                e.rememberAddedChangeset(cs);
+            }
+        }
+        for (Map.Entry<String, Date> entry : state.lastClosedAt.entrySet()) {
+            if (!lastClosedAt.containsKey(entry.getKey())) {
+                lastClosedAt.put(entry.getKey(), entry.getValue());
+            }
+        }
+        evict(e);
+        forgetQueryResults(e.getRemovedChangesets());
+        if (!e.isEmpty()) {
+            fireChangesetCacheEvent(e);
+        }
+    }
+
+    /**
+     * Loads the changesets saved in a file, if they were downloaded from the current server.
+     *
+     * @param file the file
+     */
+    protected void load(File file) {
+        restore(read(file));
+    }
+
+    /**
+     * Saves the changesets if the cache is persistent and changed since it was loaded.
+     * Nothing is saved before the changesets of the previous session were loaded, they
+     * would be lost otherwise.
+     */
+    protected void saveIfDirty() {
+        if (!PROP_PERSISTENT.get() || !loaded || !dirty) return;
+        try {
+            save(getFile());
+        } catch (IOException e) {
+            System.out.println(tr("Warning: failed to save changeset cache: {0}", e.getMessage()));
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the changesets to a file.
+     *
+     * @param file the file
+     * @throws IOException thrown if the file can't be written
+     */
+    protected void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(getServerUrl());
+            out.writeInt(cache.size());
+            for (Changeset cs : cache.values()) {
+                out.writeInt(cs.getId());
+                out.writeBoolean(cs.isIncomplete());
+                boolean osmUser = cs.getUser() != null && cs.getUser().isOsmUser();
+                out.writeBoolean(osmUser);
+                if (osmUser) {
+                    out.writeLong(cs.getUser().getId());
+                    writeString(out, cs.getUser().getName());
+                }
+                writeDate(out, cs.getCreatedAt());
+                writeDate(out, cs.getClosedAt());
+                out.writeBoolean(cs.isOpen());
+                writeLatLon(out, cs.getMin());
+                writeLatLon(out, cs.getMax());
+                out.writeInt(cs.getKeys().size());
+                for (Map.Entry<String, String> e : cs.getKeys().entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+                }
+            }
+            out.writeInt(lastClosedAt.size());
+            for (Map.Entry<String, Date> e : lastClosedAt.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().getTime());
+            }
+        } finally {
+            out.close();
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file))
+            throw new IOException("Could not replace " + file);
+        dirty = false;
+    }
+
     /* ------------------------------------------------------------------------- */
     /* interface PreferenceChangedListener                                       */
     /* ------------------------------------------------------------------------- */
@@ -230,6 +230,24 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Adds the nodes in a bounding box which are accepted by a filter to a list. The filter
+     * is evaluated while the spatial index is searched, so no copy of the nodes in the bounding
+     * box is made. It is called with the read lock held and must not modify the dataset.
+     *
+     * @param bbox the bounding box
+     * @param filter the filter, null to accept all nodes
+     * @param result the list the nodes are added to
+     */
+    public void searchNodes(BBox bbox, Predicate<? super Node> filter, List<? super Node> result) {
+        lock.readLock().lock();
+        try {
+            nodes.search(bbox, filter, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * All ways (Streets etc.) in the DataSet.
      *
@@ -255,6 +273,23 @@ public class DataSet implements Cloneable, ProjectionChangeListener {
         }
     }
 
+    /**
+     * Adds the ways in a bounding box which are accepted by a filter to a list.
+     *
+     * @param bbox the bounding box
+     * @param filter the filter, null to accept all ways
+     * @param result the list the ways are added to
+     * @see #searchNodes(BBox, Predicate, List)
+     */
+    public void searchWays(BBox bbox, Predicate<? super Way> filter, List<? super Way> result) {
+        lock.readLock().lock();
+        try {
+            ways.search(bbox, filter, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     /**
      * All relations/relationships
      */
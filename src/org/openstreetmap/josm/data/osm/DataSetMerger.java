@@ -8,7 +8,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,13 +33,13 @@ public class DataSetMerger {
 
     /**
      * A map of all primitives that got replaced with other primitives.
-     * Key is the PrimitiveId in their dataset, the value is the PrimitiveId in my dataset
+     * Key is the primitive in their dataset, the value is the primitive in my dataset
      */
-    private final Map<PrimitiveId, PrimitiveId> mergedMap;
-    /** a set of primitive ids for which we have to fix references (to nodes and
+    private final Map<OsmPrimitive, OsmPrimitive> mergedMap;
+    /** a set of primitives in their dataset for which we have to fix references (to nodes and
      * to relation members) after the first phase of merging
      */
-    private final Set<PrimitiveId> objectsWithChildrenToMerge;
+    private final Set<OsmPrimitive> objectsWithChildrenToMerge;
     private final Set<OsmPrimitive> objectsToDelete;
 
     /**
@@ -57,8 +56,8 @@ public class DataSetMerger {
         this.targetDataSet = targetDataSet;
         this.sourceDataSet = sourceDataSet;
         conflicts = new ConflictCollection();
-        mergedMap = new HashMap<PrimitiveId, PrimitiveId>();
-        objectsWithChildrenToMerge = new HashSet<PrimitiveId>();
+        mergedMap = new HashMap<OsmPrimitive, OsmPrimitive>();
+        objectsWithChildrenToMerge = new HashSet<OsmPrimitive>();
         objectsToDelete = new HashSet<OsmPrimitive>();
     }
 
@@ -105,14 +104,14 @@ public class DataSetMerger {
                     continue;
                 }
                 if (target.hasEqualSemanticAttributes(source)) {
-                    mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
+                    mergedMap.put(source, target);
                     // copy the technical attributes from other
                     // version
                     target.setVisible(source.isVisible());
                     target.setUser(source.getUser());
                     target.setTimestamp(source.getTimestamp());
                     target.setModified(source.isModified());
-                    objectsWithChildrenToMerge.add(source.getPrimitiveId());
+                    objectsWithChildrenToMerge.add(source);
                     return;
                 }
             }
@@ -129,16 +128,19 @@ public class DataSetMerger {
         default: throw new AssertionError();
         }
         target.mergeFrom(source);
+        if (source instanceof Way) {
+            // the nodes are merged before the ways, so the node list can be set before the way
+            // is added. This way it is added to the spatial index only once, with its final bbox.
+            mergeNodeList((Way) source, (Way) target);
+        } else {
+            objectsWithChildrenToMerge.add(source);
+        }
         targetDataSet.addPrimitive(target);
-        mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
-        objectsWithChildrenToMerge.add(source.getPrimitiveId());
+        mergedMap.put(source, target);
     }
 
     protected OsmPrimitive getMergeTarget(OsmPrimitive mergeSource) throws IllegalStateException {
-        PrimitiveId targetId = mergedMap.get(mergeSource.getPrimitiveId());
-        if (targetId == null)
-            return null;
-        return targetDataSet.getPrimitiveById(targetId);
+        return mergedMap.get(mergeSource);
     }
 
     protected void fixIncomplete(Way other) {
@@ -153,13 +155,13 @@ public class DataSetMerger {
      */
     public void fixReferences() {
         for (Way w : sourceDataSet.getWays()) {
-            if (!conflicts.hasConflictForTheir(w) && objectsWithChildrenToMerge.contains(w.getPrimitiveId())) {
+            if (objectsWithChildrenToMerge.contains(w) && !conflicts.hasConflictForTheir(w)) {
                 mergeNodeList(w);
                 fixIncomplete(w);
             }
         }
         for (Relation r : sourceDataSet.getRelations()) {
-            if (!conflicts.hasConflictForTheir(r) && objectsWithChildrenToMerge.contains(r.getPrimitiveId())) {
+            if (objectsWithChildrenToMerge.contains(r) && !conflicts.hasConflictForTheir(r)) {
                 mergeRelationMembers(r);
             }
         }
@@ -233,7 +235,10 @@ public class DataSetMerger {
         Way target = (Way)getMergeTarget(source);
         if (target == null)
             throw new IllegalStateException(tr("Missing merge target for way with id {0}", source.getUniqueId()));
+        mergeNodeList(source, target);
+    }
 
+    private void mergeNodeList(Way source, Way target) throws IllegalStateException {
         List<Node> newNodes = new ArrayList<Node>(source.getNodesCount());
         for (Node sourceNode : source.getNodes()) {
             Node targetNode = (Node)getMergeTarget(sourceNode);
@@ -246,7 +251,20 @@ public class DataSetMerger {
             } else
                 throw new IllegalStateException(tr("Missing merge target for node with id {0}", sourceNode.getUniqueId()));
         }
-        target.setNodes(newNodes);
+        if (!hasNodes(target, newNodes)) {
+            // don't touch unchanged ways, setting the nodes reindexes the way
+            target.setNodes(newNodes);
+        }
+    }
+
+    private static boolean hasNodes(Way way, List<Node> nodes) {
+        if (way.getNodesCount() != nodes.size())
+            return false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (way.getNode(i) != nodes.get(i))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -260,7 +278,7 @@ public class DataSetMerger {
         Relation target = (Relation) getMergeTarget(source);
         if (target == null)
             throw new IllegalStateException(tr("Missing merge target for relation with id {0}", source.getUniqueId()));
-        LinkedList<RelationMember> newMembers = new LinkedList<RelationMember>();
+        List<RelationMember> newMembers = new ArrayList<RelationMember>(source.getMembersCount());
         for (RelationMember sourceMember : source.getMembers()) {
             OsmPrimitive targetMember = getMergeTarget(sourceMember.getMember());
             if (targetMember == null)
@@ -272,7 +290,20 @@ public class DataSetMerger {
                 targetMember.setDeleted(false);
             }
         }
-        target.setMembers(newMembers);
+        if (!hasMembers(target, newMembers)) {
+            target.setMembers(newMembers);
+        }
+    }
+
+    private static boolean hasMembers(Relation relation, List<RelationMember> members) {
+        if (relation.getMembersCount() != members.size())
+            return false;
+        for (int i = 0; i < members.size(); i++) {
+            RelationMember member = relation.getMember(i);
+            if (member.getMember() != members.get(i).getMember() || !member.getRole().equals(members.get(i).getRole()))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -288,7 +319,7 @@ public class DataSetMerger {
         if (target == null)
             return false;
         // found a corresponding target, remember it
-        mergedMap.put(source.getPrimitiveId(), target.getPrimitiveId());
+        mergedMap.put(source, target);
 
         if (target.getVersion() > source.getVersion())
             // target.version > source.version => keep target version
@@ -299,7 +330,7 @@ public class DataSetMerger {
             // => merge source into target
             //
             target.mergeFrom(source);
-            objectsWithChildrenToMerge.add(source.getPrimitiveId());
+            objectsWithChildrenToMerge.add(source);
         } else if (!target.isIncomplete() && source.isIncomplete()) {
             // target is complete and source is incomplete
             // => keep target, it has more information already
@@ -336,17 +367,17 @@ public class DataSetMerger {
             // target not modified. We can assume that source is the most recent version.
             // clone it into target.
             target.mergeFrom(source);
-            objectsWithChildrenToMerge.add(source.getPrimitiveId());
+            objectsWithChildrenToMerge.add(source);
         } else if (! target.isModified() && !source.isModified() && target.getVersion() == source.getVersion()) {
             // both not modified. Merge nevertheless.
             // This helps when updating "empty" relations, see #4295
             target.mergeFrom(source);
-            objectsWithChildrenToMerge.add(source.getPrimitiveId());
+            objectsWithChildrenToMerge.add(source);
         } else if (! target.isModified() && !source.isModified() && target.getVersion() < source.getVersion()) {
             // my not modified but other is newer. clone other onto mine.
             //
             target.mergeFrom(source);
-            objectsWithChildrenToMerge.add(source.getPrimitiveId());
+            objectsWithChildrenToMerge.add(source);
         } else if (target.isModified() && ! source.isModified() && target.getVersion() == source.getVersion()) {
             // target is same as source but target is modified
             // => keep target and reset modified flag if target and source are semantically equal
@@ -369,7 +400,7 @@ public class DataSetMerger {
             // attributes should already be equal if we get here.
             //
             target.mergeFrom(source);
-            objectsWithChildrenToMerge.add(source.getPrimitiveId());
+            objectsWithChildrenToMerge.add(source);
         }
         return true;
     }
@@ -216,7 +216,11 @@ public final class Node extends OsmPrimitive implements INode {
         try {
             super.mergeFrom(other);
             if (!other.isIncomplete()) {
-                setCoor(((Node)other).getCoor());
+                LatLon coor = ((Node)other).getCoor();
+                // don't reindex the node and its referrers if it didn't move
+                if (coor == null || !coor.equals(getCoor())) {
+                    setCoor(coor);
+                }
             }
         } finally {
             writeUnlock(locked);
@@ -10,6 +10,7 @@ import java.util.List;
 
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.coor.QuadTiling;
+import org.openstreetmap.josm.tools.Predicate;
 
 /**
  * Note: bbox of primitives added to QuadBuckets has to stay the same. In case of coordinate change, primitive must
@@ -253,7 +254,7 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             //return search_bbox.bounds(coor));
             return o.getBBox().intersects(search_bbox);
         }
-        private void search_contents(BBox search_bbox, List<T> result)
+        private void search_contents(BBox search_bbox, Predicate<? super T> filter, List<? super T> result)
         {
             /*if (debug) {
                 out("searching contents (size: " + content == null?"<null>":content.size() + ") for " + search_bbox);
@@ -266,7 +267,7 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
                 return;
 
             for (T o : content) {
-                if (matches(o, search_bbox)) {
+                if (matches(o, search_bbox) && (filter == null || filter.evaluate(o))) {
                     result.add(o);
                 }
             }
@@ -399,7 +400,7 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             findBucket(o.getBBox()).doAdd(o);
         }
 
-        private void search(BBox search_bbox, List<T> result)
+        private void search(BBox search_bbox, Predicate<? super T> filter, List<? super T> result)
         {
             /*if (debug) {
                 System.out.print("[" + level + "] qb bbox: " + this.bbox() + " ");
@@ -415,7 +416,7 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             }
 
             if (this.hasContent()) {
-                search_contents(search_bbox, result);
+                search_contents(search_bbox, filter, result);
             }
 
             /*if (debug) {
@@ -426,16 +427,16 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
             //TODO Coincidence vector should be calculated here and only buckets that match search_bbox should be checked
 
             if (nw != null) {
-                nw.search(search_bbox, result);
+                nw.search(search_bbox, filter, result);
             }
             if (ne != null) {
-                ne.search(search_bbox, result);
+                ne.search(search_bbox, filter, result);
             }
             if (se != null) {
-                se.search(search_bbox, result);
+                se.search(search_bbox, filter, result);
             }
             if (sw != null) {
-                sw.search(search_bbox, result);
+                sw.search(search_bbox, filter, result);
             }
         }
         public String quads()
@@ -712,56 +713,57 @@ public class QuadBuckets<T extends OsmPrimitive> implements Collection<T>
         return false;
     }
     public List<T> search(BBox search_bbox) {
+        List<T> ret = new ArrayList<T>();
+        search(search_bbox, null, ret);
+        return ret;
+    }
+
+    /**
+     * Adds the objects intersecting a bounding box and accepted by a filter to a list,
+     * without creating intermediate collections.
+     *
+     * @param search_bbox the bounding box
+     * @param filter the filter, null to accept all objects
+     * @param result the list the objects are added to
+     */
+    public void search(BBox search_bbox, Predicate<? super T> filter, List<? super T> result) {
         /*if (debug) {
             out("qb root search at " + search_bbox);
             out("root bbox: " + root.bbox());
         }*/
-        List<T> ret = new ArrayList<T>();
         // Doing this cuts down search cost on a real-life data
         // set by about 25%
-        boolean cache_searches = true;
-        if (cache_searches) {
-            if (search_cache == null) {
-                search_cache = root;
-            }
-            // Walk back up the tree when the last
-            // search spot can not cover the current
-            // search
-            while (search_cache != null && !search_cache.bbox().bounds(search_bbox)) {
-                /*if (debug) {
-                    out("bbox: " + search_bbox);
-                    out("search_cache: " + search_cache + " level: " + search_cache.level);
-                    out("search_cache.bbox(): " + search_cache.bbox());
-                }*/
-                search_cache = search_cache.parent;
-                /*if (debug) {
-                    out("new search_cache: " + search_cache);
-                }*/
-            }
-
-            if (search_cache == null) {
-                search_cache = root;
-                out("bbox: " + search_bbox + " is out of the world");
-            }
-        } else {
-            search_cache = root;
+        // The cache is read once only, other readers may change it meanwhile
+        QBLevel start = search_cache;
+        if (start == null) {
+            start = root;
         }
+        // Walk back up the tree when the last
+        // search spot can not cover the current
+        // search
+        while (start != null && !start.bbox().bounds(search_bbox)) {
+            start = start.parent;
+        }
+        if (start == null) {
+            start = root;
+            out("bbox: " + search_bbox + " is out of the world");
+        }
+        search_cache = start;
 
         // Save parent because search_cache might change during search call
-        QBLevel tmp = search_cache.parent;
+        QBLevel tmp = start.parent;
 
-        search_cache.search(search_bbox, ret);
+        start.search(search_bbox, filter, result);
 
         // A way that spans this bucket may be stored in one
         // of the nodes which is a parent of the search cache
         while (tmp != null) {
-            tmp.search_contents(search_bbox, ret);
+            tmp.search_contents(search_bbox, filter, result);
             tmp = tmp.parent;
         }
         /*if (debug) {
             out("search of QuadBuckets for " + search_bbox + " ret len: " + ret.size());
         }*/
-        return ret;
     }
 
     public void printTree() {
@@ -0,0 +1,318 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+
+/**
+ * Keeps the histories downloaded from the OSM server on disk, so that the history of an
+ * object doesn't have to be downloaded again in the next session.
+ * <p>
+ * Versions of an object never change once they exist, so a cached history is complete up
+ * to its latest version. Newer versions are merged in by {@link #put(History)}.
+ * <p>
+ * The history of each object is saved in a binary file named after its type and id in the
+ * <code>cache/history</code> directory of the preferences. When the files take up more
+ * than {@link #PROP_MAX_SIZE}, the least recently used are deleted.
+ */
+public class HistoryCache {
+    /** Whether downloaded histories are cached on disk */
+    public static final BooleanProperty PROP_ENABLED = new BooleanProperty("history.cache", true);
+    /** The maximum size of the cache in KB */
+    public static final IntegerProperty PROP_MAX_SIZE = new IntegerProperty("history.cache.maxSize", 10240);
+
+    private static final int MAGIC = 0x4a484331;
+
+    private static HistoryCache instance;
+
+    /**
+     * Replies the cache in the preferences directory.
+     */
+    public static synchronized HistoryCache getInstance() {
+        if (instance == null) {
+            instance = new HistoryCache(new File(Main.pref.getPreferencesDir(), "cache/history"));
+        }
+        return instance;
+    }
+
+    private final File dir;
+    /** the sizes of the cache files by name, least recently used first; null until the directory was scanned */
+    private LinkedHashMap<String, Long> files;
+    private long totalSize;
+
+    /**
+     * Constructs a new {@code HistoryCache}.
+     * @param dir the directory the histories are saved in
+     */
+    public HistoryCache(File dir) {
+        this.dir = dir;
+    }
+
+    private static String getFileName(PrimitiveId id) {
+        return id.getType().getAPIName() + id.getUniqueId();
+    }
+
+    /**
+     * Reads the files in the cache directory, which are ordered by the time they were
+     * last used.
+     */
+    private void scan() {
+        if (files != null)
+            return;
+        files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        totalSize = 0;
+        File[] list = dir.listFiles();
+        if (list == null)
+            return;
+        Arrays.sort(list, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long t1 = f1.lastModified();
+                long t2 = f2.lastModified();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        for (File f : list) {
+            if (f.isFile()) {
+                files.put(f.getName(), f.length());
+                totalSize += f.length();
+            }
+        }
+    }
+
+    /**
+     * Replies the cached history of a primitive.
+     *
+     * @param id the primitive id. Must not be null.
+     * @return the history, or null if the history of the primitive isn't cached
+     * @throws IllegalArgumentException thrown if id is null
+     */
+    public synchronized History get(PrimitiveId id) throws IllegalArgumentException {
+        CheckParameterUtil.ensureParameterNotNull(id, "id");
+        if (!PROP_ENABLED.get())
+            return null;
+        scan();
+        String name = getFileName(id);
+        if (files.get(name) == null)
+            return null;
+        File file = new File(dir, name);
+        List<HistoryOsmPrimitive> versions = read(file, id);
+        if (versions == null) {
+            remove(name);
+            return null;
+        }
+        // remember the use, so the file is the last to be evicted in the next session too
+        file.setLastModified(System.currentTimeMillis());
+        return new History(id.getUniqueId(), id.getType(), versions);
+    }
+
+    /**
+     * Saves a history in the cache. Versions which are only in the cache are kept.
+     *
+     * @param history the history. Must not be null.
+     * @throws IllegalArgumentException thrown if history is null
+     */
+    public synchronized void put(History history) throws IllegalArgumentException {
+        CheckParameterUtil.ensureParameterNotNull(history, "history");
+        if (!PROP_ENABLED.get() || history.isEmpty())
+            return;
+        scan();
+        PrimitiveId id = history.getPrimitmiveId();
+        String name = getFileName(id);
+        File file = new File(dir, name);
+        List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>();
+        if (files.get(name) != null) {
+            List<HistoryOsmPrimitive> cached = read(file, id);
+            if (cached != null) {
+                for (HistoryOsmPrimitive p : cached) {
+                    if (!history.contains(p.getVersion())) {
+                        versions.add(p);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < history.getNumVersions(); i++) {
+            versions.add(history.get(i));
+        }
+        Collections.sort(versions);
+        try {
+            dir.mkdirs();
+            write(file, versions);
+        } catch (IOException e) {
+            System.err.println("Warning: failed to save history of " + name + ": " + e.getMessage());
+            remove(name);
+            return;
+        }
+        Long old = files.put(name, file.length());
+        totalSize += file.length() - (old == null ? 0 : old);
+        evict(name);
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is small enough again.
+     *
+     * @param keep the name of a file which is never deleted
+     */
+    private void evict(String keep) {
+        long maxSize = PROP_MAX_SIZE.get() * 1024L;
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (totalSize > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().equals(keep)) {
+                continue;
+            }
+            new File(dir, e.getKey()).delete();
+            totalSize -= e.getValue();
+            it.remove();
+        }
+    }
+
+    private void remove(String name) {
+        Long size = files.remove(name);
+        if (size != null) {
+            totalSize -= size;
+        }
+        new File(dir, name).delete();
+    }
+
+    private static List<HistoryOsmPrimitive> read(File file, PrimitiveId id) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC)
+                return null;
+            int count = in.readInt();
+            List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>(count);
+            for (int i = 0; i < count; i++) {
+                long version = in.readLong();
+                boolean visible = in.readBoolean();
+                String user = in.readUTF();
+                long uid = in.readLong();
+                long changesetId = in.readLong();
+                Date timestamp = new Date(in.readLong());
+                HistoryOsmPrimitive p = null;
+                switch (id.getType()) {
+                case NODE:
+                    LatLon coords = in.readBoolean() ? new LatLon(in.readDouble(), in.readDouble()) : null;
+                    p = new HistoryNode(id.getUniqueId(), version, visible, user, uid, changesetId, timestamp, coords);
+                    break;
+                case WAY:
+                    int numNodes = in.readInt();
+                    ArrayList<Long> nodes = new ArrayList<Long>(numNodes);
+                    for (int j = 0; j < numNodes; j++) {
+                        nodes.add(in.readLong());
+                    }
+                    p = new HistoryWay(id.getUniqueId(), version, visible, user, uid, changesetId, timestamp, nodes);
+                    break;
+                case RELATION:
+                    int numMembers = in.readInt();
+                    ArrayList<RelationMember> members = new ArrayList<RelationMember>(numMembers);
+                    for (int j = 0; j < numMembers; j++) {
+                        String role = in.readUTF();
+                        OsmPrimitiveType type = OsmPrimitiveType.values()[in.readByte()];
+                        members.add(new RelationMember(role, type, in.readLong()));
+                    }
+                    p = new HistoryRelation(id.getUniqueId(), version, visible, user, uid, changesetId, timestamp, members);
+                    break;
+                }
+                int numTags = in.readInt();
+                for (int j = 0; j < numTags; j++) {
+                    p.put(in.readUTF(), in.readUTF());
+                }
+                versions.add(p);
+            }
+            return versions;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Warning: failed to load cached history " + file + ": " + e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            System.err.println("Warning: invalid cached history " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static void write(File file, List<HistoryOsmPrimitive> versions) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(versions.size());
+            for (HistoryOsmPrimitive p : versions) {
+                out.writeLong(p.getVersion());
+                out.writeBoolean(p.isVisible());
+                out.writeUTF(p.getUser());
+                out.writeLong(p.getUid());
+                out.writeLong(p.getChangesetId());
+                out.writeLong(p.getTimestamp().getTime());
+                switch (p.getType()) {
+                case NODE:
+                    LatLon coords = ((HistoryNode) p).getCoords();
+                    out.writeBoolean(coords != null);
+                    if (coords != null) {
+                        out.writeDouble(coords.lat());
+                        out.writeDouble(coords.lon());
+                    }
+                    break;
+                case WAY:
+                    List<Long> nodes = ((HistoryWay) p).getNodes();
+                    out.writeInt(nodes.size());
+                    for (Long node : nodes) {
+                        out.writeLong(node);
+                    }
+                    break;
+                case RELATION:
+                    List<RelationMember> members = ((HistoryRelation) p).getMembers();
+                    out.writeInt(members.size());
+                    for (RelationMember m : members) {
+                        out.writeUTF(m.getRole());
+                        out.writeByte(m.getPrimitiveType().ordinal());
+                        out.writeLong(m.getPrimitiveId());
+                    }
+                    break;
+                }
+                out.writeInt(p.getTags().size());
+                for (Map.Entry<String, String> e : p.getTags().entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file))
+            throw new IOException("Could not replace " + file);
+    }
+}
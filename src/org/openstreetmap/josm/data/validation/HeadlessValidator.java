@@ -0,0 +1,381 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.io.OsmBzip2Importer;
+import org.openstreetmap.josm.io.OsmGzipImporter;
+import org.openstreetmap.josm.io.OsmImporter;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+
+/**
+ * Runs the validator on OSM files without the user interface.
+ * <p>
+ * The errors found are written one per line, either as JSON objects or as GeoJSON features
+ * located at the center of the primitives in error. After each file, the {@link TestStatistics}
+ * of each test are written as well, in the GeoJSON format to the standard error stream.
+ * <p>
+ * Run <code>java -cp josm.jar org.openstreetmap.josm.data.validation.HeadlessValidator --help</code>
+ * for the available options.
+ */
+public class HeadlessValidator {
+
+    /**
+     * The output formats.
+     */
+    public enum Format {
+        /** One JSON object per error and per test timing */
+        JSON,
+        /** One GeoJSON feature per error */
+        GEOJSON
+    }
+
+    private static final OsmImporter[] IMPORTERS = new OsmImporter[] {
+        new OsmImporter(), new OsmGzipImporter(), new OsmBzip2Importer()
+    };
+
+    private final Collection<Test> tests;
+    private final Format format;
+    private final PrintWriter out;
+    private final PrintWriter timingOut;
+
+    /**
+     * Constructs a new {@code HeadlessValidator}.
+     *
+     * @param tests the initialized tests to run. Must not be null.
+     * @param format the output format. Must not be null.
+     * @param out the stream the errors are written to. Must not be null.
+     */
+    public HeadlessValidator(Collection<Test> tests, Format format, OutputStream out) {
+        CheckParameterUtil.ensureParameterNotNull(tests, "tests");
+        CheckParameterUtil.ensureParameterNotNull(format, "format");
+        CheckParameterUtil.ensureParameterNotNull(out, "out");
+        this.tests = tests;
+        this.format = format;
+        this.out = createWriter(out);
+        this.timingOut = format == Format.JSON ? this.out : createWriter(System.err);
+    }
+
+    private static PrintWriter createWriter(OutputStream out) {
+        try {
+            return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads an OSM file with the importer accepting its name.
+     *
+     * @param file the file
+     * @return the data
+     * @throws IOException if the file can't be read or isn't an OSM file
+     */
+    public static DataSet loadFile(File file) throws IOException {
+        for (OsmImporter importer : IMPORTERS) {
+            if (importer.acceptFile(file)) {
+                try {
+                    return importer.parseDataSet(file, null);
+                } catch (Exception e) {
+                    IOException ioe = new IOException(tr("Could not read file ''{0}'': {1}", file.getName(), e.getMessage()));
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+        }
+        throw new IOException(tr("Unknown file type: ''{0}''", file.getName()));
+    }
+
+    /**
+     * Validates a data set and writes the errors found and the statistics of each test.
+     *
+     * @param name the name of the data, written with each error
+     * @param ds the data
+     * @return the number of errors found
+     */
+    public int validate(String name, DataSet ds) {
+        ValidationEngine engine = new ValidationEngine(tests);
+        List<TestError> errors = engine.validate(ds.allNonDeletedPrimitives(), false, null);
+        for (TestError error : errors) {
+            if (format == Format.GEOJSON) {
+                writeFeature(name, error);
+            } else {
+                out.print("{\"type\":\"error\",");
+                writeProperties(name, error);
+                out.print(",\"bbox\":");
+                BBox bbox = getBBox(error);
+                if (bbox == null) {
+                    out.print("null");
+                } else {
+                    out.print("[" + bbox.getTopLeft().lon() + "," + bbox.getBottomRight().lat() + ","
+                            + bbox.getBottomRight().lon() + "," + bbox.getTopLeft().lat() + "]");
+                }
+                out.println("}");
+            }
+        }
+        out.flush();
+        for (TestStatistics s : engine.getStatistics().values()) {
+            timingOut.println("{\"type\":\"timing\",\"file\":" + quote(name)
+                    + ",\"test\":" + quote(s.getName())
+                    + ",\"ms\":" + (s.getNanos() / 1000000)
+                    + ",\"primitives\":" + s.getPrimitives()
+                    + ",\"cached\":" + s.getCachedPrimitives()
+                    + ",\"errors\":" + s.getErrors()
+                    + ",\"allocatedBytes\":" + s.getAllocatedBytes() + "}");
+        }
+        timingOut.flush();
+        return errors.size();
+    }
+
+    private void writeFeature(String name, TestError error) {
+        out.print("{\"type\":\"Feature\",\"geometry\":");
+        BBox bbox = getBBox(error);
+        if (bbox == null) {
+            out.print("null");
+        } else {
+            LatLon tl = bbox.getTopLeft();
+            LatLon br = bbox.getBottomRight();
+            out.print("{\"type\":\"Point\",\"coordinates\":[" + (tl.lon() + br.lon()) / 2 + ","
+                    + (tl.lat() + br.lat()) / 2 + "]}");
+        }
+        out.print(",\"properties\":{");
+        writeProperties(name, error);
+        out.println("}}");
+    }
+
+    private void writeProperties(String name, TestError error) {
+        out.print("\"file\":" + quote(name));
+        out.print(",\"test\":" + quote(error.getTester().getClass().getSimpleName()));
+        out.print(",\"severity\":" + quote(error.getSeverity().name()));
+        out.print(",\"code\":" + error.getCode());
+        out.print(",\"message\":" + quote(error.getMessage()));
+        out.print(",\"description\":" + quote(error.getDescription()));
+        out.print(",\"primitives\":[");
+        boolean first = true;
+        for (OsmPrimitive p : error.getPrimitives()) {
+            if (!first) {
+                out.print(",");
+            }
+            first = false;
+            out.print(quote(OsmPrimitiveType.from(p).getAPIName().charAt(0) + Long.toString(p.getUniqueId())));
+        }
+        out.print("]");
+    }
+
+    /**
+     * Replies the bounding box of the primitives of an error, null if none of them has coordinates.
+     */
+    private static BBox getBBox(TestError error) {
+        BBox bbox = null;
+        for (OsmPrimitive p : error.getPrimitives()) {
+            BBox b = p.getBBox();
+            if (b == null || Double.isInfinite(b.getTopLeft().lat()) || (p.isIncomplete()))
+                continue;
+            if (bbox == null) {
+                bbox = new BBox(b);
+            } else {
+                bbox.add(b);
+            }
+        }
+        return bbox;
+    }
+
+    /**
+     * Replies a string as JSON string literal.
+     */
+    protected static String quote(String s) {
+        if (s == null)
+            return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Replies the tests with the given names, all enabled tests if <code>names</code> is null.
+     * The tests are initialized.
+     *
+     * @throws IllegalArgumentException if there is no test with one of the names
+     */
+    public static Collection<Test> getTests(String[] names) {
+        Collection<Test> tests = new ArrayList<Test>();
+        if (names == null) {
+            tests.addAll(OsmValidator.getEnabledTests(false));
+        } else {
+            Map<String, Test> allTests = OsmValidator.getAllTestsMap();
+            for (String name : names) {
+                Test test = allTests.get(name.trim());
+                if (test == null)
+                    throw new IllegalArgumentException(tr("Unknown test: {0}", name));
+                test.enabled = true;
+                tests.add(test);
+            }
+        }
+        for (Test test : new ArrayList<Test>(tests)) {
+            try {
+                test.initialize();
+            } catch (Exception e) {
+                System.err.println(tr("Error initializing test {0}:\n {1}", test.getClass().getSimpleName(), e));
+                tests.remove(test);
+            }
+        }
+        return tests;
+    }
+
+    private static void usage() {
+        System.out.println(tr("Usage") + ": java -cp josm.jar " + HeadlessValidator.class.getName()
+                + " [options] file...\n\n"
+                + tr("options") + ":\n"
+                + "\t--tests=<test>,...         " + tr("The tests to run, by default the tests enabled in the preferences") + "\n"
+                + "\t--format=json|geojson      " + tr("The output format, by default JSON") + "\n"
+                + "\t--output=<file>            " + tr("The file the errors are written to, by default the standard output") + "\n"
+                + "\t--threads=<number>         " + tr("The number of threads used for validation") + "\n"
+                + "\t--list-tests               " + tr("List the available tests") + "\n"
+                + "\t--help|-h                  " + tr("Show this help") + "\n\n"
+                + tr("The files can be *.osm, *.osm.gz or *.osm.bz2 files.") + "\n"
+                + tr("The preferences are read from the JOSM preference directory, or the josm.home system property."));
+    }
+
+    public static void main(String[] args) {
+        String[] testNames = null;
+        Format format = Format.JSON;
+        String output = null;
+        boolean listTests = false;
+        List<File> files = new ArrayList<File>();
+        Integer threads = null;
+        for (String arg : args) {
+            if (arg.equals("--help") || arg.equals("-h")) {
+                usage();
+                return;
+            } else if (arg.startsWith("--tests=")) {
+                testNames = arg.substring("--tests=".length()).split(",");
+            } else if (arg.startsWith("--format=")) {
+                try {
+                    format = Format.valueOf(arg.substring("--format=".length()).toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    System.err.println(tr("Unknown format: {0}", arg.substring("--format=".length())));
+                    System.exit(2);
+                }
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.startsWith("--threads=")) {
+                try {
+                    threads = Integer.valueOf(arg.substring("--threads=".length()));
+                } catch (NumberFormatException e) {
+                    System.err.println(tr("Invalid number of threads: {0}", arg.substring("--threads=".length())));
+                    System.exit(2);
+                }
+            } else if (arg.equals("--list-tests")) {
+                listTests = true;
+            } else if (arg.startsWith("--")) {
+                System.err.println(tr("Unknown option: {0}", arg));
+                usage();
+                System.exit(2);
+            } else {
+                files.add(new File(arg));
+            }
+        }
+
+        Main.pref = new Preferences();
+        if (Main.pref.getPreferenceFile().exists()) {
+            try {
+                Main.pref.load();
+            } catch (IOException e) {
+                System.err.println(tr("Warning: Could not load preferences: {0}", e.getMessage()));
+            }
+        }
+        Main.setProjection(new Mercator());
+        OsmValidator.initializeGridDetail();
+        new File(OsmValidator.getValidatorDir()).mkdirs();
+        if (threads != null) {
+            ValidationEngine.PROP_THREADS.put(threads);
+        }
+
+        if (listTests) {
+            for (Class<Test> testClass : OsmValidator.getAllAvailableTests()) {
+                System.out.println(testClass.getSimpleName());
+            }
+            return;
+        }
+        if (files.isEmpty()) {
+            usage();
+            System.exit(2);
+        }
+
+        int exitCode = 0;
+        OutputStream out = System.out;
+        try {
+            Collection<Test> tests = getTests(testNames);
+            if (output != null) {
+                out = new FileOutputStream(output);
+            }
+            HeadlessValidator validator = new HeadlessValidator(tests, format, out);
+            for (File file : files) {
+                DataSet ds;
+                try {
+                    ds = loadFile(file);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                    if (e.getCause() != null) {
+                        e.getCause().printStackTrace();
+                    }
+                    exitCode = 1;
+                    continue;
+                }
+                validator.validate(file.getPath(), ds);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            exitCode = 2;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            exitCode = 2;
+        } finally {
+            if (out != System.out) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,241 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.data.validation.util.AggregatePrimitivesVisitor;
+import org.openstreetmap.josm.data.validation.util.ValUtil;
+import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
+
+/**
+ * Validates the primitives of the edit layer while they are edited.
+ * <p>
+ * The changed primitives are collected from the dataset events, together with the
+ * primitives referring to them. The enabled {@link Test#isLocal() local} tests are run
+ * on these primitives and the nodes and ways close by, on a background thread.
+ * Afterwards the errors of these tests concerning the changed primitives or their
+ * referrers in the validator dialog are replaced by the new ones. The errors of the other tests, which
+ * compare primitives all over the dataset, are only updated by a full validation.
+ * <p>
+ * Complete changes of the dataset, e.g. when the edit layer changes, aren't revalidated.
+ */
+public class LiveValidator implements DataSetListener {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Live validator");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Primitives changed since the last validation was started */
+    private final Set<OsmPrimitive> changed = new LinkedHashSet<OsmPrimitive>();
+    private DataSet dataSet;
+    private boolean scheduled;
+
+    public static boolean isEnabled() {
+        return Main.pref.getBoolean(ValidatorPreference.PREF_LIVE, false);
+    }
+
+    private synchronized void addChanged(DataSet ds, Collection<? extends OsmPrimitive> primitives) {
+        if (!isEnabled() || ds == null || Main.map == null)
+            return;
+        if (ds != dataSet) {
+            changed.clear();
+            dataSet = ds;
+        }
+        changed.addAll(primitives);
+        if (!scheduled) {
+            scheduled = true;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        validateChanged();
+                    } catch (RuntimeException e) {
+                        // keep validating the next changes
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private void addChanged(AbstractDatasetChangedEvent event) {
+        addChanged(event.getDataset(), event.getPrimitives());
+    }
+
+    /**
+     * Replies the primitives whose errors have to be replaced when the given primitives
+     * changed: the changed primitives and the ways and relations referring to them.
+     */
+    protected static Set<OsmPrimitive> getRevalidatedPrimitives(Collection<OsmPrimitive> primitives) {
+        Set<OsmPrimitive> revalidated = new HashSet<OsmPrimitive>();
+        for (OsmPrimitive p : primitives) {
+            if (p.isUsable()) {
+                revalidated.add(p);
+                revalidated.addAll(p.getReferrers());
+            }
+        }
+        return revalidated;
+    }
+
+    protected void validateChanged() {
+        final DataSet ds;
+        final Collection<OsmPrimitive> primitives;
+        synchronized (this) {
+            scheduled = false;
+            ds = dataSet;
+            primitives = new ArrayList<OsmPrimitive>(changed);
+            changed.clear();
+        }
+        if (ds == null || primitives.isEmpty())
+            return;
+        final Collection<Test> tests = OsmValidator.getEnabledTests(false);
+        for (Iterator<Test> it = tests.iterator(); it.hasNext();) {
+            if (!it.next().isLocal()) {
+                it.remove();
+            }
+        }
+        if (tests.isEmpty())
+            return;
+
+        final Collection<OsmPrimitive> revalidated;
+        final Collection<OsmPrimitive> neighbourhood;
+        // the dataset is edited on the EDT meanwhile, so only collect the primitives under
+        // the lock. A change during the validation is validated again afterwards.
+        ds.getReadLock().lock();
+        try {
+            revalidated = getRevalidatedPrimitives(primitives);
+            neighbourhood = new AggregatePrimitivesVisitor().visit(
+                    ValUtil.getNeighbourhood(revalidated, ValUtil.getNeighbourhoodDistance()));
+        } finally {
+            ds.getReadLock().unlock();
+        }
+        final List<TestError> newErrors = new ValidationEngine(tests).validate(revalidated, neighbourhood, true, null);
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (Main.map == null || Main.main.getCurrentDataSet() != ds)
+                    return;
+                updateErrors(tests, revalidated, newErrors);
+            }
+        });
+    }
+
+    /**
+     * Replaces the errors of the revalidated primitives in the validator dialog. Errors
+     * of the revalidated tests which don't concern these primitives are kept, as well as
+     * the errors of the other tests.
+     */
+    protected void updateErrors(Collection<Test> tests, Collection<OsmPrimitive> revalidated, List<TestError> newErrors) {
+        Set<Class<?>> testClasses = new HashSet<Class<?>>();
+        for (Test test : tests) {
+            testClasses.add(test.getClass());
+        }
+        Set<OsmPrimitive> replaced = new HashSet<OsmPrimitive>(revalidated);
+        List<TestError> errors = new ArrayList<TestError>();
+        for (TestError error : Main.map.validatorDialog.tree.getErrors()) {
+            boolean keep = true;
+            boolean retested = error.getTester() != null && testClasses.contains(error.getTester().getClass());
+            for (OsmPrimitive p : error.getPrimitives()) {
+                if ((retested && replaced.contains(p)) || !p.isUsable()) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                errors.add(error);
+            }
+        }
+        boolean useIgnore = Main.pref.getBoolean(ValidatorPreference.PREF_USE_IGNORE, true);
+        for (TestError error : newErrors) {
+            if (useIgnore) {
+                for (String state : new String[] {error.getIgnoreState(), error.getIgnoreGroup(), error.getIgnoreSubGroup()}) {
+                    if (state != null && OsmValidator.hasIgnoredError(state)) {
+                        error.setIgnored(true);
+                    }
+                }
+            }
+            errors.add(error);
+        }
+        if (!newErrors.isEmpty()) {
+            OsmValidator.initializeErrorLayer();
+        }
+        Main.map.validatorDialog.tree.setErrors(errors);
+        Main.map.mapView.repaint();
+    }
+
+    /* -------------------------------------------------------------------------- */
+    /* interface DataSetListener                                                  */
+    /* -------------------------------------------------------------------------- */
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        addChanged(event);
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        // consolidated events carry the single changes, without them the whole dataset changed
+        if (event.getEvents() != null) {
+            for (AbstractDatasetChangedEvent e : event.getEvents()) {
+                e.fire(this);
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@ import javax.swing.JOptionPane;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.ValidateAction;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager;
+import org.openstreetmap.josm.data.osm.event.DatasetEventManager.FireMode;
 import org.openstreetmap.josm.data.projection.Epsg4326;
 import org.openstreetmap.josm.data.projection.Lambert;
 import org.openstreetmap.josm.data.projection.Mercator;
@@ -64,6 +66,9 @@ public class OsmValidator implements LayerChangeListener {
     /** The validate action */
     public ValidateAction validateAction = new ValidateAction();
 
+    /** Validates edited primitives if enabled in the preferences */
+    public final LiveValidator liveValidator = new LiveValidator();
+
     /** Grid detail, multiplier of east,north values for valuable cell sizing */
     public static double griddetail;
 
@@ -102,6 +107,7 @@ public class OsmValidator implements LayerChangeListener {
         initializeGridDetail();
         initializeTests(getTests());
         loadIgnoredErrors(); //FIXME: load only when needed
+        DatasetEventManager.getInstance().addDatasetListener(liveValidator, FireMode.IN_EDT);
     }
 
     /**
@@ -239,7 +245,7 @@ public class OsmValidator implements LayerChangeListener {
      * the original value fixed for EPSG:4326 (10000) using heuristics (that is, test&error
      * until most bugs were discovered while keeping the processing time reasonable)
      */
-    public void initializeGridDetail() {
+    public static void initializeGridDetail() {
         if (Main.getProjection().toString().equals(new Epsg4326().toString())) {
             OsmValidator.griddetail = 10000;
         } else if (Main.getProjection().toString().equals(new Mercator().toString())) {
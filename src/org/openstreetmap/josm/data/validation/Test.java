@@ -151,6 +151,72 @@ public class Test extends AbstractVisitor
     @Override
     public void visit(Relation r) {}
 
+    /**
+     * Returns true if this test checks each primitive on its own, without keeping state
+     * between the visited primitives. The primitives of such a test may be split between
+     * several instances of the test, which run at the same time.
+     *
+     * @return true if the primitives may be validated in parts
+     * @see #copy()
+     */
+    public boolean isStatelessPerPrimitive() {
+        return false;
+    }
+
+    /**
+     * Returns true if the errors this test finds on a primitive only depend on the
+     * primitive itself, i.e. its tags and, for ways, its nodes. The errors of such a test
+     * on unmodified primitives are kept in the {@link ValidationCache}.
+     *
+     * @return true if the errors of this test may be cached
+     */
+    public boolean isCacheable() {
+        return false;
+    }
+
+    /**
+     * Returns true if the errors this test finds on a primitive only depend on the primitive
+     * and the primitives close to it, within {@link org.openstreetmap.josm.data.validation.util.ValUtil#getNeighbourhoodDistance()}.
+     * Such a test gives the same errors for the primitives of a part of the data as for the
+     * whole data, as long as the part contains their neighbourhood. Live validation only runs
+     * these tests.
+     *
+     * @return true if the test may be run on the neighbourhood of some primitives
+     */
+    public boolean isLocal() {
+        return isStatelessPerPrimitive() || isCacheable();
+    }
+
+    /**
+     * Returns a string describing the configuration of this test, including the preferences
+     * it reads. The cached errors of this test are discarded when it changes.
+     *
+     * @return the configuration of this test
+     * @see #isCacheable()
+     */
+    public String getCacheFingerprint() {
+        return getClass().getName();
+    }
+
+    /**
+     * Creates another instance of this test with the same settings.
+     *
+     * @return a new instance of this test
+     */
+    public Test copy() {
+        Test test;
+        try {
+            test = getClass().newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        test.enabled = enabled;
+        test.testBeforeUpload = testBeforeUpload;
+        test.isBeforeUpload = isBeforeUpload;
+        test.partialSelection = partialSelection;
+        return test;
+    }
+
     /**
      * Allow the tester to manage its own preferences
      * @param testPanel The panel to add any preferences component
@@ -104,6 +104,14 @@ public class TestError {
         return description;
     }
 
+    /**
+     * Gets the untranslated error description
+     * @return the untranslated error description
+     */
+    public String getDescriptionEn() {
+        return description_en;
+    }
+
     /**
      * Sets the error message
      * @param message The error message
@@ -120,6 +128,14 @@ public class TestError {
         return primitives;
     }
 
+    /**
+     * Gets the objects to be highlighted
+     * @return the objects to be highlighted
+     */
+    public Collection<?> getHighlighted() {
+        return highlighted;
+    }
+
     /**
      * Sets the list of primitives affected by this error
      * @param primitives the list of primitives affected by this error
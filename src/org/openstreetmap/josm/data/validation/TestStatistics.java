@@ -0,0 +1,182 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The resources used by a validation test: the time spent, the primitives visited, the
+ * errors found and an estimate of the memory allocated.
+ * <p>
+ * The statistics are collected by the {@link ValidationEngine}, for each validation and
+ * summed up since the start of JOSM.
+ */
+public class TestStatistics {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    /** com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long), null if not available */
+    private static Method allocatedBytesMethod;
+
+    static {
+        try {
+            Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+            if (c.isInstance(threadBean)) {
+                allocatedBytesMethod = c.getMethod("getThreadAllocatedBytes", long.class);
+            }
+        } catch (Exception e) {
+            allocatedBytesMethod = null;
+        }
+    }
+
+    /**
+     * Replies the number of bytes allocated by the current thread so far.
+     *
+     * @return the number of bytes, or -1 if the virtual machine doesn't tell
+     */
+    public static long getThreadAllocatedBytes() {
+        if (allocatedBytesMethod == null)
+            return -1;
+        try {
+            return (Long) allocatedBytesMethod.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private final String name;
+    private int runs;
+    private long nanos;
+    private long primitives;
+    private long cachedPrimitives;
+    private long errors;
+    private long allocatedBytes;
+
+    /**
+     * Constructs new empty {@code TestStatistics}.
+     * @param name the name of the test
+     */
+    public TestStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds the resources used by a part of a validation.
+     *
+     * @param nanos the time spent in nanoseconds
+     * @param primitives the number of primitives visited
+     * @param cachedPrimitives the number of primitives whose errors were taken from the cache
+     * @param errors the number of errors found
+     * @param allocatedBytes the bytes allocated, negative if unknown
+     */
+    public synchronized void add(long nanos, long primitives, long cachedPrimitives, long errors, long allocatedBytes) {
+        this.nanos += nanos;
+        this.primitives += primitives;
+        this.cachedPrimitives += cachedPrimitives;
+        this.errors += errors;
+        if (allocatedBytes < 0 || this.allocatedBytes < 0) {
+            this.allocatedBytes = -1;
+        } else {
+            this.allocatedBytes += allocatedBytes;
+        }
+    }
+
+    /**
+     * Adds the statistics of another validation run.
+     *
+     * @param other the statistics of the run
+     */
+    public void add(TestStatistics other) {
+        long[] values;
+        synchronized (other) {
+            values = new long[] {other.nanos, other.primitives, other.cachedPrimitives, other.errors, other.allocatedBytes};
+        }
+        synchronized (this) {
+            add(values[0], values[1], values[2], values[3], values[4]);
+            runs++;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Replies the number of validations summed up in these statistics. The statistics of a
+     * single validation have no runs.
+     */
+    public synchronized int getRuns() {
+        return runs;
+    }
+
+    /**
+     * Replies the time spent in nanoseconds.
+     */
+    public synchronized long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Replies the number of primitives visited.
+     */
+    public synchronized long getPrimitives() {
+        return primitives;
+    }
+
+    /**
+     * Replies the number of primitives whose errors were taken from the {@link ValidationCache}.
+     */
+    public synchronized long getCachedPrimitives() {
+        return cachedPrimitives;
+    }
+
+    /**
+     * Replies the number of errors found.
+     */
+    public synchronized long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Replies an estimate of the bytes allocated, which includes the memory allocated by
+     * other code on the same thread in the meantime.
+     *
+     * @return the number of bytes, or -1 if unknown
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Formats statistics as a table, the most expensive tests first.
+     *
+     * @param statistics the statistics
+     * @return the table
+     */
+    public static String getReport(Collection<TestStatistics> statistics) {
+        List<TestStatistics> list = new ArrayList<TestStatistics>(statistics);
+        Collections.sort(list, new Comparator<TestStatistics>() {
+            @Override
+            public int compare(TestStatistics s1, TestStatistics s2) {
+                long t1 = s1.getNanos();
+                long t2 = s2.getNanos();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append(tr("Validator test statistics (runs, ms, primitives, cached, errors, allocated KB, test):")).append('\n');
+        for (TestStatistics s : list) {
+            long allocated = s.getAllocatedBytes();
+            sb.append(String.format("%5d %10.1f %10d %10d %8d %10s  %s%n", s.getRuns(), s.getNanos() / 1000000.0,
+                    s.getPrimitives(), s.getCachedPrimitives(), s.getErrors(),
+                    allocated < 0 ? "?" : Long.toString(allocated / 1024), s.getName()));
+        }
+        return sb.toString();
+    }
+}
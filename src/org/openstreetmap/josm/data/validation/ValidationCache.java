@@ -0,0 +1,439 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openstreetmap.josm.data.Version;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+
+/**
+ * Keeps the errors of {@link Test#isCacheable() cacheable} tests on unmodified primitives
+ * between validations, so that validating the same data again is a lookup.
+ * <p>
+ * The errors are stored for each test by primitive type and id, together with the version
+ * of the primitive and, for ways, the ids and versions of its nodes. The cache of a test
+ * is discarded when the {@link Test#getCacheFingerprint() configuration} of the test, the
+ * JOSM version or the language change. The validation before upload and the validation
+ * of the whole data are cached separately, as tests may be configured differently for
+ * them. The caches are saved in the <code>cache</code> directory of
+ * {@link OsmValidator#getValidatorDir()}.
+ */
+public class ValidationCache {
+    /** Whether the errors of cacheable tests are cached */
+    public static final BooleanProperty PROP_ENABLED = new BooleanProperty("validator.cache", true);
+    /** The maximum number of primitives kept for each test */
+    public static final IntegerProperty PROP_MAX_ENTRIES = new IntegerProperty("validator.cache.maxEntries", 500000);
+
+    private static final int MAGIC = 0x4a564331;
+
+    private static ValidationCache instance;
+
+    /**
+     * Replies the cache in the validator directory.
+     */
+    public static synchronized ValidationCache getInstance() {
+        if (instance == null) {
+            instance = new ValidationCache(new File(OsmValidator.getValidatorDir(), "cache"));
+        }
+        return instance;
+    }
+
+    /**
+     * Saves the caches of the instance which changed, if the instance was used.
+     * Called when JOSM exits, so that a validation doesn't wait for the disk.
+     */
+    public static void saveInstance() {
+        ValidationCache cache;
+        synchronized (ValidationCache.class) {
+            cache = instance;
+        }
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    private final File dir;
+    private final Map<String, TestCache> caches = new HashMap<String, TestCache>();
+
+    /**
+     * Constructs a new {@code ValidationCache}.
+     * @param dir the directory the caches are saved in
+     */
+    public ValidationCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Replies the cached errors of a test, loading them from disk if needed.
+     *
+     * @param test a cacheable test
+     * @return the cache of the test
+     */
+    public synchronized TestCache getTestCache(Test test) {
+        String name = getName(test);
+        String fingerprint = getFingerprint(test);
+        TestCache cache = caches.get(name);
+        if (cache == null || !cache.fingerprint.equals(fingerprint)) {
+            cache = new TestCache(fingerprint);
+            if (!cache.load(new File(dir, name + ".cache"))) {
+                cache = new TestCache(fingerprint);
+            }
+            caches.put(name, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Saves the caches which changed since they were loaded.
+     */
+    public synchronized void save() {
+        for (Map.Entry<String, TestCache> entry : caches.entrySet()) {
+            TestCache cache = entry.getValue();
+            if (cache.isDirty()) {
+                try {
+                    dir.mkdirs();
+                    cache.save(new File(dir, entry.getKey() + ".cache"));
+                } catch (IOException e) {
+                    System.out.println(tr("Warning: failed to save validation cache: {0}", e.getMessage()));
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Replies the name of the cache of a test, which depends on the validation mode.
+     */
+    private static String getName(Test test) {
+        return test.getClass().getName() + (test.isBeforeUpload ? ".upload" : "");
+    }
+
+    /**
+     * Replies a hash of everything the results of a test depend on, besides the primitives.
+     */
+    protected static String getFingerprint(Test test) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(test.getCacheFingerprint()).append('\n');
+        sb.append(test.isBeforeUpload).append('\n');
+        sb.append(Version.getInstance().getVersion()).append('\n');
+        sb.append(Locale.getDefault()).append('\n');
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(sb.toString().hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(sb.toString().hashCode());
+        }
+    }
+
+    private static long getKey(long id, OsmPrimitiveType type) {
+        return id * 4 + type.ordinal();
+    }
+
+    private static long getKey(OsmPrimitive p) {
+        return getKey(p.getUniqueId(), OsmPrimitiveType.from(p));
+    }
+
+    private static boolean isUnchanged(OsmPrimitive p) {
+        return p.getUniqueId() > 0 && p.getVersion() > 0 && !p.isModified() && !p.isIncomplete() && !p.isDeleted();
+    }
+
+    /**
+     * Replies a value which changes when a primitive or its nodes change, or 0 if the
+     * primitive isn't unchanged server data.
+     */
+    protected static long getStamp(OsmPrimitive p) {
+        if (!isUnchanged(p))
+            return 0;
+        long stamp = p.getVersion();
+        if (p instanceof Way) {
+            for (Node n : ((Way) p).getNodes()) {
+                if (!isUnchanged(n))
+                    return 0;
+                stamp = stamp * 31 + n.getUniqueId();
+                stamp = stamp * 31 + n.getVersion();
+            }
+        }
+        return stamp == 0 ? 1 : stamp;
+    }
+
+    /**
+     * An error as stored in the cache.
+     */
+    private static class CachedError {
+        byte severity;
+        int code;
+        String message;
+        String description;
+        String descriptionEn;
+        /** The keys of the highlighted primitives, null if the primitive itself is highlighted */
+        long[] highlighted;
+
+        TestError toTestError(Test test, OsmPrimitive p) {
+            List<OsmPrimitive> primitives = Collections.singletonList(p);
+            Collection<?> h = primitives;
+            if (highlighted != null) {
+                DataSet ds = p.getDataSet();
+                List<OsmPrimitive> list = new ArrayList<OsmPrimitive>(highlighted.length);
+                for (long key : highlighted) {
+                    OsmPrimitive hp = ds == null ? null : ds.getPrimitiveById(key / 4, OsmPrimitiveType.values()[(int) (key % 4)]);
+                    if (hp == null)
+                        return null;
+                    list.add(hp);
+                }
+                h = list;
+            }
+            return new TestError(test, Severity.values()[severity], message, description, descriptionEn, code, primitives, h);
+        }
+
+        static CachedError fromTestError(TestError error, OsmPrimitive p) {
+            Collection<? extends OsmPrimitive> primitives = error.getPrimitives();
+            if (primitives.size() != 1 || primitives.iterator().next() != p)
+                return null;
+            CachedError e = new CachedError();
+            Collection<?> h = error.getHighlighted();
+            if (h != null && !(h.size() == 1 && h.iterator().next() == p)) {
+                e.highlighted = new long[h.size()];
+                int i = 0;
+                for (Object o : h) {
+                    if (!(o instanceof OsmPrimitive) || ((OsmPrimitive) o).getUniqueId() <= 0)
+                        return null;
+                    e.highlighted[i++] = getKey((OsmPrimitive) o);
+                }
+            }
+            e.severity = (byte) error.getSeverity().ordinal();
+            e.code = error.getCode();
+            e.message = error.getMessage();
+            e.description = error.getDescription();
+            e.descriptionEn = error.getDescriptionEn();
+            return e;
+        }
+    }
+
+    private static class CacheEntry {
+        long stamp;
+        CachedError[] errors;
+    }
+
+    /**
+     * The cached errors of one test.
+     */
+    public static class TestCache {
+        private final String fingerprint;
+        private final Map<Long, CacheEntry> entries = new LinkedHashMap<Long, CacheEntry>(1000, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+                return size() > PROP_MAX_ENTRIES.get();
+            }
+        };
+        private boolean dirty;
+
+        private TestCache(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Replies the cached errors of a test on a primitive.
+         *
+         * @param test the test
+         * @param p the primitive
+         * @return the errors, or null if the primitive isn't in the cache
+         */
+        public synchronized List<TestError> lookup(Test test, OsmPrimitive p) {
+            long stamp = getStamp(p);
+            if (stamp == 0)
+                return null;
+            CacheEntry entry = entries.get(getKey(p));
+            if (entry == null || entry.stamp != stamp)
+                return null;
+            List<TestError> errors = new ArrayList<TestError>(entry.errors.length);
+            for (CachedError e : entry.errors) {
+                TestError error = e.toTestError(test, p);
+                if (error == null)
+                    return null;
+                errors.add(error);
+            }
+            return errors;
+        }
+
+        /**
+         * Stores the errors found by a test.
+         *
+         * @param primitives the primitives validated
+         * @param errors the errors found on these primitives
+         */
+        public synchronized void store(Collection<OsmPrimitive> primitives, Collection<TestError> errors) {
+            Map<OsmPrimitive, List<TestError>> byPrimitive = new HashMap<OsmPrimitive, List<TestError>>();
+            for (TestError error : errors) {
+                for (OsmPrimitive p : error.getPrimitives()) {
+                    List<TestError> list = byPrimitive.get(p);
+                    if (list == null) {
+                        list = new ArrayList<TestError>();
+                        byPrimitive.put(p, list);
+                    }
+                    list.add(error);
+                }
+            }
+            for (OsmPrimitive p : primitives) {
+                long stamp = getStamp(p);
+                if (stamp == 0 || !p.isUsable()) {
+                    continue;
+                }
+                List<TestError> list = byPrimitive.get(p);
+                CacheEntry entry = new CacheEntry();
+                entry.stamp = stamp;
+                entry.errors = new CachedError[list == null ? 0 : list.size()];
+                for (int i = 0; entry != null && i < entry.errors.length; i++) {
+                    entry.errors[i] = CachedError.fromTestError(list.get(i), p);
+                    if (entry.errors[i] == null) {
+                        entry = null;
+                    }
+                }
+                if (entry != null) {
+                    entries.put(getKey(p), entry);
+                } else {
+                    entries.remove(getKey(p));
+                }
+                dirty = true;
+            }
+        }
+
+        /**
+         * Replies the number of cached primitives.
+         */
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized boolean isDirty() {
+            return dirty;
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) {
+                out.writeUTF(s);
+            }
+        }
+
+        synchronized boolean load(File file) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+                if (in.readInt() != MAGIC || !fingerprint.equals(in.readUTF()))
+                    return false;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long key = in.readLong();
+                    CacheEntry entry = new CacheEntry();
+                    entry.stamp = in.readLong();
+                    entry.errors = new CachedError[in.readShort()];
+                    for (int j = 0; j < entry.errors.length; j++) {
+                        CachedError e = new CachedError();
+                        e.severity = in.readByte();
+                        e.code = in.readInt();
+                        e.message = readString(in);
+                        e.description = readString(in);
+                        e.descriptionEn = readString(in);
+                        int highlighted = in.readShort();
+                        if (highlighted >= 0) {
+                            e.highlighted = new long[highlighted];
+                            for (int k = 0; k < highlighted; k++) {
+                                e.highlighted[k] = in.readLong();
+                            }
+                        }
+                        entry.errors[j] = e;
+                    }
+                    entries.put(key, entry);
+                }
+                dirty = false;
+                return true;
+            } catch (FileNotFoundException e) {
+                return false;
+            } catch (IOException e) {
+                System.out.println(tr("Warning: failed to load validation cache {0}: {1}", file, e.getMessage()));
+                e.printStackTrace();
+                return false;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        synchronized void save(File file) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(fingerprint);
+                out.writeInt(entries.size());
+                for (Map.Entry<Long, CacheEntry> e : entries.entrySet()) {
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue().stamp);
+                    out.writeShort(e.getValue().errors.length);
+                    for (CachedError error : e.getValue().errors) {
+                        out.writeByte(error.severity);
+                        out.writeInt(error.code);
+                        writeString(out, error.message);
+                        writeString(out, error.description);
+                        writeString(out, error.descriptionEn);
+                        out.writeShort(error.highlighted == null ? -1 : error.highlighted.length);
+                        if (error.highlighted != null) {
+                            for (long key : error.highlighted) {
+                                out.writeLong(key);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if ((file.exists() && !file.delete()) || !tmp.renameTo(file))
+                throw new IOException("Could not replace " + file);
+            dirty = false;
+        }
+    }
+}
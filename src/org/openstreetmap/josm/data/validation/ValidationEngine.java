@@ -0,0 +1,372 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.data.validation.ValidationCache.TestCache;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+
+/**
+ * Runs a collection of validation tests on a collection of primitives.
+ * <p>
+ * The tests run at the same time on a pool of threads. The primitives of tests that are
+ * {@link Test#isStatelessPerPrimitive() stateless per primitive} are additionally split
+ * into chunks, which are validated by separate instances of the test.
+ * The errors are returned in the same order as if the tests had been run one after
+ * the other.
+ */
+public class ValidationEngine {
+    /** The number of threads used for validation, 1 runs all tests on the calling thread */
+    public static final IntegerProperty PROP_THREADS = new IntegerProperty("validator.threads",
+            Runtime.getRuntime().availableProcessors());
+    /** The minimum number of primitives validated by one instance of a test */
+    public static final IntegerProperty PROP_CHUNK_SIZE = new IntegerProperty("validator.chunkSize", 5000);
+
+    /** The statistics of all validations since the start, by test class */
+    private static final Map<String, TestStatistics> totalStatistics = new LinkedHashMap<String, TestStatistics>();
+
+    private final Collection<Test> tests;
+    private final List<Future<List<TestError>>> futures = new ArrayList<Future<List<TestError>>>();
+    private final Map<Test, TestStatistics> statistics = new LinkedHashMap<Test, TestStatistics>();
+    private boolean canceled;
+
+    /**
+     * Constructs a new {@code ValidationEngine}.
+     * @param tests the tests to run. Must not be null.
+     */
+    public ValidationEngine(Collection<Test> tests) {
+        CheckParameterUtil.ensureParameterNotNull(tests, "tests");
+        this.tests = tests;
+    }
+
+    /**
+     * A test run on a part of the primitives.
+     */
+    private static class TestJob implements Callable<List<TestError>> {
+        private final Test owner;
+        private final Test test;
+        private final Collection<OsmPrimitive> primitives;
+        /**
+         * The progress the job accounts for in the monitor of the validation: the primitives
+         * it visits and, for the first job of a test, the primitives found in the cache
+         */
+        private int ticks;
+        private ProgressMonitor progressMonitor;
+        /**
+         * The monitor of the validation, if the job runs at the same time as others. The
+         * job then reports its ticks to it when it's done.
+         */
+        private ProgressMonitor parentMonitor;
+        /** The cache the errors are stored in, null if the test isn't cached */
+        private TestCache cache;
+        /** The errors of the test found in the cache, added to the result of this job */
+        private List<TestError> cachedErrors;
+        /** The number of primitives whose errors were found in the cache */
+        private int cachedPrimitives;
+        private long nanos;
+        private int errorCount;
+        private long allocatedBytes;
+
+        public TestJob(Test owner, Test test, Collection<OsmPrimitive> primitives) {
+            this.owner = owner;
+            this.test = test;
+            this.primitives = primitives;
+            this.ticks = primitives.size();
+        }
+
+        @Override
+        public List<TestError> call() {
+            long allocated = TestStatistics.getThreadAllocatedBytes();
+            long start = System.nanoTime();
+            test.startTest(progressMonitor);
+            test.visit(primitives);
+            test.endTest();
+            List<TestError> errors = test.getErrors();
+            if (cache != null) {
+                cache.store(primitives, errors);
+            }
+            if (cachedErrors != null && !cachedErrors.isEmpty()) {
+                List<TestError> all = new ArrayList<TestError>(cachedErrors);
+                all.addAll(errors);
+                errors = all;
+            }
+            nanos = System.nanoTime() - start;
+            allocatedBytes = allocated < 0 ? -1 : TestStatistics.getThreadAllocatedBytes() - allocated;
+            errorCount = errors.size();
+            if (parentMonitor != null) {
+                synchronized (parentMonitor) {
+                    parentMonitor.worked(ticks);
+                }
+            }
+            return errors;
+        }
+    }
+
+    /**
+     * Splits the work into jobs, one for each test or chunk of primitives.
+     */
+    private List<TestJob> createJobs(Collection<OsmPrimitive> selection, Collection<OsmPrimitive> neighbourhood,
+            boolean partialSelection, int threads, ValidationCache cache) {
+        List<TestJob> jobs = new ArrayList<TestJob>();
+        List<OsmPrimitive> allPrimitives = null;
+        int chunkSize = Math.max(1, PROP_CHUNK_SIZE.get());
+        for (Test test : tests) {
+            test.setPartialSelection(partialSelection);
+            // tests looking at single primitives find nothing new in the neighbourhood
+            boolean perPrimitive = test.isStatelessPerPrimitive() || test.isCacheable();
+            Collection<OsmPrimitive> testSelection = neighbourhood == null || perPrimitive ? selection : neighbourhood;
+            TestCache testCache = null;
+            List<TestError> cachedErrors = null;
+            int testJobsCached = 0;
+            List<OsmPrimitive> uncached = null;
+            if (cache != null && test.isCacheable()) {
+                testCache = cache.getTestCache(test);
+                cachedErrors = new ArrayList<TestError>();
+                uncached = new ArrayList<OsmPrimitive>();
+                for (OsmPrimitive p : testSelection) {
+                    List<TestError> errors = p.isUsable() ? testCache.lookup(test, p) : null;
+                    if (errors == null) {
+                        uncached.add(p);
+                    } else {
+                        cachedErrors.addAll(errors);
+                    }
+                }
+                testJobsCached = testSelection.size() - uncached.size();
+                testSelection = uncached;
+            }
+
+            int chunks = Math.min(threads, (testSelection.size() + chunkSize - 1) / chunkSize);
+            List<TestJob> testJobs = new ArrayList<TestJob>();
+            if (chunks <= 1 || !test.isStatelessPerPrimitive()) {
+                testJobs.add(new TestJob(test, test, testSelection));
+            } else {
+                if (uncached == null && allPrimitives == null) {
+                    allPrimitives = new ArrayList<OsmPrimitive>(selection);
+                }
+                List<OsmPrimitive> primitives = uncached != null ? uncached : allPrimitives;
+                int size = (primitives.size() + chunks - 1) / chunks;
+                for (int i = 0; i < primitives.size(); i += size) {
+                    List<OsmPrimitive> chunk = primitives.subList(i, Math.min(primitives.size(), i + size));
+                    testJobs.add(new TestJob(test, i == 0 ? test : test.copy(), chunk));
+                }
+            }
+            for (TestJob job : testJobs) {
+                job.cache = testCache;
+            }
+            testJobs.get(0).cachedErrors = cachedErrors;
+            testJobs.get(0).cachedPrimitives = testJobsCached;
+            testJobs.get(0).ticks += testJobsCached;
+            jobs.addAll(testJobs);
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs the tests.
+     *
+     * @param selection the primitives to validate. Must not be null.
+     * @param partialSelection whether only a part of the data is validated
+     * @param progressMonitor the progress monitor. May be null.
+     * @return the errors found, an empty list if the validation was canceled
+     */
+    public List<TestError> validate(Collection<OsmPrimitive> selection, boolean partialSelection,
+            ProgressMonitor progressMonitor) {
+        return validate(selection, null, partialSelection, progressMonitor);
+    }
+
+    /**
+     * Runs the tests on a selection, taking the primitives around it into account.
+     * <p>
+     * Tests which compare primitives with each other visit the whole neighbourhood, the
+     * other tests only the selection. Only errors concerning at least one primitive of the
+     * selection are returned.
+     *
+     * @param selection the primitives to validate. Must not be null.
+     * @param neighbourhood the selection together with the primitives around it, e.g. from
+     * {@link org.openstreetmap.josm.data.validation.util.ValUtil#getNeighbourhood}. May be null.
+     * @param partialSelection whether only a part of the data is validated
+     * @param progressMonitor the progress monitor. May be null.
+     * @return the errors found, an empty list if the validation was canceled
+     */
+    public List<TestError> validate(Collection<OsmPrimitive> selection, Collection<OsmPrimitive> neighbourhood,
+            boolean partialSelection, ProgressMonitor progressMonitor) {
+        CheckParameterUtil.ensureParameterNotNull(selection, "selection");
+        List<TestError> errors = run(selection, neighbourhood, partialSelection, progressMonitor);
+        if (neighbourhood == null)
+            return errors;
+        Set<OsmPrimitive> selected = new HashSet<OsmPrimitive>(selection);
+        List<TestError> result = new ArrayList<TestError>(errors.size());
+        for (TestError error : errors) {
+            for (OsmPrimitive p : error.getPrimitives()) {
+                if (selected.contains(p)) {
+                    result.add(error);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<TestError> run(Collection<OsmPrimitive> selection, Collection<OsmPrimitive> neighbourhood,
+            boolean partialSelection, ProgressMonitor progressMonitor) {
+        if (progressMonitor == null) {
+            progressMonitor = NullProgressMonitor.INSTANCE;
+        }
+        List<TestError> errors = new ArrayList<TestError>(200);
+        synchronized (this) {
+            statistics.clear();
+        }
+        int threads = Math.max(1, PROP_THREADS.get());
+        ValidationCache cache = ValidationCache.PROP_ENABLED.get() ? ValidationCache.getInstance() : null;
+        List<TestJob> jobs = createJobs(selection, neighbourhood, partialSelection, threads, cache);
+        // tests comparing primitives visit the neighbourhood, so count what the jobs visit
+        int ticks = 0;
+        for (TestJob job : jobs) {
+            ticks += job.ticks;
+        }
+        progressMonitor.setTicksCount(ticks);
+
+        if (threads == 1 || jobs.size() == 1) {
+            int jobCounter = 0;
+            for (TestJob job : jobs) {
+                synchronized (this) {
+                    if (canceled)
+                        return new ArrayList<TestError>();
+                }
+                jobCounter++;
+                progressMonitor.setCustomText(tr("Test {0}/{1}: Starting {2}", jobCounter, jobs.size(), job.test.getName()));
+                job.progressMonitor = progressMonitor.createSubTaskMonitor(job.ticks, false);
+                errors.addAll(job.call());
+                addStatistics(job);
+            }
+            finish();
+            return errors;
+        }
+
+        progressMonitor.setCustomText(tr("Running {0} tests", tests.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()), new ThreadFactory() {
+            private int count;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Validator " + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            synchronized (this) {
+                if (canceled)
+                    return new ArrayList<TestError>();
+                for (TestJob job : jobs) {
+                    // sub tasks are expected to finish one after the other, so the jobs report
+                    // their progress to the monitor of the validation instead
+                    job.progressMonitor = progressMonitor.createSubTaskMonitor(0, false);
+                    job.parentMonitor = progressMonitor;
+                    futures.add(executor.submit(job));
+                }
+            }
+            // collect the results in the order of the jobs, so the error list doesn't depend on timing
+            for (int i = 0; i < futures.size(); i++) {
+                errors.addAll(futures.get(i).get());
+                addStatistics(jobs.get(i));
+            }
+            finish();
+            return errors;
+        } catch (CancellationException e) {
+            return new ArrayList<TestError>();
+        } catch (InterruptedException e) {
+            cancel();
+            return new ArrayList<TestError>();
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new RuntimeException(cause);
+        } finally {
+            executor.shutdown();
+            synchronized (this) {
+                futures.clear();
+            }
+        }
+    }
+
+    private synchronized void addStatistics(TestJob job) {
+        TestStatistics s = statistics.get(job.owner);
+        if (s == null) {
+            s = new TestStatistics(job.owner.getClass().getSimpleName());
+            statistics.put(job.owner, s);
+        }
+        s.add(job.nanos, job.primitives.size(), job.cachedPrimitives, job.errorCount, job.allocatedBytes);
+    }
+
+    /**
+     * Adds the statistics of the finished validation to the totals.
+     */
+    private void finish() {
+        Collection<TestStatistics> run = getStatistics().values();
+        synchronized (totalStatistics) {
+            for (TestStatistics s : run) {
+                TestStatistics total = totalStatistics.get(s.getName());
+                if (total == null) {
+                    total = new TestStatistics(s.getName());
+                    totalStatistics.put(s.getName(), total);
+                }
+                total.add(s);
+            }
+        }
+    }
+
+    /**
+     * Replies the resources used by each test during the last validation, summed up over
+     * all parts of its primitives. Tests which didn't finish are missing.
+     *
+     * @return the statistics, by test, in the order of the tests
+     */
+    public synchronized Map<Test, TestStatistics> getStatistics() {
+        return new LinkedHashMap<Test, TestStatistics>(statistics);
+    }
+
+    /**
+     * Replies the resources used by each test in all validations since the start.
+     *
+     * @return the statistics, in the order the tests were first run
+     */
+    public static List<TestStatistics> getTotalStatistics() {
+        synchronized (totalStatistics) {
+            return new ArrayList<TestStatistics>(totalStatistics.values());
+        }
+    }
+
+    /**
+     * Cancels the validation. Tests which haven't started yet are skipped.
+     */
+    public synchronized void cancel() {
+        canceled = true;
+        for (Future<List<TestError>> future : futures) {
+            future.cancel(false);
+        }
+    }
+}
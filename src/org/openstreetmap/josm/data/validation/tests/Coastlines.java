@@ -10,7 +10,6 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.command.ChangeCommand;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.data.osm.Node;
@@ -19,7 +18,6 @@ import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
-import org.openstreetmap.josm.gui.layer.OsmDataLayer;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 /**
@@ -37,6 +35,7 @@ public class Coastlines extends Test {
     private List<Way> coastlines;
 
     private Area downloadedArea = null;
+    private boolean downloadedAreaKnown;
 
     /**
      * Constructor
@@ -51,12 +50,8 @@ public class Coastlines extends Test {
 
         super.startTest(monitor);
 
-        OsmDataLayer layer = Main.map.mapView.getEditLayer();
-
-        if (layer != null) {
-            downloadedArea = layer.data.getDataSourceArea();
-        }
-
+        downloadedArea = null;
+        downloadedAreaKnown = false;
         coastlines = new LinkedList<Way>();
     }
 
@@ -208,6 +203,10 @@ public class Coastlines extends Test {
     public void visit(Way way) {
         if (!way.isUsable())
             return;
+        if (!downloadedAreaKnown && way.getDataSet() != null) {
+            downloadedArea = way.getDataSet().getDataSourceArea();
+            downloadedAreaKnown = true;
+        }
 
         if (isCoastline(way)) {
             coastlines.add(way);
@@ -4,14 +4,13 @@ package org.openstreetmap.josm.data.validation.tests;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.WaySegment;
@@ -19,7 +18,7 @@ import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
-import org.openstreetmap.josm.data.validation.util.ValUtil;
+import org.openstreetmap.josm.data.validation.util.SegmentGrid;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 /**
@@ -31,9 +30,9 @@ public class CrossingWays extends Test {
     protected static int CROSSING_WAYS = 601;
 
     /** All way segments, grouped by cells */
-    Map<Point2D,List<ExtendedSegment>> cellSegments;
-    /** The already detected errors */
-    HashSet<WaySegment> errorSegments;
+    SegmentGrid grid;
+    /** All way segments, by their index in the grid */
+    List<ExtendedSegment> segments;
     /** The already detected ways in error */
     Map<List<Way>, List<WaySegment>> ways_seen;
 
@@ -45,19 +44,24 @@ public class CrossingWays extends Test {
               tr("This test checks if two roads, railways, waterways or buildings crosses in the same layer, but are not connected by a node."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
-        cellSegments = new HashMap<Point2D,List<ExtendedSegment>>(1000);
-        errorSegments = new HashSet<WaySegment>();
+        grid = new SegmentGrid(OsmValidator.griddetail);
+        segments = new ArrayList<ExtendedSegment>(1000);
         ways_seen = new HashMap<List<Way>, List<WaySegment>>(50);
     }
 
     @Override
     public void endTest() {
         super.endTest();
-        cellSegments = null;
-        errorSegments = null;
+        grid = null;
+        segments = null;
         ways_seen = null;
     }
 
@@ -86,72 +90,49 @@ public class CrossingWays extends Test {
         for (int i = 0; i < nodesSize - 1; i++) {
             WaySegment ws = new WaySegment(w, i);
             ExtendedSegment es1 = new ExtendedSegment(ws, layer1, railway1, isCoastline1);
-            List<List<ExtendedSegment>> cellSegments = getSegments(es1.n1, es1.n2);
-            for (List<ExtendedSegment> segments : cellSegments) {
-                for (ExtendedSegment es2 : segments) {
-                    List<Way> prims;
-                    List<WaySegment> highlight;
-
-                    if (errorSegments.contains(ws) && errorSegments.contains(es2.ws))
-                        continue;
-
-                    String layer2 = es2.layer;
-                    String railway2 = es2.railway;
-                    boolean isCoastline2 = es2.coastline;
-                    if (layer1 == null ? layer2 != null : !layer1.equals(layer2))
-                        continue;
-
-                    if (!es1.intersects(es2) ) continue;
-                    if (isSubway1 && "subway".equals(railway2)) continue;
-                    if (isTram1 && "tram".equals(railway2)) continue;
-
-                    if (isCoastline1 != isCoastline2) continue;
-
-                    if ((es1.railway != null && es1.railway.equals("abandoned"))
-                            || (railway2 != null && railway2.equals("abandoned"))) continue;
-
-                    prims = Arrays.asList(es1.ws.way, es2.ws.way);
-                    if ((highlight = ways_seen.get(prims)) == null) {
-                        highlight = new ArrayList<WaySegment>();
-                        highlight.add(es1.ws);
-                        highlight.add(es2.ws);
-
-                        errors.add(new TestError(this, Severity.WARNING,
-                            isBuilding ? tr("Crossing buildings") : tr("Crossing ways"),
-                            CROSSING_WAYS,
-                            prims,
-                            highlight));
-                        ways_seen.put(prims, highlight);
-                    } else {
-                        highlight.add(es1.ws);
-                        highlight.add(es2.ws);
-                    }
+            EastNorth en1 = es1.n1.getEastNorth();
+            EastNorth en2 = es1.n2.getEastNorth();
+            int count = grid.add(en1.east(), en1.north(), en2.east(), en2.north());
+            segments.add(es1);
+            int[] candidates = grid.getCandidates();
+            for (int j = 0; j < count; j++) {
+                ExtendedSegment es2 = segments.get(candidates[j]);
+                List<Way> prims;
+                List<WaySegment> highlight;
+
+                String layer2 = es2.layer;
+                String railway2 = es2.railway;
+                boolean isCoastline2 = es2.coastline;
+                if (layer1 == null ? layer2 != null : !layer1.equals(layer2))
+                    continue;
+
+                if (!es1.intersects(es2) ) continue;
+                if (isSubway1 && "subway".equals(railway2)) continue;
+                if (isTram1 && "tram".equals(railway2)) continue;
+
+                if (isCoastline1 != isCoastline2) continue;
+
+                if ((es1.railway != null && es1.railway.equals("abandoned"))
+                        || (railway2 != null && railway2.equals("abandoned"))) continue;
+
+                prims = Arrays.asList(es1.ws.way, es2.ws.way);
+                if ((highlight = ways_seen.get(prims)) == null) {
+                    highlight = new ArrayList<WaySegment>();
+                    highlight.add(es1.ws);
+                    highlight.add(es2.ws);
+
+                    errors.add(new TestError(this, Severity.WARNING,
+                        isBuilding ? tr("Crossing buildings") : tr("Crossing ways"),
+                        CROSSING_WAYS,
+                        prims,
+                        highlight));
+                    ways_seen.put(prims, highlight);
+                } else {
+                    highlight.add(es1.ws);
+                    highlight.add(es2.ws);
                 }
-                segments.add(es1);
-            }
-        }
-    }
-
-    /**
-    * Returns all the cells this segment crosses.  Each cell contains the list
-    * of segments already processed
-    *
-    * @param n1 The first node
-    * @param n2 The second node
-    * @return A list with all the cells the segment crosses
-    */
-    public List<List<ExtendedSegment>> getSegments(Node n1, Node n2) {
-
-        List<List<ExtendedSegment>> cells = new ArrayList<List<ExtendedSegment>>();
-        for(Point2D cell : ValUtil.getSegmentCells(n1, n2, OsmValidator.griddetail)) {
-            List<ExtendedSegment> segments = cellSegments.get(cell);
-            if (segments == null) {
-                segments = new ArrayList<ExtendedSegment>();
-                cellSegments.put(cell, segments);
             }
-            cells.add(segments);
         }
-        return cells;
     }
 
     /**
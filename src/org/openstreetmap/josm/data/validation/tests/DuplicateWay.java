@@ -89,6 +89,10 @@ public class DuplicateWay extends Test
               tr("This test checks that there are no ways with same node coordinates and optionally also same tags."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
 
     @Override
     public void startTest(ProgressMonitor monitor) {
@@ -43,6 +43,11 @@ public class DuplicatedWayNodes extends Test {
         }
     }
 
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override public Command fixError(TestError testError) {
         Way w = (Way) testError.getPrimitives().iterator().next();
         Way wnew = new Way(w);
@@ -22,6 +22,7 @@ import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.Poly
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
+import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.mappaint.AreaElemStyle;
 import org.openstreetmap.josm.gui.mappaint.ElemStyle;
 import org.openstreetmap.josm.gui.mappaint.ElemStyles;
@@ -42,6 +43,7 @@ public class MultipolygonTest extends Test {
     protected static final int NO_STYLE_POLYGON = 1611;
 
     private static ElemStyles styles;
+    private static NavigatableComponent headlessComponent;
 
     private final List<List<Node>> nonClosedWays = new ArrayList<List<Node>>();
 
@@ -52,11 +54,29 @@ public class MultipolygonTest extends Test {
                 tr("This test checks if multipolygons are valid"));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void initialize() throws Exception {
         styles = MapPaintStyles.getStyles();
     }
 
+    /**
+     * Replies the component the multipolygons are loaded for. Only the member ways of the
+     * loaded multipolygons are used, so without a map view any component does.
+     */
+    private static synchronized NavigatableComponent getNavigatableComponent() {
+        if (Main.map != null && Main.map.mapView != null)
+            return Main.map.mapView;
+        if (headlessComponent == null) {
+            headlessComponent = new NavigatableComponent();
+        }
+        return headlessComponent;
+    }
+
     private List<List<Node>> joinWays(Collection<Way> ways) {
         List<List<Node>> result = new ArrayList<List<Node>>();
         List<Way> waysToJoin = new ArrayList<Way>();
@@ -132,7 +152,7 @@ public class MultipolygonTest extends Test {
         if (r.isMultipolygon()) {
             checkMembersAndRoles(r);
 
-            Multipolygon polygon = new Multipolygon(Main.map.mapView);
+            Multipolygon polygon = new Multipolygon(getNavigatableComponent());
             polygon.load(r);
 
             if (polygon.getOuterWays().isEmpty()) {
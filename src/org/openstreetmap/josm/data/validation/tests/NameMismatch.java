@@ -97,6 +97,11 @@ public class NameMismatch extends Test {
         }
     }
 
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     /**
      * Checks a name mismatch in all primitives.
      *
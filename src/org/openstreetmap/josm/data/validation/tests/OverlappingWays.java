@@ -47,6 +47,11 @@ public class OverlappingWays extends Test {
                 + "is not used by more than one way."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor)  {
         super.startTest(monitor);
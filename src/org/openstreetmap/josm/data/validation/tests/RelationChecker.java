@@ -41,6 +41,11 @@ public class RelationChecker extends Test {
                 tr("This plugin checks for errors in relations."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void initialize() throws Exception {
         initializePresets();
@@ -5,7 +5,12 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,23 +21,34 @@ import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.data.validation.util.ValUtil;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
-import org.openstreetmap.josm.tools.MultiMap;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Checks for similar named ways, symptom of a possible typo. It uses the
  * Levenshtein distance to check for similarity
  *
+ * The names are compared once for each pair of distinct names. Candidate names are
+ * found with an index of the character pairs of the names, as names within a small
+ * edit distance share most of their character pairs. Afterwards only the ways with
+ * similar names are checked for being close to each other.
+ *
  * @author frsantos
  */
 public class SimilarNamedWays extends Test {
 
     protected static int SIMILAR_NAMED = 701;
 
+    /** The maximum Levenshtein distance of similar names */
+    private static final int MAX_DISTANCE = 2;
+
     /** All ways, grouped by cells */
     Map<Point2D,List<Way>> cellWays;
-    /** The already detected errors */
-    MultiMap<Way, Way> errorWays;
+    /** The cells of the checked ways */
+    Map<Way, List<List<Way>>> wayCells;
+    /** The checked ways, grouped by name */
+    Map<String, List<Way>> nameWays;
+    /** The order in which the ways were visited */
+    Map<Way, Integer> wayOrder;
 
     /**
      * Constructor
@@ -46,13 +62,43 @@ public class SimilarNamedWays extends Test {
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
         cellWays = new HashMap<Point2D,List<Way>>(1000);
-        errorWays = new MultiMap<Way, Way>();
+        wayCells = new IdentityHashMap<Way, List<List<Way>>>();
+        nameWays = new LinkedHashMap<String, List<Way>>();
+        wayOrder = new IdentityHashMap<Way, Integer>();
     }
 
     @Override
     public void endTest() {
+        List<Way[]> pairs = new ArrayList<Way[]>();
+        List<String> names = new ArrayList<String>(nameWays.keySet());
+        for (int[] namePair : getSimilarNames(names)) {
+            for (Way w1 : nameWays.get(names.get(namePair[0]))) {
+                for (Way w2 : nameWays.get(names.get(namePair[1]))) {
+                    if (shareCell(w1, w2)) {
+                        // the way visited last comes first, as if the ways were compared while visiting them
+                        pairs.add(wayOrder.get(w1) > wayOrder.get(w2) ? new Way[] {w1, w2} : new Way[] {w2, w1});
+                    }
+                }
+            }
+        }
+        Collections.sort(pairs, new Comparator<Way[]>() {
+            @Override
+            public int compare(Way[] p1, Way[] p2) {
+                int c = wayOrder.get(p1[0]) - wayOrder.get(p2[0]);
+                return c != 0 ? c : wayOrder.get(p1[1]) - wayOrder.get(p2[1]);
+            }
+        });
+        for (Way[] pair : pairs) {
+            List<OsmPrimitive> primitives = new ArrayList<OsmPrimitive>();
+            primitives.add(pair[0]);
+            primitives.add(pair[1]);
+            errors.add(new TestError(this, Severity.WARNING, tr("Similarly named ways"), SIMILAR_NAMED, primitives));
+        }
+
         cellWays = null;
-        errorWays = null;
+        wayCells = null;
+        nameWays = null;
+        wayOrder = null;
         super.endTest();
     }
 
@@ -67,27 +113,148 @@ public class SimilarNamedWays extends Test {
 
         List<List<Way>> theCellWays = ValUtil.getWaysInCell(w, cellWays);
         for (List<Way> ways : theCellWays) {
-            for (Way w2 : ways) {
-                if (errorWays.contains(w, w2) || errorWays.contains(w2, w)) {
-                    continue;
-                }
+            ways.add(w);
+        }
+        wayCells.put(w, theCellWays);
+        wayOrder.put(w, wayOrder.size());
+        List<Way> ways = nameWays.get(name);
+        if (ways == null) {
+            ways = new ArrayList<Way>();
+            nameWays.put(name, ways);
+        }
+        ways.add(w);
+    }
 
-                String name2 = w2.get("name");
-                if (name2 == null || name2.length() < 6) {
-                    continue;
-                }
+    private boolean shareCell(Way w1, Way w2) {
+        for (List<Way> cell : wayCells.get(w1)) {
+            for (List<Way> cell2 : wayCells.get(w2)) {
+                if (cell == cell2)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the character pairs of a name. Repeated pairs are numbered, so that the
+     * number of common elements of two names is the number of common character pairs.
+     */
+    private static List<String> getBigrams(String name) {
+        List<String> bigrams = new ArrayList<String>(name.length());
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        for (int i = 0; i < name.length() - 1; i++) {
+            String bigram = name.substring(i, i + 2);
+            Integer count = seen.get(bigram);
+            count = count == null ? 0 : count + 1;
+            seen.put(bigram, count);
+            bigrams.add(count == 0 ? bigram : bigram + (char) count.intValue());
+        }
+        return bigrams;
+    }
 
-                int levenshteinDistance = getLevenshteinDistance(name, name2);
-                if (0 < levenshteinDistance && levenshteinDistance <= 2) {
-                    List<OsmPrimitive> primitives = new ArrayList<OsmPrimitive>();
-                    primitives.add(w);
-                    primitives.add(w2);
-                    errors.add(new TestError(this, Severity.WARNING, tr("Similarly named ways"), SIMILAR_NAMED, primitives));
-                    errorWays.put(w, w2);
+    /**
+     * Finds the pairs of distinct names with a Levenshtein distance of at most
+     * {@link #MAX_DISTANCE}.
+     *
+     * Each edit operation changes at most two character pairs of a name, so similar names
+     * have all but <code>2 * MAX_DISTANCE</code> of their character pairs in common. When
+     * the character pairs of each name are sorted by their frequency among all names, two
+     * similar names therefore share one of their <code>2 * MAX_DISTANCE + 1</code> rarest
+     * character pairs. Only these are indexed, and only names sharing one are compared.
+     *
+     * @param names the distinct names
+     * @return the pairs of indexes in <code>names</code>, the lower index first
+     */
+    protected List<int[]> getSimilarNames(List<String> names) {
+        List<List<String>> nameBigrams = new ArrayList<List<String>>(names.size());
+        final Map<String, Integer> frequency = new HashMap<String, Integer>();
+        for (String name : names) {
+            List<String> bigrams = getBigrams(name);
+            nameBigrams.add(bigrams);
+            for (String bigram : bigrams) {
+                Integer count = frequency.get(bigram);
+                frequency.put(bigram, count == null ? 1 : count + 1);
+            }
+        }
+        Comparator<String> rarestFirst = new Comparator<String>() {
+            @Override
+            public int compare(String b1, String b2) {
+                int c = frequency.get(b1) - frequency.get(b2);
+                return c != 0 ? c : b1.compareTo(b2);
+            }
+        };
+
+        List<int[]> result = new ArrayList<int[]>();
+        Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+        int[] compared = new int[names.size()];
+        Arrays.fill(compared, -1);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            List<String> bigrams = nameBigrams.get(i);
+            Collections.sort(bigrams, rarestFirst);
+            for (String bigram : bigrams.subList(0, Math.min(bigrams.size(), 2 * MAX_DISTANCE + 1))) {
+                List<Integer> postings = index.get(bigram);
+                if (postings == null) {
+                    postings = new ArrayList<Integer>();
+                    index.put(bigram, postings);
+                }
+                for (int j : postings) {
+                    if (compared[j] == i) {
+                        continue;
+                    }
+                    compared[j] = i;
+                    if (getLevenshteinDistance(name, names.get(j), MAX_DISTANCE) <= MAX_DISTANCE) {
+                        result.add(new int[] {j, i});
+                    }
                 }
+                postings.add(i);
             }
-            ways.add(w);
         }
+        return result;
+    }
+
+    /**
+     * Compute the Levenshtein distance, if it is not larger than a given limit.
+     * Only the cells of the matrix at most <code>max</code> off the diagonal are computed.
+     *
+     * @param s First word
+     * @param t Second word
+     * @param max The largest distance of interest
+     * @return The distance between words, or <code>max + 1</code> if it is larger than <code>max</code>
+     */
+    public static int getLevenshteinDistance(String s, String t, int max) {
+        int n = s.length();
+        int m = t.length();
+        if (Math.abs(n - m) > max)
+            return max + 1;
+        int infinity = max + 1;
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = j <= max ? j : infinity;
+        }
+        for (int i = 1; i <= n; i++) {
+            char s_i = s.charAt(i - 1);
+            int from = Math.max(1, i - max);
+            int to = Math.min(m, i + max);
+            cur[0] = i <= max ? i : infinity;
+            if (from > 1) {
+                cur[from - 1] = infinity;
+            }
+            int rowMin = cur[0];
+            for (int j = from; j <= to; j++) {
+                int cost = s_i == t.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Utils.min(prev[j] + 1, cur[j - 1] + 1, prev[j - 1] + cost), infinity);
+                rowMin = Math.min(rowMin, cur[j]);
+            }
+            if (to < m) {
+                cur[to + 1] = infinity;
+            }
+            if (rowMin > max)
+                return infinity;
+            int[] aux = prev; prev = cur; cur = aux;
+        }
+        return Math.min(prev[m], infinity);
     }
 
     /**
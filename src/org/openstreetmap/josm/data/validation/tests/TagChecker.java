@@ -19,11 +19,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -78,6 +81,8 @@ public class TagChecker extends Test
     protected static MultiMap<String, String> presetsValueData;
     /** The TagChecker data */
     protected static List<CheckerData> checkerData = new ArrayList<CheckerData>();
+    /** The TagChecker data indexed by key, built from {@link #checkerData} when needed */
+    private static CheckerIndex checkerIndex;
     protected static List<String> ignoreDataStartsWith = new ArrayList<String>();
     protected static List<String> ignoreDataEquals = new ArrayList<String>();
     protected static List<String> ignoreDataEndsWith = new ArrayList<String>();
@@ -91,6 +96,8 @@ public class TagChecker extends Test
     public static final String PREF_CHECK_KEYS = PREFIX + ".checkKeys";
     public static final String PREF_CHECK_COMPLEX = PREFIX + ".checkComplex";
     public static final String PREF_CHECK_FIXMES = PREFIX + ".checkFixmes";
+    /** Whether the hits and the time spent are counted for each TagChecker rule */
+    public static final String PREF_RULE_STATISTICS = PREFIX + ".ruleStatistics";
 
     public static final String PREF_SOURCES = PREFIX + ".sources";
     public static final String PREF_USE_DATA_FILE = PREFIX + ".usedatafile";
@@ -107,6 +114,9 @@ public class TagChecker extends Test
     protected boolean checkComplex = false;
     protected boolean checkFixmes = false;
 
+    /** Whether the rule statistics are collected, see {@link #PREF_RULE_STATISTICS} */
+    protected static volatile boolean ruleStatistics = false;
+
     protected JCheckBox prefCheckKeys;
     protected JCheckBox prefCheckValues;
     protected JCheckBox prefCheckComplex;
@@ -170,6 +180,9 @@ public class TagChecker extends Test
      */
     private static void initializeData() throws IOException {
         spellCheckKeyData = new HashMap<String, String>();
+        synchronized (TagChecker.class) {
+            checkerIndex = null;
+        }
         String sources = Main.pref.get( PREF_SOURCES, "");
         if (Main.pref.getBoolean(PREF_USE_DATA_FILE, true)) {
             if (sources == null || sources.length() == 0) {
@@ -405,7 +418,7 @@ public class TagChecker extends Test
             }
 
             Map<String, String> keys = p.getKeys();
-            for (CheckerData d : checkerData) {
+            for (CheckerData d : getCheckerIndex().getCandidates(keys)) {
                 if (d.match(p, keys)) {
                     errors.add( new TestError(this, d.getSeverity(), tr("Suspicious tag/value combinations"),
                             d.getDescription(), d.getDescriptionOrig(), d.getCode(), p) );
@@ -524,6 +537,46 @@ public class TagChecker extends Test
         }
     }
 
+    @Override
+    public boolean isStatelessPerPrimitive() {
+        return true;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    public String getCacheFingerprint() {
+        StringBuilder sb = new StringBuilder(super.getCacheFingerprint());
+        // the preferences read by startTest(), the sources are part of the data below
+        sb.append('\n').append(Main.pref.getBoolean(PREF_CHECK_KEYS, true))
+                .append(Main.pref.getBoolean(PREF_CHECK_VALUES, true))
+                .append(Main.pref.getBoolean(PREF_CHECK_COMPLEX, true))
+                .append(Main.pref.getBoolean(PREF_CHECK_FIXMES, true));
+        if (isBeforeUpload) {
+            sb.append('\n').append(Main.pref.getBoolean(PREF_CHECK_KEYS_BEFORE_UPLOAD, true))
+                    .append(Main.pref.getBoolean(PREF_CHECK_VALUES_BEFORE_UPLOAD, true))
+                    .append(Main.pref.getBoolean(PREF_CHECK_COMPLEX_BEFORE_UPLOAD, true))
+                    .append(Main.pref.getBoolean(PREF_CHECK_FIXMES_BEFORE_UPLOAD, true));
+        }
+        for (CheckerData d : checkerData) {
+            sb.append('\n').append(d.getRule());
+        }
+        sb.append('\n').append(spellCheckKeyData);
+        sb.append('\n').append(presetsValueData == null ? 0 : presetsValueData.entrySet().hashCode());
+        sb.append('\n').append(ignoreDataStartsWith).append(ignoreDataEquals).append(ignoreDataEndsWith);
+        for (IgnoreKeyPair i : ignoreDataKeyPair) {
+            sb.append('\n').append(i.key).append('=').append(i.value);
+        }
+        for (IgnoreTwoKeyPair i : ignoreDataTwoKeyPair) {
+            sb.append('\n').append(i.key1).append('=').append(i.value1)
+                    .append(',').append(i.key2).append('=').append(i.value2);
+        }
+        return sb.toString();
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
@@ -546,6 +599,53 @@ public class TagChecker extends Test
         if (isBeforeUpload) {
             checkFixmes = checkFixmes && Main.pref.getBoolean(PREF_CHECK_FIXMES_BEFORE_UPLOAD, true);
         }
+
+        ruleStatistics = Main.pref.getBoolean(PREF_RULE_STATISTICS, false);
+    }
+
+    /**
+     * Replies the TagChecker rules indexed by key.
+     */
+    protected static synchronized CheckerIndex getCheckerIndex() {
+        if (checkerIndex == null || checkerIndex.size() != checkerData.size()) {
+            checkerIndex = new CheckerIndex(checkerData);
+        }
+        return checkerIndex;
+    }
+
+    /**
+     * Replies the number of evaluations and hits and the time spent for each TagChecker rule,
+     * the most expensive rules first. The counters are only updated while
+     * {@link #PREF_RULE_STATISTICS} is enabled.
+     *
+     * @param reset whether the counters are reset afterwards
+     * @return the statistics, one line per rule
+     */
+    public static String getRuleStatistics(boolean reset) {
+        List<CheckerData> rules;
+        synchronized (TagChecker.class) {
+            rules = new ArrayList<CheckerData>(checkerData);
+        }
+        Collections.sort(rules, new Comparator<CheckerData>() {
+            @Override
+            public int compare(CheckerData d1, CheckerData d2) {
+                long t1 = d1.nanos.get();
+                long t2 = d2.nanos.get();
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        StringBuilder sb = new StringBuilder();
+        sb.append(tr("TagChecker rule statistics (evaluations, hits, ms, rule):")).append('\n');
+        for (CheckerData d : rules) {
+            sb.append(String.format("%10d %8d %8.1f  %s%n", d.evaluations.get(), d.hits.get(),
+                    d.nanos.get() / 1000000.0, d.getRule()));
+            if (reset) {
+                d.evaluations.set(0);
+                d.hits.set(0);
+                d.nanos.set(0);
+            }
+        }
+        return sb.toString();
     }
 
     @Override
@@ -818,6 +918,7 @@ public class TagChecker extends Test
     }
 
     protected static class CheckerData {
+        private String rule;
         private String description;
         private List<CheckerElement> data = new ArrayList<CheckerElement>();
         private OsmPrimitiveType type;
@@ -827,6 +928,13 @@ public class TagChecker extends Test
         protected static int TAG_CHECK_WARN   = 1260;
         protected static int TAG_CHECK_INFO   = 1270;
 
+        /** The position of the rule in the data files, set by the {@link CheckerIndex} */
+        private int order;
+        /** Counters for tuning the rules, see {@link TagChecker#PREF_RULE_STATISTICS} */
+        private final AtomicLong evaluations = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
         private static class CheckerElement {
             public Object tag;
             public Object value;
@@ -870,6 +978,18 @@ public class TagChecker extends Test
             }
 
             public boolean match(OsmPrimitive osm, Map<String, String> keys) {
+                if (tag instanceof String) {
+                    // a literal key can only match the tag with this key
+                    String val = keys.get(tag);
+                    if (val == null)
+                        return noMatch;
+                    if (valueBool) {
+                        val = OsmUtils.getNamedOsmBoolean(val);
+                    }
+                    if (valueAll || (value instanceof Pattern ? ((Pattern) value).matcher(val).matches() : val.equals(value)))
+                        return !noMatch;
+                    return noMatch;
+                }
                 for (Entry<String, String> prop: keys.entrySet()) {
                     String key = prop.getKey();
                     String val = valueBool ? OsmUtils.getNamedOsmBoolean(prop.getValue()) : prop.getValue();
@@ -882,6 +1002,7 @@ public class TagChecker extends Test
         };
 
         public String getData(String str) {
+            rule = str;
             Matcher m = Pattern.compile(" *# *([^#]+) *$").matcher(str);
             str = m.replaceFirst("").trim();
             try {
@@ -933,7 +1054,20 @@ public class TagChecker extends Test
         public boolean match(OsmPrimitive osm, Map<String, String> keys) {
             if (type != null && OsmPrimitiveType.from(osm) != type)
                 return false;
+            if (!ruleStatistics)
+                return matchElements(osm, keys);
+
+            long start = System.nanoTime();
+            boolean match = matchElements(osm, keys);
+            nanos.addAndGet(System.nanoTime() - start);
+            evaluations.incrementAndGet();
+            if (match) {
+                hits.incrementAndGet();
+            }
+            return match;
+        }
 
+        private boolean matchElements(OsmPrimitive osm, Map<String, String> keys) {
             for (CheckerElement ce : data) {
                 if (!ce.match(osm, keys))
                     return false;
@@ -941,6 +1075,25 @@ public class TagChecker extends Test
             return true;
         }
 
+        /**
+         * Replies the key of a tag which a primitive must have to match this rule, i.e. a
+         * <code>String</code> or a <code>Pattern</code>, or null if there is no such key.
+         */
+        protected Object getRequiredKey() {
+            for (CheckerElement ce : data) {
+                if (!ce.tagAll && !ce.noMatch)
+                    return ce.tag;
+            }
+            return null;
+        }
+
+        /**
+         * Replies the rule as found in the data file.
+         */
+        public String getRule() {
+            return rule;
+        }
+
         public String getDescription() {
             return tr(description);
         }
@@ -960,4 +1113,126 @@ public class TagChecker extends Test
             return code + type.ordinal() + 1;
         }
     }
+
+    /**
+     * The TagChecker rules indexed by the key a primitive must have to match them, so
+     * that only the rules concerning the keys of a primitive are evaluated.
+     *
+     * Rules requiring a key given by a regular expression are looked up once for each
+     * distinct key. Rules without a required key are evaluated for all primitives.
+     */
+    protected static class CheckerIndex {
+        private final int size;
+        private final Map<String, List<CheckerData>> byKey = new HashMap<String, List<CheckerData>>();
+        private final List<CheckerData> byPattern = new ArrayList<CheckerData>();
+        private final List<CheckerData> always = new ArrayList<CheckerData>();
+        /** The rules for a key, literal and by pattern, in the order of the data files */
+        private final Map<String, List<CheckerData>> byKeyCache = new ConcurrentHashMap<String, List<CheckerData>>();
+
+        public CheckerIndex(List<CheckerData> data) {
+            size = data.size();
+            int order = 0;
+            for (CheckerData d : data) {
+                d.order = order++;
+                Object key = d.getRequiredKey();
+                if (key instanceof String) {
+                    List<CheckerData> list = byKey.get(key);
+                    if (list == null) {
+                        list = new ArrayList<CheckerData>();
+                        byKey.put((String) key, list);
+                    }
+                    list.add(d);
+                } else if (key instanceof Pattern) {
+                    byPattern.add(d);
+                } else {
+                    always.add(d);
+                }
+            }
+        }
+
+        /**
+         * Replies the number of indexed rules.
+         */
+        public int size() {
+            return size;
+        }
+
+        private List<CheckerData> getByKey(String key) {
+            List<CheckerData> result = byKeyCache.get(key);
+            if (result == null) {
+                result = new ArrayList<CheckerData>();
+                List<CheckerData> literal = byKey.get(key);
+                if (literal != null) {
+                    result.addAll(literal);
+                }
+                for (CheckerData d : byPattern) {
+                    if (((Pattern) d.getRequiredKey()).matcher(key).matches()) {
+                        result.add(d);
+                    }
+                }
+                if (result.isEmpty()) {
+                    result = Collections.emptyList();
+                } else {
+                    Collections.sort(result, new Comparator<CheckerData>() {
+                        @Override
+                        public int compare(CheckerData d1, CheckerData d2) {
+                            return d1.order - d2.order;
+                        }
+                    });
+                }
+                byKeyCache.put(key, result);
+            }
+            return result;
+        }
+
+        /**
+         * Replies the rules which may match a primitive with the given tags, in the order
+         * of the data files. The returned list must not be modified.
+         */
+        public List<CheckerData> getCandidates(Map<String, String> keys) {
+            List<List<CheckerData>> lists = new ArrayList<List<CheckerData>>(keys.size() + 1);
+            int total = 0;
+            if (!always.isEmpty()) {
+                lists.add(always);
+                total += always.size();
+            }
+            for (String key : keys.keySet()) {
+                List<CheckerData> list = getByKey(key);
+                if (!list.isEmpty()) {
+                    lists.add(list);
+                    total += list.size();
+                }
+            }
+            if (lists.isEmpty())
+                return Collections.emptyList();
+            if (lists.size() == 1)
+                return lists.get(0);
+
+            // merge the lists, which are in the order of the data files already
+            List<CheckerData> result = new ArrayList<CheckerData>(total);
+            int[] positions = new int[lists.size()];
+            int last = -1;
+            while (true) {
+                CheckerData next = null;
+                int nextList = -1;
+                for (int i = 0; i < positions.length; i++) {
+                    List<CheckerData> list = lists.get(i);
+                    if (positions[i] < list.size() && (next == null || list.get(positions[i]).order < next.order)) {
+                        next = list.get(positions[i]);
+                        nextList = i;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                positions[nextList]++;
+                // a rule with a regular expression key may be found for several keys
+                if (next.order != last) {
+                    result.add(next);
+                    last = next.order;
+                }
+            }
+            return result;
+        }
+    }
 }
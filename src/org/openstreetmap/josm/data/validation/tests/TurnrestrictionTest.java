@@ -35,6 +35,11 @@ public class TurnrestrictionTest extends Test {
         super(tr("Turnrestriction"), tr("This test checks if turnrestrictions are valid"));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void visit(Relation r) {
         if (!"restriction".equals(r.get("type")))
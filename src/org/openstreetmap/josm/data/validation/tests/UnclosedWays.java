@@ -32,6 +32,11 @@ public class UnclosedWays extends Test {
         super(tr("Unclosed Ways."), tr("This tests if ways which should be circular are closed."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
@@ -12,24 +12,25 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.coor.EastNorth;
-import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmUtils;
-import org.openstreetmap.josm.data.osm.QuadBuckets;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
 import org.openstreetmap.josm.gui.preferences.ValidatorPreference;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.Predicate;
 
 /**
  * Tests if there are segments that crosses in the same layer
@@ -41,15 +42,35 @@ public class UnconnectedWays extends Test {
     protected static int UNCONNECTED_WAYS = 1301;
     protected static final String PREFIX = ValidatorPreference.PREFIX + "." + UnconnectedWays.class.getSimpleName();
 
+    /** The role of a node in the visited ways */
+    private enum NodeRole {
+        /** at the end of a way */
+        END,
+        /** at the end of a highway or railway */
+        END_HIGHWAY,
+        /** in the middle of a way */
+        MIDDLE,
+        /** appearing at least twice */
+        OTHER
+    }
+
     Set<MyWaySegment> ways;
-    QuadBuckets<Node> endnodes; // nodes at end of way
-    QuadBuckets<Node> endnodes_highway; // nodes at end of way
-    QuadBuckets<Node> middlenodes; // nodes in middle of way
-    Set<Node> othernodes; // nodes appearing at least twice
-    //NodeSearchCache nodecache;
-    QuadBuckets<Node> nodecache;
+    /**
+     * The role of the nodes of the visited ways. The nodes are looked up in the spatial index
+     * of the dataset, so only the roles are kept here.
+     */
+    Map<Node, NodeRole> nodeRoles;
     Area ds_area;
     DataSet ds;
+    /** Reused result list of the node searches */
+    private final List<Node> found_nodes = new ArrayList<Node>();
+    private final Predicate<Node> isEndNode = new Predicate<Node>() {
+        @Override
+        public boolean evaluate(Node n) {
+            NodeRole role = nodeRoles.get(n);
+            return role == NodeRole.END || role == NodeRole.END_HIGHWAY;
+        }
+    };
 
     double mindist;
     double minmiddledist;
@@ -62,18 +83,20 @@ public class UnconnectedWays extends Test {
                 tr("This test checks if a way has an endpoint very near to another way."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
         ways = new HashSet<MyWaySegment>();
-        endnodes = new QuadBuckets<Node>();
-        endnodes_highway = new QuadBuckets<Node>();
-        middlenodes = new QuadBuckets<Node>();
-        othernodes = new HashSet<Node>();
+        nodeRoles = new IdentityHashMap<Node, NodeRole>();
         mindist = Main.pref.getDouble(PREFIX + ".node_way_distance", 10.0);
         minmiddledist = Main.pref.getDouble(PREFIX + ".way_way_distance", 0.0);
-        this.ds = Main.main.getCurrentDataSet();
-        this.ds_area = ds.getDataSourceArea();
+        this.ds = null;
+        this.ds_area = null;
     }
 
     @Override
@@ -84,7 +107,7 @@ public class UnconnectedWays extends Test {
             for (MyWaySegment s : tmp_ways) {
                 Collection<Node> nearbyNodes = s.nearbyNodes(mindist);
                 for (Node en : nearbyNodes) {
-                    if (en == null || !s.highway || !endnodes_highway.contains(en)) {
+                    if (en == null || !s.highway || nodeRoles.get(en) != NodeRole.END_HIGHWAY) {
                         continue;
                     }
                     if ("turning_circle".equals(en.get("highway"))
@@ -116,9 +139,10 @@ public class UnconnectedWays extends Test {
             if(isCancelled())
                 return;
             for (Node en : s.nearbyNodes(mindist)) {
-                if (endnodes_highway.contains(en) && !s.highway && !s.isArea()) {
+                NodeRole role = nodeRoles.get(en);
+                if (role == NodeRole.END_HIGHWAY && !s.highway && !s.isArea()) {
                     map.put(en, s.w);
-                } else if (endnodes.contains(en) && !s.isArea()) {
+                } else if (role == NodeRole.END && !s.isArea()) {
                     map.put(en, s.w);
                 }
             }
@@ -136,7 +160,7 @@ public class UnconnectedWays extends Test {
                 if(isCancelled())
                     return;
                 for (Node en : s.nearbyNodes(minmiddledist)) {
-                    if (!middlenodes.contains(en)) {
+                    if (nodeRoles.get(en) != NodeRole.MIDDLE) {
                         continue;
                     }
                     map.put(en, s.w);
@@ -155,7 +179,7 @@ public class UnconnectedWays extends Test {
                 for (Node en : s.nearbyNodes(minmiddledist)) {
                     if(isCancelled())
                         return;
-                    if (!othernodes.contains(en)) {
+                    if (nodeRoles.get(en) != NodeRole.OTHER) {
                         continue;
                     }
                     map.put(en, s.w);
@@ -171,14 +195,14 @@ public class UnconnectedWays extends Test {
             }
         }
         ways = null;
-        endnodes = null;
+        nodeRoles = null;
         super.endTest();
         //System.out.println("p99 elapsed: " + (System.currentTimeMillis()-last));
         //last = System.currentTimeMillis();
     }
 
     private class MyWaySegment {
-        private final Line2D line;
+        private final double x1, y1, x2, y2;
         public final Way w;
         public final boolean isAbandoned;
         public final boolean isBoundary;
@@ -196,9 +220,11 @@ public class UnconnectedWays extends Test {
             this.isAbandoned = "abandoned".equals(railway) || OsmUtils.isTrue(w.get("disused"));
             this.highway = (highway != null || railway != null) && !isAbandoned;
             this.isBoundary = !this.highway && "administrative".equals(w.get("boundary"));
-            line = new Line2D.Double(n1.getEastNorth().east(), n1.getEastNorth().north(),
-                    n2.getEastNorth().east(), n2.getEastNorth().north());
-            len = line.getP1().distance(line.getP2());
+            x1 = n1.getEastNorth().east();
+            y1 = n1.getEastNorth().north();
+            x2 = n2.getEastNorth().east();
+            y2 = n2.getEastNorth().north();
+            len = Point2D.distance(x1, y1, x2, y2);
             this.n1 = n1;
             this.n2 = n2;
         }
@@ -215,35 +241,30 @@ public class UnconnectedWays extends Test {
             EastNorth coord = n.getEastNorth();
             if (coord == null)
                 return false;
-            Point2D p = new Point2D.Double(coord.east(), coord.north());
-            if (line.getP1().distance(p) > len+dist)
+            double x = coord.east();
+            double y = coord.north();
+            if (Point2D.distance(x1, y1, x, y) > len+dist)
                 return false;
-            if (line.getP2().distance(p) > len+dist)
+            if (Point2D.distance(x2, y2, x, y) > len+dist)
                 return false;
-            return line.ptSegDist(p) < dist;
+            return Line2D.ptSegDist(x1, y1, x2, y2, x, y) < dist;
         }
 
-        public List<LatLon> getBounds(double fudge) {
-            double x1 = n1.getCoor().lon();
-            double x2 = n2.getCoor().lon();
-            if (x1 > x2) {
-                double tmpx = x1;
-                x1 = x2;
-                x2 = tmpx;
-            }
-            double y1 = n1.getCoor().lat();
-            double y2 = n2.getCoor().lat();
-            if (y1 > y2) {
-                double tmpy = y1;
-                y1 = y2;
-                y2 = tmpy;
-            }
-            LatLon topLeft  = new LatLon(y2+fudge, x1-fudge);
-            LatLon botRight = new LatLon(y1-fudge, x2+fudge);
-            List<LatLon> ret = new ArrayList<LatLon>();
-            ret.add(topLeft);
-            ret.add(botRight);
-            return ret;
+        /**
+         * Replies the lat/lon bounding box of the points which are closer than the given
+         * distance (in east/north units) to this segment.
+         */
+        public BBox getBounds(double dist) {
+            Projection proj = Main.getProjection();
+            double xmin = Math.min(x1, x2) - dist;
+            double xmax = Math.max(x1, x2) + dist;
+            double ymin = Math.min(y1, y2) - dist;
+            double ymax = Math.max(y1, y2) + dist;
+            BBox bbox = new BBox(proj.eastNorth2latlon(new EastNorth(xmin, ymin)),
+                    proj.eastNorth2latlon(new EastNorth(xmax, ymax)));
+            bbox.add(proj.eastNorth2latlon(new EastNorth(xmin, ymax)));
+            bbox.add(proj.eastNorth2latlon(new EastNorth(xmax, ymin)));
+            return bbox;
         }
 
         public Collection<Node> nearbyNodes(double dist) {
@@ -283,9 +304,10 @@ public class UnconnectedWays extends Test {
             // This needs to be a hash set because the searches
             // overlap a bit and can return duplicate nodes.
             nearbyNodeCache = null;
-            List<LatLon> bounds = this.getBounds(dist);
-            List<Node> found_nodes = endnodes_highway.search(new BBox(bounds.get(0), bounds.get(1)));
-            found_nodes.addAll(endnodes.search(new BBox(bounds.get(0), bounds.get(1))));
+            found_nodes.clear();
+            if (ds != null) {
+                ds.searchNodes(getBounds(dist), isEndNode, found_nodes);
+            }
 
             for (Node n : found_nodes) {
                 if (!nearby(n, dist) ||
@@ -327,7 +349,7 @@ public class UnconnectedWays extends Test {
             return ret;
         for (int i = 1; i < size; ++i) {
             if(i < size-1) {
-                addNode(w.getNode(i), middlenodes);
+                addNode(w.getNode(i), NodeRole.MIDDLE);
             }
             MyWaySegment ws = new MyWaySegment(w, w.getNode(i-1), w.getNode(i));
             if (ws.isBoundary || ws.isAbandoned) {
@@ -340,14 +362,18 @@ public class UnconnectedWays extends Test {
 
     @Override
     public void visit(Way w) {
+        if (ds == null && w.getDataSet() != null) {
+            ds = w.getDataSet();
+            ds_area = ds.getDataSourceArea();
+        }
         if (w.getNodesCount() > 0) {
             ways.addAll(getWaySegments(w));
-            QuadBuckets<Node> set = endnodes;
+            NodeRole role = NodeRole.END;
             if (w.hasKey("highway") || w.hasKey("railway")) {
-                set = endnodes_highway;
+                role = NodeRole.END_HIGHWAY;
             }
-            addNode(w.firstNode(), set);
-            addNode(w.lastNode(), set);
+            addNode(w.firstNode(), role);
+            addNode(w.lastNode(), role);
         }
     }
 
@@ -355,22 +381,12 @@ public class UnconnectedWays extends Test {
     public void visit(Node n) {
     }
 
-    private void addNode(Node n, QuadBuckets<Node> s) {
-        boolean m = middlenodes.contains(n);
-        boolean e = endnodes.contains(n);
-        boolean eh = endnodes_highway.contains(n);
-        boolean o = othernodes.contains(n);
-        if (!m && !e && !o && !eh) {
-            s.add(n);
-        } else if (!o) {
-            othernodes.add(n);
-            if (e) {
-                endnodes.remove(n);
-            } else if (eh) {
-                endnodes_highway.remove(n);
-            } else {
-                middlenodes.remove(n);
-            }
+    private void addNode(Node n, NodeRole role) {
+        NodeRole old = nodeRoles.get(n);
+        if (old == null) {
+            nodeRoles.put(n, role);
+        } else if (old != NodeRole.OTHER) {
+            nodeRoles.put(n, NodeRole.OTHER);
         }
     }
 }
@@ -40,6 +40,11 @@ public class UntaggedNode extends Test {
                 tr("This test checks for untagged nodes that are not part of any way."));
     }
 
+    @Override
+    public boolean isStatelessPerPrimitive() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
@@ -4,20 +4,18 @@ package org.openstreetmap.josm.data.validation.tests;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Relation;
-import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.validation.Severity;
 import org.openstreetmap.josm.data.validation.Test;
 import org.openstreetmap.josm.data.validation.TestError;
-import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 /**
  * Checks for untagged ways
@@ -39,7 +37,6 @@ public class UntaggedWay extends Test
     /** Untagged, but commented way error */
     protected static final int COMMENTED_WAY = 306;
 
-    private LinkedList<Way> multipolygonways;
 
     /** Ways that must have a name */
     public static final Set<String> NAMED_WAYS = new HashSet<String>();
@@ -93,7 +90,7 @@ public class UntaggedWay extends Test
             }
         }
 
-        if (!w.isTagged() && !multipolygonways.contains(w)) {
+        if (!w.isTagged() && !isMultipolygonMember(w)) {
             if (w.hasKeys()) {
                 errors.add(new TestError(this, Severity.WARNING, tr("Untagged ways (commented)"), COMMENTED_WAY, w));
             } else {
@@ -109,25 +106,19 @@ public class UntaggedWay extends Test
     }
 
     @Override
-    public void startTest(ProgressMonitor monitor) {
-        super.startTest(monitor);
-        multipolygonways = new LinkedList<Way>();
-        for (Relation r : Main.main.getCurrentDataSet().getRelations()) {
-            if (r.isUsable() && r.isMultipolygon()) {
-                for (RelationMember m : r.getMembers()) {
-                    if (m.getMember() != null && m.getMember() instanceof Way &&
-                            m.getMember().isUsable() && !m.getMember().isTagged()) {
-                        multipolygonways.add((Way)m.getMember());
-                    }
-                }
-            }
-        }
+    public boolean isStatelessPerPrimitive() {
+        return true;
     }
 
-    @Override
-    public void endTest() {
-        multipolygonways = null;
-        super.endTest();
+    /**
+     * Checks whether a way is a member of a multipolygon, where untagged ways are fine.
+     */
+    private static boolean isMultipolygonMember(Way w) {
+        for (OsmPrimitive p : w.getReferrers()) {
+            if (p instanceof Relation && p.isUsable() && ((Relation) p).isMultipolygon())
+                return true;
+        }
+        return false;
     }
 
     @Override
@@ -32,6 +32,11 @@ public class WronglyOrderedWays extends Test {
               tr("This test checks the direction of water, land and coastline ways."));
     }
 
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
     @Override
     public void startTest(ProgressMonitor monitor) {
         super.startTest(monitor);
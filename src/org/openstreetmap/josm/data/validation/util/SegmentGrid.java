@@ -0,0 +1,186 @@
+// License: GPL. See LICENSE file for details.
+package org.openstreetmap.josm.data.validation.util;
+
+import java.util.Arrays;
+
+/**
+ * A grid of line segments for finding segments which may intersect.
+ * <p>
+ * Segments are added one after the other. Each segment is registered in all grid cells it
+ * crosses, and the segments added before which share at least one cell with it are
+ * reported as candidates. The cells are the same as those of
+ * {@link ValUtil#getSegmentCells(org.openstreetmap.josm.data.osm.Node, org.openstreetmap.josm.data.osm.Node, double)}.
+ * <p>
+ * Segments are identified by the index in which they were added. The cells are kept in an
+ * open addressing hash table with <code>long</code> keys and the cell contents in linked
+ * lists stored in <code>int</code> arrays, so no objects are created per segment or cell.
+ * Each candidate is reported only once, even if it shares several cells with the segment.
+ */
+public class SegmentGrid {
+    private static final int NONE = -1;
+
+    private final double gridDetail;
+
+    private int segmentCount;
+
+    // hash table from cell key to the first and last entry of the cell
+    private long[] cellKeys;
+    private int[] cellFirst;
+    private int[] cellLast;
+    private int cellCount;
+
+    // entries of the cells: segment index and next entry of the same cell
+    private int[] entrySegment;
+    private int[] entryNext;
+    private int entryCount;
+
+    // candidates of the last added segment
+    private int[] candidates = new int[16];
+    private int candidateCount;
+    // segment index -> number of the last add() in which it was reported as candidate
+    private int[] reported = new int[64];
+
+    // cells of the current segment
+    private long[] segmentCells = new long[16];
+    private int segmentCellCount;
+    private final ValUtil.CellVisitor cellCollector = new ValUtil.CellVisitor() {
+        public void visit(long x, long y) {
+            addCell(x, y);
+        }
+    };
+
+    /**
+     * Constructs a new {@code SegmentGrid}.
+     * @param gridDetail multiplier of the east/north values giving the cell coordinates
+     */
+    public SegmentGrid(double gridDetail) {
+        this.gridDetail = gridDetail;
+        cellKeys = new long[1024];
+        cellFirst = new int[1024];
+        cellLast = new int[1024];
+        Arrays.fill(cellFirst, NONE);
+        entrySegment = new int[1024];
+        entryNext = new int[1024];
+    }
+
+    /**
+     * Replies the number of segments added.
+     */
+    public int size() {
+        return segmentCount;
+    }
+
+    /**
+     * Adds a segment and collects the previously added segments that share a cell with it.
+     *
+     * @param east1 east coordinate of the first point
+     * @param north1 north coordinate of the first point
+     * @param east2 east coordinate of the second point
+     * @param north2 north coordinate of the second point
+     * @return the number of candidates, which are available through {@link #getCandidates()}
+     */
+    public int add(double east1, double north1, double east2, double north2) {
+        int segment = segmentCount++;
+        if (segment >= reported.length) {
+            reported = Arrays.copyOf(reported, reported.length * 2);
+        }
+        reported[segment] = NONE;
+        candidateCount = 0;
+
+        computeCells(east1, north1, east2, north2);
+        for (int c = 0; c < segmentCellCount; c++) {
+            int slot = findSlot(segmentCells[c]);
+            if (cellFirst[slot] == NONE) {
+                cellKeys[slot] = segmentCells[c];
+                cellFirst[slot] = addEntry(segment);
+                cellLast[slot] = cellFirst[slot];
+                if (++cellCount * 2 > cellKeys.length) {
+                    rehash();
+                }
+                continue;
+            }
+            for (int e = cellFirst[slot]; e != NONE; e = entryNext[e]) {
+                int other = entrySegment[e];
+                if (reported[other] != segment) {
+                    reported[other] = segment;
+                    if (candidateCount == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidates.length * 2);
+                    }
+                    candidates[candidateCount++] = other;
+                }
+            }
+            int entry = addEntry(segment);
+            entryNext[cellLast[slot]] = entry;
+            cellLast[slot] = entry;
+        }
+        return candidateCount;
+    }
+
+    /**
+     * Replies the candidates found by the last call of {@link #add(double, double, double, double)}.
+     * Only the first entries up to the number returned by that call are valid, in the order of
+     * the cells along the segment and the order the candidates were added in.
+     */
+    public int[] getCandidates() {
+        return candidates;
+    }
+
+    private int addEntry(int segment) {
+        if (entryCount == entrySegment.length) {
+            entrySegment = Arrays.copyOf(entrySegment, entryCount * 2);
+            entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+        }
+        entrySegment[entryCount] = segment;
+        entryNext[entryCount] = NONE;
+        return entryCount++;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int findSlot(long key) {
+        int mask = cellKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (cellFirst[slot] != NONE && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = cellKeys;
+        int[] oldFirst = cellFirst;
+        int[] oldLast = cellLast;
+        cellKeys = new long[oldKeys.length * 2];
+        cellFirst = new int[oldKeys.length * 2];
+        cellLast = new int[oldKeys.length * 2];
+        Arrays.fill(cellFirst, NONE);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldFirst[i] != NONE) {
+                int slot = findSlot(oldKeys[i]);
+                cellKeys[slot] = oldKeys[i];
+                cellFirst[slot] = oldFirst[i];
+                cellLast[slot] = oldLast[i];
+            }
+        }
+    }
+
+    private void addCell(long x, long y) {
+        if (segmentCellCount == segmentCells.length) {
+            segmentCells = Arrays.copyOf(segmentCells, segmentCellCount * 2);
+        }
+        segmentCells[segmentCellCount++] = (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * Computes the cells crossed by a segment, like {@link ValUtil#getSegmentCells}.
+     */
+    private void computeCells(double east1, double north1, double east2, double north2) {
+        segmentCellCount = 0;
+        ValUtil.visitSegmentCells(east1, north1, east2, north2, gridDetail, cellCollector);
+    }
+}
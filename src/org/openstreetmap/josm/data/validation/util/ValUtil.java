@@ -3,13 +3,18 @@ package org.openstreetmap.josm.data.validation.util;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 
@@ -20,6 +25,16 @@ import org.openstreetmap.josm.data.validation.OsmValidator;
  */
 public class ValUtil
 {
+    /**
+     * Replies the distance in degrees around changed nodes and ways in which other primitives
+     * may be affected by the change.
+     *
+     * @return the distance, from the preference <code>validator.neighbourhood</code>
+     */
+    public static double getNeighbourhoodDistance() {
+        return Main.pref.getDouble("validator.neighbourhood", 0.0005);
+    }
+
     /**
      * Returns the start and end cells of a way.
      * @param w The way
@@ -108,11 +123,47 @@ public class ValUtil
      * @return A list with the coordinates of all cells
      */
     public static List<Point2D> getSegmentCells(Node n1, Node n2, double gridDetail) {
-        List<Point2D> cells = new ArrayList<Point2D>();
-        double x0 = n1.getEastNorth().east() * gridDetail;
-        double x1 = n2.getEastNorth().east() * gridDetail;
-        double y0 = n1.getEastNorth().north() * gridDetail + 1;
-        double y1 = n2.getEastNorth().north() * gridDetail + 1;
+        final List<Point2D> cells = new ArrayList<Point2D>();
+        visitSegmentCells(n1.getEastNorth().east(), n1.getEastNorth().north(),
+                n2.getEastNorth().east(), n2.getEastNorth().north(), gridDetail, new CellVisitor() {
+            public void visit(long x, long y) {
+                cells.add(new Point2D.Double(x, y));
+            }
+        });
+        return cells;
+    }
+
+    /**
+     * Receives the cells crossed by a segment.
+     * @see ValUtil#visitSegmentCells(double, double, double, double, double, CellVisitor)
+     */
+    public interface CellVisitor {
+        /**
+         * Called for each cell crossed by the segment.
+         * @param x the x coordinate of the cell
+         * @param y the y coordinate of the cell
+         */
+        void visit(long x, long y);
+    }
+
+    /**
+     * Passes the coordinates of all the cells crossed by a segment to a visitor, in the
+     * order along the segment. These are the cells of
+     * {@link #getSegmentCells(Node, Node, double)}, without creating objects for them.
+     *
+     * @param east1 east coordinate of the first point
+     * @param north1 north coordinate of the first point
+     * @param east2 east coordinate of the second point
+     * @param north2 north coordinate of the second point
+     * @param gridDetail The detail of the grid
+     * @param visitor the visitor
+     */
+    public static void visitSegmentCells(double east1, double north1, double east2, double north2,
+            double gridDetail, CellVisitor visitor) {
+        double x0 = east1 * gridDetail;
+        double x1 = east2 * gridDetail;
+        double y0 = north1 * gridDetail + 1;
+        double y1 = north2 * gridDetail + 1;
 
         if (x0 > x1) {
             // Move to 1st-4th cuadrants
@@ -131,7 +182,7 @@ public class ValUtil
 
         long maxSteps = (gridX1 - gridX0) + Math.abs(gridY1 - gridY0) + 1;
         while ((gridX0 <= gridX1 && (gridY0 - gridY1)*stepY <= 0) && maxSteps-- > 0) {
-            cells.add( new Point2D.Double(gridX0, gridY0));
+            visitor.visit(gridX0, gridY0);
 
             // Is the cross between the segment and next vertical line nearer than the cross with next horizontal line?
             // Note: segment line formula: y=dy/dx(x-x1)+y1
@@ -139,8 +190,8 @@ public class ValUtil
             double scanY = dy/dx * (gridX0 + 1 - x1) + y1 + (dy < 0 ? -1 : 0);
             double scanX = dx/dy * (gridY0 + (dy < 0 ? 0 : 1)*stepY - y1) + x1;
 
-            double distX = Math.pow(gridX0 + 1 - x0, 2) + Math.pow(scanY - y0, 2);
-            double distY = Math.pow(scanX - x0, 2) + Math.pow(gridY0 + stepY - y0, 2);
+            double distX = (gridX0 + 1 - x0) * (gridX0 + 1 - x0) + (scanY - y0) * (scanY - y0);
+            double distY = (scanX - x0) * (scanX - x0) + (gridY0 + stepY - y0) * (gridY0 + stepY - y0);
 
             if (distX < distY) {
                 gridX0 += 1;
@@ -148,6 +199,55 @@ public class ValUtil
                 gridY0 += stepY;
             }
         }
-        return cells;
+    }
+
+    /**
+     * Returns the primitives whose validation errors may change together with the given ones:
+     * the primitives themselves, the primitives referring to them and the ways and nodes within
+     * the given distance around them, with the nodes of these ways. For deleted ways, the nodes
+     * and their referrers are returned, as they may have become unconnected.
+     * <p>
+     * The neighbours are looked up in the spatial index of the dataset, so the result only
+     * depends on the size of the changes, not on the size of the dataset.
+     *
+     * @param primitives the changed primitives
+     * @param distance the distance in degrees around changed nodes and ways
+     * @return the changed primitives and their neighbourhood
+     */
+    public static Set<OsmPrimitive> getNeighbourhood(Collection<? extends OsmPrimitive> primitives, double distance) {
+        Set<OsmPrimitive> neighbourhood = new HashSet<OsmPrimitive>();
+        for (OsmPrimitive p : primitives) {
+            if (!p.isUsable()) {
+                if (p instanceof Way) {
+                    for (Node n : ((Way) p).getNodes()) {
+                        if (n.isUsable()) {
+                            neighbourhood.add(n);
+                            neighbourhood.addAll(n.getReferrers());
+                        }
+                    }
+                }
+                continue;
+            }
+            neighbourhood.add(p);
+            neighbourhood.addAll(p.getReferrers());
+            if (p instanceof Way) {
+                // the loop below skips the way itself, it is in the neighbourhood already
+                neighbourhood.addAll(((Way) p).getNodes());
+            }
+            DataSet ds = p.getDataSet();
+            if (ds != null && (p instanceof Node || p instanceof Way)) {
+                BBox bbox = new BBox(p.getBBox());
+                bbox.addPrimitive(p, distance);
+                for (Way w : ds.searchWays(bbox)) {
+                    if (neighbourhood.add(w)) {
+                        neighbourhood.addAll(w.getNodes());
+                    }
+                }
+                if (p instanceof Node) {
+                    neighbourhood.addAll(ds.searchNodes(bbox));
+                }
+            }
+        }
+        return neighbourhood;
     }
 }
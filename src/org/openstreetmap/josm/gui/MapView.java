@@ -45,6 +45,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
+import org.openstreetmap.josm.gui.layer.ImageryLayer;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
@@ -186,6 +187,9 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     private BufferedImage offscreenBuffer;
     // Layers that wasn't changed since last paint
     private final List<Layer> nonChangedLayers = new ArrayList<Layer>();
+    // Copies of nonChangedLayersBuffer with only the layers below an imagery layer, by index
+    // of that layer in nonChangedLayers, null for other layers
+    private final List<BufferedImage> compositesBelow = new ArrayList<BufferedImage>();
     private Layer changedLayer;
     private int lastViewID;
     private boolean paintPreferencesChanged = true;
@@ -452,6 +456,27 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         g.setPaintMode();
     }
 
+    private BufferedImage getCompositeBelow(int index) {
+        return index < compositesBelow.size() ? compositesBelow.get(index) : null;
+    }
+
+    /**
+     * Keeps a copy of the buffer, which currently contains the layers below the given index.
+     */
+    private void saveCompositeBelow(int index) {
+        while (compositesBelow.size() <= index) {
+            compositesBelow.add(null);
+        }
+        BufferedImage composite = compositesBelow.get(index);
+        if (composite == null || composite.getWidth() != getWidth() || composite.getHeight() != getHeight()) {
+            composite = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            compositesBelow.set(index, composite);
+        }
+        Graphics2D g = composite.createGraphics();
+        g.drawImage(nonChangedLayersBuffer, 0, 0, null);
+        g.dispose();
+    }
+
     /**
      * Draw the component.
      */
@@ -473,14 +498,15 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
             }
         }
 
-        boolean canUseBuffer = !paintPreferencesChanged && nonChangedLayers.size() <= nonChangedLayersCount &&
-        lastViewID == getViewID() && lastClipBounds.contains(g.getClipBounds());
+        boolean canUseBuffer = !paintPreferencesChanged && nonChangedLayersBuffer != null
+        && nonChangedLayersBuffer.getWidth() == getWidth() && nonChangedLayersBuffer.getHeight() == getHeight()
+        && lastViewID == getViewID() && lastClipBounds.contains(g.getClipBounds());
+        // number of layers at the bottom of the buffer which are still valid
+        int validLayers = 0;
         if (canUseBuffer) {
-            for (int i=0; i<nonChangedLayers.size(); i++) {
-                if (visibleLayers.get(i) != nonChangedLayers.get(i)) {
-                    canUseBuffer = false;
-                    break;
-                }
+            int max = Math.min(nonChangedLayers.size(), nonChangedLayersCount);
+            while (validLayers < max && visibleLayers.get(validLayers) == nonChangedLayers.get(validLayers)) {
+                validLayers++;
             }
         }
 
@@ -492,28 +518,38 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         tempG.setClip(g.getClip());
         Bounds box = getLatLonBounds(g.getClipBounds());
 
-        if (!canUseBuffer || nonChangedLayersBuffer == null) {
+        if (!canUseBuffer) {
+            compositesBelow.clear();
             if (null == nonChangedLayersBuffer || nonChangedLayersBuffer.getWidth() != getWidth() || nonChangedLayersBuffer.getHeight() != getHeight()) {
                 nonChangedLayersBuffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
             }
-            Graphics2D g2 = nonChangedLayersBuffer.createGraphics();
-            g2.setClip(g.getClip());
-            g2.setColor(PaintColors.getBackgroundColor());
-            g2.fillRect(0, 0, getWidth(), getHeight());
-
-            for (int i=0; i<nonChangedLayersCount; i++) {
-                paintLayer(visibleLayers.get(i),g2, box);
+        }
+        Graphics2D g2 = nonChangedLayersBuffer.createGraphics();
+        g2.setClip(g.getClip());
+        if (!canUseBuffer || validLayers < nonChangedLayers.size()) {
+            // The buffer contains layers that have changed since. Continue from the
+            // last composite below them, so unchanged imagery isn't blended again.
+            while (validLayers > 0 && getCompositeBelow(validLayers) == null) {
+                validLayers--;
             }
-        } else {
-            // Maybe there were more unchanged layers then last time - draw them to buffer
-            if (nonChangedLayers.size() != nonChangedLayersCount) {
-                Graphics2D g2 = nonChangedLayersBuffer.createGraphics();
-                g2.setClip(g.getClip());
-                for (int i=nonChangedLayers.size(); i<nonChangedLayersCount; i++) {
-                    paintLayer(visibleLayers.get(i),g2, box);
-                }
+            if (validLayers > 0) {
+                g2.drawImage(getCompositeBelow(validLayers), 0, 0, null);
+            } else {
+                g2.setColor(PaintColors.getBackgroundColor());
+                g2.fillRect(0, 0, getWidth(), getHeight());
+            }
+        }
+        while (compositesBelow.size() > validLayers + 1) {
+            compositesBelow.remove(compositesBelow.size() - 1);
+        }
+        for (int i=validLayers; i<nonChangedLayersCount; i++) {
+            Layer layer = visibleLayers.get(i);
+            if (i > 0 && layer instanceof ImageryLayer && getCompositeBelow(i) == null) {
+                saveCompositeBelow(i);
             }
+            paintLayer(layer, g2, box);
         }
+        g2.dispose();
 
         nonChangedLayers.clear();
         changedLayer = null;
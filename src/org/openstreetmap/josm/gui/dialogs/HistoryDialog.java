@@ -297,7 +297,8 @@ public class HistoryDialog extends ToggleDialog implements HistoryDataSetListene
             List<OsmPrimitive> selectedItems = model.getPrimitives(rows);
             HistoryLoadTask task = new HistoryLoadTask();
             task.add(selectedItems);
-            Main.worker.execute(task);
+            task.setRefresh(true);
+            Main.networkWorker.execute(task);
         }
 
         protected void updateEnabledState() {
@@ -337,7 +338,7 @@ public class HistoryDialog extends ToggleDialog implements HistoryDataSetListene
                 if (hds.getHistory(p.getPrimitiveId()) == null) {
                     // reload if the history is not in the cache yet
                     ret.add(p);
-                } else if (!p.isNew() && hds.getHistory(p.getPrimitiveId()).getByVersion(p.getUniqueId()) == null) {
+                } else if (!p.isNew() && hds.getHistory(p.getPrimitiveId()).getByVersion(p.getVersion()) == null) {
                     // reload if the history object of the selected object is not in the cache
                     // yet
                     ret.add(p);
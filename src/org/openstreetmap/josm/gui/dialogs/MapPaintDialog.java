@@ -464,7 +464,7 @@ public class MapPaintDialog extends ToggleDialog {
             if (!SaveActionBase.confirmOverride(file))
                 return;
 
-            Main.worker.submit(new SaveToFileTask(s, file));
+            Main.quickWorker.submit(new SaveToFileTask(s, file));
         }
 
         private class SaveToFileTask extends PleaseWaitRunnable {
@@ -327,7 +327,7 @@ public class ChangesetDetailPanel extends JPanel implements PropertyChangeListen
 
         public void actionPerformed(ActionEvent evt) {
             if (current == null) return;
-            Main.worker.submit(
+            Main.networkWorker.submit(
                     new ChangesetHeaderDownloadTask(
                             ChangesetDetailPanel.this,
                             Collections.singleton(current.getId())
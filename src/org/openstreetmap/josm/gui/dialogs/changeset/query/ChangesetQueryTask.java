@@ -6,7 +6,12 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.awt.Component;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.swing.SwingUtilities;
@@ -30,6 +35,10 @@ import org.xml.sax.SAXException;
 /**
  * Asynchronous task to send a changeset query to the OSM API.
  *
+ * If the query was sent before, the server is only asked for the changesets
+ * closed since then, and the matching changesets in the {@see ChangesetCache}
+ * are added to the result.
+ *
  */
 public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetDownloadTask{
 
@@ -104,7 +113,11 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
         //
         Runnable r = new Runnable() {
             public void run() {
-                ChangesetCache.getInstance().update(downloadedChangesets);
+                ChangesetCache cache = ChangesetCache.getInstance();
+                cache.update(downloadedChangesets);
+                cache.rememberQueryResult(query, downloadedChangesets);
+                downloadedChangesets.addAll(cache.getChangesets(query));
+                downloadedChangesets = limitToMaxReplySize(downloadedChangesets);
             }
         };
         if (SwingUtilities.isEventDispatchThread()) {
@@ -127,6 +140,28 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
         }
     }
 
+    /**
+     * Replies the {@see ChangesetQuery#MAX_REPLY_SIZE} most recently created changesets,
+     * like the server does for a query.
+     *
+     * @param changesets the changesets
+     * @return the most recently created changesets
+     */
+    protected static Set<Changeset> limitToMaxReplySize(Set<Changeset> changesets) {
+        if (changesets.size() <= ChangesetQuery.MAX_REPLY_SIZE)
+            return changesets;
+        List<Changeset> sorted = new ArrayList<Changeset>(changesets);
+        Collections.sort(sorted, new Comparator<Changeset>() {
+            public int compare(Changeset cs1, Changeset cs2) {
+                // most recently created first, changesets without a creation date last
+                long t1 = cs1.getCreatedAt() == null ? Long.MIN_VALUE : cs1.getCreatedAt().getTime();
+                long t2 = cs2.getCreatedAt() == null ? Long.MIN_VALUE : cs2.getCreatedAt().getTime();
+                return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        return new HashSet<Changeset>(sorted.subList(0, ChangesetQuery.MAX_REPLY_SIZE));
+    }
+
     /**
      * Tries to fully identify the current JOSM user
      *
@@ -165,8 +200,14 @@ public class ChangesetQueryTask extends PleaseWaitRunnable implements ChangesetD
             synchronized(this) {
                 changesetReader= new OsmServerChangesetReader();
             }
+            // only ask for the changesets which were closed since the query was sent the last time
+            ChangesetQuery serverQuery = query;
+            Date lastClosedAt = ChangesetCache.getInstance().getLastClosedAt(query);
+            if (lastClosedAt != null && !query.isRestrictedToOpenChangesets()) {
+                serverQuery = query.closedAfterAtLeast(lastClosedAt);
+            }
             downloadedChangesets = new HashSet<Changeset>();
-            downloadedChangesets.addAll(changesetReader.queryChangesets(query, getProgressMonitor().createSubTaskMonitor(0, false)));
+            downloadedChangesets.addAll(changesetReader.queryChangesets(serverQuery, getProgressMonitor().createSubTaskMonitor(0, false)));
             synchronized (this) {
                 changesetReader = null;
             }
@@ -56,6 +56,7 @@ import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.OsmUrlToBounds;
+import org.openstreetmap.josm.tools.TaskExecutor;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -296,7 +297,7 @@ public class PlaceSelection implements DownloadSelection {
             cbSearchExpression.addCurrentItemToHistory();
             Main.pref.putCollection(HISTORY_KEY, cbSearchExpression.getHistory());
             NameQueryTask task = new NameQueryTask(cbSearchExpression.getText());
-            Main.worker.submit(task);
+            Main.networkWorker.submit(task, TaskExecutor.Priority.HIGH);
         }
 
         protected void updateEnabledState() {
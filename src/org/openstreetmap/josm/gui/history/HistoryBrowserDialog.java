@@ -160,7 +160,8 @@ public class HistoryBrowserDialog extends JDialog implements HistoryDataSetListe
         public void actionPerformed(ActionEvent e) {
             HistoryLoadTask task = new HistoryLoadTask();
             task.add(browser.getHistory());
-            Main.worker.submit(task);
+            task.setRefresh(true);
+            Main.networkWorker.submit(task);
         }
     }
 
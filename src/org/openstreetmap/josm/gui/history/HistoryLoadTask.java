@@ -6,8 +6,10 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.awt.Component;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.text.MessageFormat;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -15,11 +17,13 @@ import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.PrimitiveId;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.history.History;
+import org.openstreetmap.josm.data.osm.history.HistoryCache;
 import org.openstreetmap.josm.data.osm.history.HistoryDataSet;
 import org.openstreetmap.josm.data.osm.history.HistoryOsmPrimitive;
 import org.openstreetmap.josm.gui.ExceptionDialogUtil;
 import org.openstreetmap.josm.gui.PleaseWaitRunnable;
 import org.openstreetmap.josm.io.OsmApi;
+import org.openstreetmap.josm.io.OsmApiException;
 import org.openstreetmap.josm.io.OsmServerHistoryReader;
 import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
@@ -29,6 +33,10 @@ import org.xml.sax.SAXException;
  * Loads the object history of an collection of objects from the
  * server.
  *
+ * Histories in the {@see HistoryCache} are taken from the cache if they include the
+ * version of the object to be loaded. Otherwise, or if the task {@see #setRefresh(boolean) refreshes}
+ * the histories, only the versions newer than the cached ones are downloaded.
+ *
  * It provides a fluent API for configuration.
  *
  * Sample usage:
@@ -49,8 +57,14 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
     private boolean cancelled = false;
     private Exception lastException  = null;
     private HashSet<PrimitiveId> toLoad;
+    /** the versions of the objects which have to be in the history, if known */
+    private HashMap<PrimitiveId, Long> versions = new HashMap<PrimitiveId, Long>();
+    private boolean refresh;
     private HistoryDataSet loadedData;
 
+    /** the max. number of versions which are downloaded one by one instead of the whole history */
+    private static final int MAX_VERSION_REQUESTS = 3;
+
     public HistoryLoadTask() {
         super(tr("Load history"), true);
         toLoad = new HashSet<PrimitiveId>();
@@ -107,6 +121,7 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
     public HistoryLoadTask add(HistoryOsmPrimitive primitive) {
         CheckParameterUtil.ensureParameterNotNull(primitive, "primitive");
         toLoad.add(primitive.getPrimitiveId());
+        addVersion(primitive.getPrimitiveId(), primitive.getVersion());
         return this;
     }
 
@@ -134,6 +149,7 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
     public HistoryLoadTask add(OsmPrimitive primitive) {
         CheckParameterUtil.ensureValidPrimitiveId(primitive, "primitive");
         toLoad.add(primitive.getPrimitiveId());
+        addVersion(primitive.getPrimitiveId(), primitive.getVersion());
         return this;
     }
 
@@ -156,6 +172,25 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
         return this;
     }
 
+    private void addVersion(PrimitiveId pid, long version) {
+        Long old = versions.get(pid);
+        if (version > 0 && (old == null || old < version)) {
+            versions.put(pid, version);
+        }
+    }
+
+    /**
+     * Sets whether the server is asked for versions newer than the cached ones, even
+     * if the cached history includes the version of the object to be loaded.
+     *
+     * @param refresh true, to look for newer versions on the server
+     * @return this task
+     */
+    public HistoryLoadTask setRefresh(boolean refresh) {
+        this.refresh = refresh;
+        return this;
+    }
+
     @Override
     protected void cancel() {
         OsmApi.getOsmApi().cancel();
@@ -189,17 +224,38 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
                 }
                 progressMonitor.indeterminateSubTask(tr(msg,
                         Long.toString(pid.getUniqueId())));
+                History cached = HistoryCache.getInstance().get(pid);
+                Long version = versions.get(pid);
+                if (cached != null && !refresh && (version == null || cached.contains(version))) {
+                    put(loadedData, cached);
+                    continue;
+                }
                 OsmServerHistoryReader reader = null;
                 HistoryDataSet ds = null;
                 try {
                     reader = new OsmServerHistoryReader(pid.getType(), pid.getUniqueId());
-                    ds = reader.parseHistory(progressMonitor.createSubTaskMonitor(1, false));
+                    if (cached == null) {
+                        ds = reader.parseHistory(progressMonitor.createSubTaskMonitor(1, false));
+                    } else {
+                        ds = loadNewerVersions(reader, cached, refresh || version == null ? 0 : version);
+                    }
                 } catch(OsmTransferException e) {
                     if (cancelled)
                         return;
                     throw e;
                 }
+                if (ds == null) {
+                    // the newer versions couldn't be loaded, show the cached ones
+                    if (cached != null && !cancelled) {
+                        put(loadedData, cached);
+                    }
+                    continue;
+                }
                 loadedData.mergeInto(ds);
+                History history = ds.getHistory(pid);
+                if (history != null) {
+                    HistoryCache.getInstance().put(history);
+                }
             }
         } catch(OsmTransferException e) {
             lastException = e;
@@ -207,6 +263,62 @@ public class HistoryLoadTask extends PleaseWaitRunnable {
         }
     }
 
+    /**
+     * Downloads the versions newer than the cached ones. Downloads the whole history
+     * instead if there are too many of them.
+     *
+     * @param reader the reader for the object
+     * @param cached the cached history
+     * @param upToVersion the newest version to download. 0, to ask the server for
+     * the current version first.
+     * @return the cached and the downloaded versions. null, if cancelled
+     */
+    protected HistoryDataSet loadNewerVersions(OsmServerHistoryReader reader, History cached, long upToVersion) throws OsmTransferException {
+        HistoryDataSet ds = new HistoryDataSet();
+        put(ds, cached);
+        long latest = cached.getLatest().getVersion();
+        if (upToVersion <= 0) {
+            HistoryDataSet current;
+            try {
+                current = reader.parseLatestVersion(progressMonitor.createSubTaskMonitor(1, false));
+            } catch (OsmApiException e) {
+                if (e.getResponseCode() != HttpURLConnection.HTTP_GONE)
+                    throw e;
+                // the version which deleted the object isn't sent for deleted objects
+                return reader.parseHistory(progressMonitor.createSubTaskMonitor(1, false));
+            }
+            History history = current == null ? null : current.getHistory(cached.getPrimitmiveId());
+            if (history == null || history.isEmpty())
+                return null;
+            HistoryOsmPrimitive primitive = history.getLatest();
+            upToVersion = primitive.getVersion();
+            if (!cached.contains(upToVersion)) {
+                ds.put(primitive);
+            }
+            upToVersion--;
+        }
+        if (upToVersion - latest > MAX_VERSION_REQUESTS)
+            return reader.parseHistory(progressMonitor.createSubTaskMonitor(1, false));
+        for (long v = latest + 1; v <= upToVersion; v++) {
+            if (cancelled)
+                return null;
+            HistoryDataSet version = reader.parseVersion(v, progressMonitor.createSubTaskMonitor(1, false));
+            if (version == null)
+                return null;
+            History history = version.getHistory(cached.getPrimitmiveId());
+            if (history != null && !history.isEmpty()) {
+                ds.put(history.getLatest());
+            }
+        }
+        return ds;
+    }
+
+    private static void put(HistoryDataSet ds, History history) {
+        for (int i = 0; i < history.getNumVersions(); i++) {
+            ds.put(history.get(i));
+        }
+    }
+
     public boolean isCancelled() {
         return cancelled;
     }
@@ -0,0 +1,128 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.io;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.swing.JOptionPane;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.imagery.ImageryInfo;
+import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryType;
+import org.openstreetmap.josm.data.imagery.WmsCache;
+import org.openstreetmap.josm.gui.PleaseWaitRunnable;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.layer.TMSLayer;
+import org.openstreetmap.josm.gui.layer.WMSLayer;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.io.imagery.ImageryPrecacher;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+import org.xml.sax.SAXException;
+
+/**
+ * The asynchronous task for filling the imagery caches for a set of areas, so the
+ * imagery can be used offline later on.
+ *
+ * @see ImageryPrecacher
+ */
+public class PrecacheImageryTask extends PleaseWaitRunnable {
+    private final ImageryInfo info;
+    private final Collection<Bounds> areas;
+    private final int minZoom;
+    private final int maxZoom;
+    private ImageryPrecacher precacher;
+    private boolean canceled;
+
+    /**
+     * Creates the task
+     *
+     * @param info the imagery entry to download. Must not be null.
+     * @param areas the areas to download. Must not be null.
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     */
+    public PrecacheImageryTask(ImageryInfo info, Collection<Bounds> areas, int minZoom, int maxZoom) {
+        super(tr("Downloading imagery for offline use"), false /* don't ignore exceptions */);
+        CheckParameterUtil.ensureParameterNotNull(info, "info");
+        CheckParameterUtil.ensureParameterNotNull(areas, "areas");
+        this.info = info;
+        this.areas = areas;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+    }
+
+    /**
+     * Creates the task for the downloaded areas of a data layer
+     *
+     * @param info the imagery entry to download. Must not be null.
+     * @param layer the data layer. Must not be null.
+     * @param minZoom the lowest zoom level
+     * @param maxZoom the highest zoom level
+     */
+    public PrecacheImageryTask(ImageryInfo info, OsmDataLayer layer, int minZoom, int maxZoom) {
+        this(info, layer.data.getDataSourceBounds(), minZoom, maxZoom);
+    }
+
+    protected ImageryPrecacher createPrecacher() throws IOException {
+        if (info.getImageryType() == ImageryType.WMS) {
+            WmsCache cache = null;
+            // share the cache with open layers of the same server, otherwise they overwrite each others index
+            if (Main.isDisplayingMapView()) {
+                for (WMSLayer layer: Main.map.mapView.getLayersOfType(WMSLayer.class)) {
+                    if (info.getUrl().equals(layer.getInfo().getUrl()) && layer.cache != null) {
+                        cache = layer.cache;
+                        break;
+                    }
+                }
+            }
+            if (cache == null) {
+                cache = new WmsCache(info.getUrl(), 500);
+                cache.loadIndex();
+            }
+            return new ImageryPrecacher(info, cache, areas, minZoom, maxZoom);
+        }
+        TileSource source = TMSLayer.getTileSource(info);
+        String cachePath = TMSLayer.PROP_TILECACHE_DIR.get();
+        if (source == null || cachePath == null || cachePath.isEmpty())
+            throw new IOException(tr("Imagery ''{0}'' can''t be cached", info.getName()));
+        return new ImageryPrecacher(source, new File(cachePath), areas, minZoom, maxZoom);
+    }
+
+    @Override
+    protected void realRun() throws SAXException, IOException, OsmTransferException {
+        ImageryPrecacher p = createPrecacher();
+        synchronized (this) {
+            if (canceled) return;
+            precacher = p;
+        }
+        p.precache(progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
+    }
+
+    @Override
+    protected void finish() {
+        if (canceled || precacher == null || precacher.getFailedCount() == 0)
+            return;
+        JOptionPane.showMessageDialog(
+                Main.parent,
+                tr("{0} of {1} tiles could not be downloaded. Run the download again to retry them.",
+                        precacher.getFailedCount(),
+                        precacher.getFailedCount() + precacher.getDownloadedCount() + precacher.getSkippedCount()),
+                tr("Warning"),
+                JOptionPane.WARNING_MESSAGE
+        );
+    }
+
+    @Override
+    protected synchronized void cancel() {
+        canceled = true;
+        if (precacher != null) {
+            precacher.cancel();
+        }
+    }
+}
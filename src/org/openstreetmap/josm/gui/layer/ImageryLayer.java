@@ -9,6 +9,11 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.GridBagLayout;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
@@ -20,28 +25,39 @@ import javax.swing.AbstractAction;
 import javax.swing.Icon;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
 import javax.swing.JSeparator;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingUtilities;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.ImageryAdjustAction;
+import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.imagery.ImageryInfo;
 import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryType;
 import org.openstreetmap.josm.data.imagery.OffsetBookmark;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.io.PrecacheImageryTask;
 import org.openstreetmap.josm.io.imagery.OffsetServer;
 import org.openstreetmap.josm.io.imagery.OsmosnimkiOffsetServer;
+import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.ImageProvider;
+import org.openstreetmap.josm.tools.TaskExecutor;
 
 public abstract class ImageryLayer extends Layer {
     protected static final Icon icon = ImageProvider.get("imagery_small");
 
     public static final IntegerProperty PROP_FADE_AMOUNT = new IntegerProperty("imagery.fade_amount", 0);
     public static final IntegerProperty PROP_SHARPEN_LEVEL = new IntegerProperty("imagery.sharpen_level", 0);
+    public static final IntegerProperty PROP_PRECACHE_MIN_ZOOM = new IntegerProperty("imagery.precache.min_zoom", 14);
+    public static final IntegerProperty PROP_PRECACHE_MAX_ZOOM = new IntegerProperty("imagery.precache.max_zoom", 17);
 
     public static Color getFadeColor() {
         return Main.pref.getColor(marktr("Imagery fade"), Color.white);
@@ -168,6 +184,51 @@ public abstract class ImageryLayer extends Layer {
         }
     }
 
+    /**
+     * Downloads the imagery for the downloaded areas of the edit layer into the cache,
+     * so it can be used without network connection.
+     */
+    public class PrecacheDataAreaAction extends AbstractAction {
+        public PrecacheDataAreaAction() {
+            super(tr("Download imagery for data area..."));
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent ev) {
+            if (Main.main.getEditLayer() == null)
+                return;
+            List<Bounds> areas = Main.main.getEditLayer().data.getDataSourceBounds();
+            if (areas.isEmpty()) {
+                JOptionPane.showMessageDialog(Main.parent,
+                        tr("The current data layer has no downloaded area."),
+                        tr("Error"),
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            JSpinner spinMin = new JSpinner(new SpinnerNumberModel(PROP_PRECACHE_MIN_ZOOM.get(), 0, TMSLayer.MAX_ZOOM, 1));
+            JSpinner spinMax = new JSpinner(new SpinnerNumberModel(PROP_PRECACHE_MAX_ZOOM.get(), 0, TMSLayer.MAX_ZOOM, 1));
+            JPanel p = new JPanel(new GridBagLayout());
+            p.add(new JLabel(tr("Minimum zoom level:")), GBC.std());
+            p.add(spinMin, GBC.eol());
+            p.add(new JLabel(tr("Maximum zoom level:")), GBC.std());
+            p.add(spinMax, GBC.eol());
+            int ret = JOptionPane.showConfirmDialog(Main.parent, p, tr("Download imagery for data area"),
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (ret != JOptionPane.OK_OPTION)
+                return;
+            int minZoom = (Integer) spinMin.getValue();
+            int maxZoom = (Integer) spinMax.getValue();
+            if (minZoom > maxZoom) {
+                int tmp = minZoom;
+                minZoom = maxZoom;
+                maxZoom = tmp;
+            }
+            PROP_PRECACHE_MIN_ZOOM.put(minZoom);
+            PROP_PRECACHE_MAX_ZOOM.put(maxZoom);
+            Main.networkWorker.submit(new PrecacheImageryTask(getInfo(), areas, minZoom, maxZoom), TaskExecutor.Priority.LOW);
+        }
+    }
+
     ImageryAdjustAction adjustAction = new ImageryAdjustAction(this);
     AbstractAction useServerOffsetAction = new AbstractAction(tr("(use server offset)")) {
         @Override
@@ -234,6 +295,41 @@ public abstract class ImageryLayer extends Layer {
         return op.filter(tmp, null);
     }
 
+    /**
+     * Prepares a freshly decoded tile for display. Sharpening and conversion to the
+     * screen pixel layout are done here, so this should be called from a background thread.
+     */
+    public BufferedImage prepareImage(BufferedImage img) {
+        if (img == null) return null;
+        return toCompatibleImage(sharpenImage(img));
+    }
+
+    /**
+     * Creates an image with the pixel layout of the default screen device. In headless mode
+     * a plain RGB or ARGB image is returned.
+     */
+    public static BufferedImage createCompatibleImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(width, height, transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        GraphicsConfiguration conf = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        return conf.createCompatibleImage(width, height, transparency);
+    }
+
+    /**
+     * Converts the image to the pixel layout of the default screen device, so that blitting
+     * it does not require a format conversion on every paint.
+     */
+    public static BufferedImage toCompatibleImage(BufferedImage img) {
+        if (GraphicsEnvironment.isHeadless()) return img;
+        GraphicsConfiguration conf = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        if (img.getColorModel().equals(conf.getColorModel(img.getTransparency()))) return img;
+        BufferedImage compatible = conf.createCompatibleImage(img.getWidth(), img.getHeight(), img.getTransparency());
+        Graphics2D g = compatible.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+
     public void drawErrorTile(BufferedImage img) {
         Graphics g = img.getGraphics();
         g.setColor(Color.RED);
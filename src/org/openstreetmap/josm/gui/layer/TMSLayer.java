@@ -69,6 +69,7 @@ import org.openstreetmap.josm.gui.MapView;
 import org.openstreetmap.josm.gui.MapView.LayerChangeListener;
 import org.openstreetmap.josm.gui.dialogs.LayerListDialog;
 import org.openstreetmap.josm.gui.dialogs.LayerListPopup;
+import org.openstreetmap.josm.io.imagery.TMSFileCacheTileLoader;
 
 /**
  * Class that displays a slippy map layer.
@@ -273,7 +274,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
         tileLoader = null;
         if (cachePath != null && !cachePath.isEmpty()) {
             try {
-                tileLoader = new OsmFileCacheTileLoader(this, new File(cachePath));
+                tileLoader = new TMSFileCacheTileLoader(this, new File(cachePath));
             } catch (IOException e) {
             }
         }
@@ -1324,6 +1325,7 @@ public class TMSLayer extends ImageryLayer implements ImageObserver, TileLoaderL
                 // color,
                 new OffsetAction(),
                 new RenameLayerAction(this.getAssociatedFile(), this),
+                new PrecacheDataAreaAction(),
                 SeparatorLayerAction.INSTANCE,
                 new LayerListPopup.InfoAction(this) };
     }
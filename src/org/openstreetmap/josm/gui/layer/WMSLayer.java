@@ -67,6 +67,12 @@ public class WMSLayer extends ImageryLayer implements PreferenceChangedListener
     public static final BooleanProperty PROP_OVERLAP = new BooleanProperty("imagery.wms.overlap", false);
     public static final IntegerProperty PROP_OVERLAP_EAST = new IntegerProperty("imagery.wms.overlapEast", 14);
     public static final IntegerProperty PROP_OVERLAP_NORTH = new IntegerProperty("imagery.wms.overlapNorth", 4);
+    public static final BooleanProperty PROP_BACKGROUND_SCALING = new BooleanProperty("imagery.wms.background_scaling", true);
+    /**
+     * Number of cells per side of a metatile. Pending neighbouring cells of a metatile are
+     * fetched with one GetMap request and split afterwards. 1 disables metatiling.
+     */
+    public static final IntegerProperty PROP_METATILE_SIZE = new IntegerProperty("imagery.wms.metatileSize", 1);
 
     public int messageNum = 5; //limit for messages per layer
     protected String resolution;
@@ -431,6 +437,7 @@ public class WMSLayer extends ImageryLayer implements PreferenceChangedListener
                 new ChangeResolutionAction(),
                 new ReloadErrorTilesAction(),
                 new DownloadAction(),
+                new PrecacheDataAreaAction(),
                 SeparatorLayerAction.INSTANCE,
                 new LayerListPopup.InfoAction(this)
         };
@@ -515,6 +522,10 @@ public class WMSLayer extends ImageryLayer implements PreferenceChangedListener
     }
 
     public void finishRequest(WMSRequest request) {
+        // sharpen and convert the decoded tile here, on the grabber thread, instead of on the EDT
+        if (request.getImage() != null && (request.getState() == State.IMAGE || request.getState() == State.PARTLY_IN_CACHE)) {
+            request.finish(request.getState(), prepareImage(request.getImage()));
+        }
         requestQueueLock.lock();
         try {
             processingRequests.remove(request);
@@ -527,6 +538,39 @@ public class WMSLayer extends ImageryLayer implements PreferenceChangedListener
         }
     }
 
+    /**
+     * Takes the other pending requests of the metatile containing the given request from
+     * the queue. The caller is responsible for finishing them.
+     *
+     * @param request the request being processed
+     * @param metaTileSize the number of cells per side of a metatile
+     * @return the requests of the same metatile and resolution
+     */
+    public List<WMSRequest> takeMetaTileRequests(WMSRequest request, int metaTileSize) {
+        List<WMSRequest> result = new ArrayList<WMSRequest>();
+        int minX = (int) Math.floor((double) request.getXIndex() / metaTileSize) * metaTileSize;
+        int minY = (int) Math.floor((double) request.getYIndex() / metaTileSize) * metaTileSize;
+        requestQueueLock.lock();
+        try {
+            Iterator<WMSRequest> it = requestQueue.iterator();
+            while (it.hasNext()) {
+                WMSRequest item = it.next();
+                if (item.getPixelPerDegree() == request.getPixelPerDegree()
+                        && item.getXIndex() >= minX && item.getXIndex() < minX + metaTileSize
+                        && item.getYIndex() >= minY && item.getYIndex() < minY + metaTileSize
+                        && !item.equals(request) && requestIsValid(item)
+                        && !finishedRequests.contains(item) && !processingRequests.contains(item)) {
+                    it.remove();
+                    processingRequests.add(item);
+                    result.add(item);
+                }
+            }
+        } finally {
+            requestQueueLock.unlock();
+        }
+        return result;
+    }
+
     public void addRequest(WMSRequest request) {
         requestQueueLock.lock();
         try {
@@ -3,20 +3,27 @@ package org.openstreetmap.josm.gui.preferences;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.awt.Font;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.Collection;
 
 import javax.swing.BorderFactory;
+import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.validation.OsmValidator;
 import org.openstreetmap.josm.data.validation.Test;
+import org.openstreetmap.josm.data.validation.TestStatistics;
+import org.openstreetmap.josm.data.validation.ValidationEngine;
+import org.openstreetmap.josm.data.validation.tests.TagChecker;
 import org.openstreetmap.josm.tools.GBC;
 
 /**
@@ -60,10 +67,22 @@ public class ValidatorPreference implements PreferenceSetting {
      */
     public static final String PREF_FILTER_BY_SELECTION = PREFIX + ".selectionFilter";
 
+    /**
+     * The preferences key for live validation of edited primitives
+     */
+    public static final String PREF_LIVE = PREFIX + ".live";
+
+    /**
+     * The preferences key for validating only the surroundings of the changes before upload
+     */
+    public static final String PREF_UPLOAD_NEIGHBOURHOOD = PREFIX + ".uploadNeighbourhood";
+
     private JCheckBox prefUseIgnore;
     private JCheckBox prefUseLayer;
     private JCheckBox prefOtherUpload;
     private JCheckBox prefOther;
+    private JCheckBox prefLive;
+    private JCheckBox prefUploadNeighbourhood;
 
     /** The list of all tests */
     private Collection<Test> allTests;
@@ -90,6 +109,24 @@ public class ValidatorPreference implements PreferenceSetting {
         prefOtherUpload.setToolTipText(tr("Show the informational tests in the upload check windows."));
         testPanel.add(prefOtherUpload, GBC.eol());
 
+        prefLive = new JCheckBox(tr("Validate edited objects automatically."), Main.pref.getBoolean(PREF_LIVE, false));
+        prefLive.setToolTipText(tr("Run the enabled tests on changed objects and their surroundings while editing."));
+        testPanel.add(prefLive, GBC.eol());
+
+        prefUploadNeighbourhood = new JCheckBox(tr("Validate only the surroundings of changed objects on upload."),
+                Main.pref.getBoolean(PREF_UPLOAD_NEIGHBOURHOOD, true));
+        prefUploadNeighbourhood.setToolTipText(tr("Compare the uploaded objects only with the objects close to them, instead of the whole layer."));
+        testPanel.add(prefUploadNeighbourhood, GBC.eol());
+
+        final JButton statistics = new JButton(tr("Test statistics..."));
+        statistics.setToolTipText(tr("Show the time and memory each test used since JOSM was started."));
+        statistics.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                showStatistics(statistics);
+            }
+        });
+        testPanel.add(statistics, GBC.eol());
+
         ActionListener otherUploadEnabled = new ActionListener() {
             public void actionPerformed(ActionEvent e) {
                 prefOtherUpload.setEnabled(prefOther.isSelected());
@@ -117,6 +154,18 @@ public class ValidatorPreference implements PreferenceSetting {
         tab.add(GBC.glue(0,10), a);
     }
 
+    private void showStatistics(JButton parent) {
+        String text = TestStatistics.getReport(ValidationEngine.getTotalStatistics());
+        if (Main.pref.getBoolean(TagChecker.PREF_RULE_STATISTICS, false)) {
+            text += "\n" + TagChecker.getRuleStatistics(false);
+        }
+        JTextArea report = new JTextArea(text, 20, 90);
+        report.setEditable(false);
+        report.setFont(new Font("Monospaced", Font.PLAIN, report.getFont().getSize()));
+        JOptionPane.showMessageDialog(parent, new JScrollPane(report), tr("Validator test statistics"),
+                JOptionPane.INFORMATION_MESSAGE);
+    }
+
     @Override
     public boolean ok() {
         StringBuilder tests = new StringBuilder();
@@ -144,6 +193,8 @@ public class ValidatorPreference implements PreferenceSetting {
         Main.pref.put(PREF_OTHER, prefOther.isSelected());
         Main.pref.put(PREF_OTHER_UPLOAD, prefOtherUpload.isSelected());
         Main.pref.put(PREF_LAYER, prefUseLayer.isSelected());
+        Main.pref.put(PREF_LIVE, prefLive.isSelected());
+        Main.pref.put(PREF_UPLOAD_NEIGHBOURHOOD, prefUploadNeighbourhood.isSelected());
         return false;
     }
 }
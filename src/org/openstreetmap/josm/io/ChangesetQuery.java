@@ -13,6 +13,7 @@ import java.util.Map;
 
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Changeset;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 
 public class ChangesetQuery {
@@ -30,6 +31,9 @@ public class ChangesetQuery {
         return new ChangesetQueryUrlParser().parse(query);
     }
 
+    /** the maximum number of changesets the OSM API replies for a query, the most recently created */
+    public static final int MAX_REPLY_SIZE = 100;
+
     /** the user id this query is restricted to. null, if no restriction to a user id applies */
     private Integer uid = null;
     /** the user name this query is restricted to. null, if no restriction to a user name applies */
@@ -76,7 +80,7 @@ public class ChangesetQuery {
     public ChangesetQuery forUser(String username) {
         CheckParameterUtil.ensureParameterNotNull(username, "username");
         this.userName = username;
-        this.uid = 0;
+        this.uid = null;
         return this;
     }
 
@@ -107,7 +111,7 @@ public class ChangesetQuery {
      * @return true if this query is restricted to user whom know the user id for
      */
     public boolean isRestrictedToFullyIdentifiedUser() {
-        return uid > 0;
+        return uid != null && uid > 0;
     }
 
     /**
@@ -222,6 +226,77 @@ public class ChangesetQuery {
         return this;
     }
 
+    /**
+     * Replies a copy of this query which is restricted to changesets closed after
+     * <code>d</code>, or after the date this query is restricted to, whichever is later.
+     * Used to ask the server only for the changesets which were closed since the query
+     * was sent the last time.
+     *
+     * @param d the date. Must not be null.
+     * @return the restricted copy of this query
+     * @throws IllegalArgumentException thrown if d is null
+     */
+    public ChangesetQuery closedAfterAtLeast(Date d) throws IllegalArgumentException {
+        CheckParameterUtil.ensureParameterNotNull(d, "d");
+        ChangesetQuery query = new ChangesetQuery();
+        query.uid = uid;
+        query.userName = userName;
+        query.bounds = bounds;
+        query.closedAfter = closedAfter == null || closedAfter.before(d) ? d : closedAfter;
+        query.createdBefore = createdBefore;
+        query.open = open;
+        query.closed = closed;
+        return query;
+    }
+
+    /**
+     * Replies true if the changeset <code>cs</code> is one of the changesets the OSM API
+     * replies for this query. Incomplete changesets never match.
+     *
+     * @param cs the changeset. Must not be null.
+     * @return true if the changeset matches this query
+     * @throws IllegalArgumentException thrown if cs is null
+     */
+    public boolean matches(Changeset cs) throws IllegalArgumentException {
+        CheckParameterUtil.ensureParameterNotNull(cs, "cs");
+        if (cs.isIncomplete())
+            return false;
+        if (uid != null && (cs.getUser() == null || cs.getUser().getId() != uid))
+            return false;
+        if (uid == null && userName != null && (cs.getUser() == null || !userName.equals(cs.getUser().getName())))
+            return false;
+        if (bounds != null && (cs.getBounds() == null || !bounds.intersects(cs.getBounds())))
+            return false;
+        if (closedAfter != null && !cs.isOpen() && (cs.getClosedAt() == null || !cs.getClosedAt().after(closedAfter)))
+            return false;
+        if (createdBefore != null && (cs.getCreatedAt() == null || !cs.getCreatedAt().before(createdBefore)))
+            return false;
+        if (open != null)
+            return cs.isOpen() == open;
+        if (closed != null)
+            return cs.isOpen() != closed;
+        return true;
+    }
+
+    /**
+     * Replies true if this query is restricted to changesets which are open.
+     *
+     * @return true if this query is restricted to changesets which are open
+     */
+    public boolean isRestrictedToOpenChangesets() {
+        return (open != null && open) || (closed != null && !closed);
+    }
+
+    /**
+     * Replies the id of the user this query is restricted to, or null if it isn't
+     * restricted to a user id.
+     *
+     * @return the user id
+     */
+    public Integer getUserId() {
+        return uid;
+    }
+
     /**
      * Replies the query string to be used in a query URL for the OSM API.
      *
@@ -357,12 +432,12 @@ public class ChangesetQuery {
             ChangesetQuery csQuery = new ChangesetQuery();
 
             for (String k: queryParams.keySet()) {
-                if (k.equals("uid")) {
+                if (k.equals("uid") || k.equals("user")) {
                     if (queryParams.containsKey("display_name"))
                         throw new ChangesetQueryUrlException(tr("Cannot create a changeset query including both the query parameters ''uid'' and ''display_name''"));
-                    csQuery.forUser(parseUid(queryParams.get("uid")));
+                    csQuery.forUser(parseUid(queryParams.get(k)));
                 } else if (k.equals("display_name")) {
-                    if (queryParams.containsKey("uid"))
+                    if (queryParams.containsKey("uid") || queryParams.containsKey("user"))
                         throw new ChangesetQueryUrlException(tr("Cannot create a changeset query including both the query parameters ''uid'' and ''display_name''"));
                     csQuery.forUser(queryParams.get("display_name"));
                 } else if (k.equals("open")) {
@@ -4,6 +4,7 @@ package org.openstreetmap.josm.io;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Collection;
 import java.util.Collections;
@@ -79,9 +80,28 @@ public class DiffResultProcessor  {
             progressMonitor = NullProgressMonitor.INSTANCE;
         }
         CheckParameterUtil.ensureParameterNotNull(diffUploadResponse, "diffUploadResponse");
+        parse(new InputSource(new StringReader(diffUploadResponse)), progressMonitor);
+    }
+
+    /**
+     * Parses the response from a diff upload to the OSM API while it is read from the server.
+     *
+     * @param diffUploadResponse the response. Must not be null.
+     * @param progressMonitor a progress monitor. Defaults to {@see NullProgressMonitor#INSTANCE} if null
+     * @throws IllegalArgumentException thrown if diffUploadResponse is null
+     * @throws OsmDataParsingException thrown if the response can't be read or parsed successfully
+     */
+    public void parse(InputStream diffUploadResponse, ProgressMonitor progressMonitor) throws OsmDataParsingException {
+        if (progressMonitor == null) {
+            progressMonitor = NullProgressMonitor.INSTANCE;
+        }
+        CheckParameterUtil.ensureParameterNotNull(diffUploadResponse, "diffUploadResponse");
+        parse(new InputSource(diffUploadResponse), progressMonitor);
+    }
+
+    private void parse(InputSource inputSource, ProgressMonitor progressMonitor) throws OsmDataParsingException {
         try {
             progressMonitor.beginTask(tr("Parsing response from server..."));
-            InputSource inputSource = new InputSource(new StringReader(diffUploadResponse));
             SAXParserFactory.newInstance().newSAXParser().parse(inputSource, new Parser());
         } catch(IOException e) {
             throw new OsmDataParsingException(e);
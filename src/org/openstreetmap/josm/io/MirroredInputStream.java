@@ -14,18 +14,34 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.tools.TaskExecutor;
 
 /**
  * Mirrors a file to a local file.
  * <p>
- * The file mirrored is only downloaded if it has been more than 7 days since last download
+ * The file mirrored is only downloaded if it has been more than 7 days since last download.
+ * After that, the server is asked whether the file changed, using the ETag and Last-Modified
+ * headers of the last download, and the file is only downloaded again if it did.
+ * <p>
+ * The local files are named after a hash of their content, so a resource which is available
+ * under several URLs is only stored once in a directory.
  */
 public class MirroredInputStream extends InputStream {
     InputStream fs = null;
@@ -33,6 +49,92 @@ public class MirroredInputStream extends InputStream {
 
     public final static long DEFAULT_MAXTIME = -1l;
 
+    /**
+     * A lock, together with the number of threads holding it or waiting for it.
+     */
+    private static class NamedLock {
+        private int users;
+    }
+
+    /**
+     * The locks by preference key, so that a resource isn't downloaded twice at the same time,
+     * and by local file, so that a file isn't stored and deleted for two resources at the same
+     * time. Locks nobody uses are removed.
+     */
+    private static final Map<String, NamedLock> locks = new HashMap<String, NamedLock>();
+
+    private static NamedLock acquireLock(String name) {
+        synchronized (locks) {
+            NamedLock lock = locks.get(name);
+            if (lock == null) {
+                lock = new NamedLock();
+                locks.put(name, lock);
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    private static void releaseLock(String name, NamedLock lock) {
+        synchronized (locks) {
+            if (--lock.users == 0) {
+                locks.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Brings the local files of remote resources up to date, several at the same time.
+     * Opening the resources afterwards doesn't have to wait for the server. Returns when
+     * all resources are up to date, or at the latest after the connect timeout. Opening a
+     * resource which is still being downloaded waits for the download. Failures are ignored
+     * here, they are reported when the resource is opened.
+     *
+     * @param names the names of the resources, see {@link #MirroredInputStream(String, String, long)}.
+     * Names which aren't http URLs are skipped.
+     */
+    public static void prefetch(Collection<String> names) {
+        if (Main.applet)
+            return;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (String name : names) {
+            final URL url;
+            try {
+                url = new URL(name);
+            } catch (MalformedURLException e) {
+                continue;
+            }
+            if (!url.getProtocol().equals("http") && !url.getProtocol().equals("https")) {
+                continue;
+            }
+            futures.add(Main.networkWorker.submit(new Runnable() {
+                public void run() {
+                    try {
+                        new MirroredInputStream().checkLocal(url, null, DEFAULT_MAXTIME);
+                    } catch (IOException e) {
+                        // reported when the resource is opened
+                    }
+                }
+            }, TaskExecutor.Priority.HIGH));
+        }
+        // a slow server mustn't stall the startup
+        long deadline = System.currentTimeMillis() + Main.pref.getInteger("socket.timeout.connect",15)*1000L;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private MirroredInputStream() {
+    }
+
     public MirroredInputStream(String name) throws IOException {
         this(name, null, DEFAULT_MAXTIME);
     }
@@ -153,14 +255,11 @@ public class MirroredInputStream extends InputStream {
                 String prefKey = getPrefKey(url, destDir);
                 // FIXME: replace with normal getCollection after july 2011
                 Collection<String> localPath = Main.pref.getCollectionOld(prefKey, ";");
-                if(localPath.size() == 2) {
-                    String[] lp = (String[]) localPath.toArray();
-                    File lfile = new File(lp[1]);
-                    if(lfile.exists()) {
-                        lfile.delete();
-                    }
-                }
                 Main.pref.put(prefKey, null);
+                if(localPath.size() >= 2) {
+                    String[] lp = localPath.toArray(new String[localPath.size()]);
+                    deleteIfUnused(new File(lp[1]));
+                }
             }
         } catch (java.net.MalformedURLException e) {}
     }
@@ -184,13 +283,55 @@ public class MirroredInputStream extends InputStream {
         return prefKey.toString().replaceAll("=","_");
     }
 
+    /**
+     * Deletes a local file, unless it is still used for another URL.
+     */
+    private static void deleteIfUnused(File file) {
+        NamedLock lock = acquireLock(file.getPath());
+        try {
+            synchronized (lock) {
+                for (String entry : Main.pref.getAllPrefix("mirror.").values()) {
+                    String[] lp = entry.split("\u001e", -1);
+                    if (lp.length >= 2 && new File(lp[1]).equals(file))
+                        return;
+                }
+                if (file.exists()) {
+                    file.delete();
+                }
+            }
+        } finally {
+            releaseLock(file.getPath(), lock);
+        }
+    }
+
+    private static String getFileExtension(URL url) {
+        String path = url.getPath();
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/') || path.length() - dot > 8)
+            return "";
+        return path.substring(dot).replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
     private File checkLocal(URL url, String destDir, long maxTime) throws IOException {
         String prefKey = getPrefKey(url, destDir);
+        NamedLock lock = acquireLock(prefKey);
+        try {
+            synchronized (lock) {
+                return checkLocal(url, prefKey, destDir, maxTime);
+            }
+        } finally {
+            releaseLock(prefKey, lock);
+        }
+    }
+
+    private File checkLocal(URL url, String prefKey, String destDir, long maxTime) throws IOException {
         long age = 0L;
         File localFile = null;
+        String etag = null;
+        String lastModified = null;
         Collection<String> localPathEntry = Main.pref.getCollection(prefKey);
-        if(localPathEntry.size() == 2) {
-            String[] lp = (String[]) localPathEntry.toArray();
+        if(localPathEntry.size() >= 2) {
+            String[] lp = localPathEntry.toArray(new String[localPathEntry.size()]);
             localFile = new File(lp[1]);
             if(!localFile.exists())
                 localFile = null;
@@ -204,6 +345,10 @@ public class MirroredInputStream extends InputStream {
                 if (age < maxTime*1000) {
                     return localFile;
                 }
+                if (lp.length >= 4) {
+                    etag = lp[2].length() == 0 ? null : lp[2];
+                    lastModified = lp[3].length() == 0 ? null : lp[3];
+                }
             }
         }
         if(destDir == null) {
@@ -216,12 +361,26 @@ public class MirroredInputStream extends InputStream {
         }
 
         String a = url.toString().replaceAll("[^A-Za-z0-9_.-]", "_");
-        String localPath = "mirror_" + a;
-        destDirFile = new File(destDir, localPath + ".tmp");
+        destDirFile = new File(destDir, "mirror_" + a + ".tmp");
         BufferedOutputStream bos = null;
         BufferedInputStream bis = null;
         try {
-            HttpURLConnection con = connectFollowingRedirect(url);
+            HttpURLConnection con = connectFollowingRedirect(url, etag, lastModified);
+            if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && localFile != null) {
+                con.disconnect();
+                Main.pref.putCollection(prefKey, Arrays.asList(new String[]
+                {Long.toString(System.currentTimeMillis()), localFile.toString(),
+                        etag == null ? "" : etag, lastModified == null ? "" : lastModified}));
+                return localFile;
+            }
+            String newEtag = con.getHeaderField("ETag");
+            String newLastModified = con.getHeaderField("Last-Modified");
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.getMessage());
+            }
             bis = new BufferedInputStream(con.getInputStream());
             FileOutputStream fos = new FileOutputStream(destDirFile);
             bos = new BufferedOutputStream(fos);
@@ -229,19 +388,45 @@ public class MirroredInputStream extends InputStream {
             int length;
             while ((length = bis.read(buffer)) > -1) {
                 bos.write(buffer, 0, length);
+                md.update(buffer, 0, length);
             }
             bos.close();
             bos = null;
             /* close fos as well to be sure! */
             fos.close();
             fos = null;
-            localFile = new File(destDir, localPath);
-            if(Main.platform.rename(destDirFile, localFile)) {
-                Main.pref.putCollection(prefKey, Arrays.asList(new String[]
-                {Long.toString(System.currentTimeMillis()), localFile.toString()}));
-            } else {
-                System.out.println(tr("Failed to rename file {0} to {1}.",
-                destDirFile.getPath(), localFile.getPath()));
+            StringBuilder hash = new StringBuilder();
+            for (byte b : md.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+            File oldFile = localFile;
+            localFile = new File(destDir, "mirror_" + hash + getFileExtension(url));
+            boolean stored;
+            // another URL with the same content may be stored or deleted at the same time
+            NamedLock fileLock = acquireLock(localFile.getPath());
+            try {
+                synchronized (fileLock) {
+                    if (localFile.exists()) {
+                        // the same content is already stored for another URL
+                        destDirFile.delete();
+                        stored = true;
+                    } else {
+                        stored = Main.platform.rename(destDirFile, localFile);
+                    }
+                    if(stored) {
+                        Main.pref.putCollection(prefKey, Arrays.asList(new String[]
+                        {Long.toString(System.currentTimeMillis()), localFile.toString(),
+                                newEtag == null ? "" : newEtag, newLastModified == null ? "" : newLastModified}));
+                    } else {
+                        System.out.println(tr("Failed to rename file {0} to {1}.",
+                        destDirFile.getPath(), localFile.getPath()));
+                    }
+                }
+            } finally {
+                releaseLock(localFile.getPath(), fileLock);
+            }
+            if (stored && oldFile != null && !oldFile.equals(localFile)) {
+                deleteIfUnused(oldFile);
             }
         } catch (IOException e) {
             if (age >= maxTime*1000 && age < maxTime*1000*2) {
@@ -281,6 +466,18 @@ public class MirroredInputStream extends InputStream {
      * This can causes problems when downloading from certain GitHub URLs.
      */
     protected HttpURLConnection connectFollowingRedirect(URL downloadUrl) throws MalformedURLException, IOException {
+        return connectFollowingRedirect(downloadUrl, null, null);
+    }
+
+    /**
+     * Opens a connection for downloading a resource, unless it didn't change. The response
+     * code of the connection is "304 Not Modified" if the resource didn't change.
+     *
+     * @param downloadUrl the URL of the resource
+     * @param etag the ETag of the local copy of the resource, may be null
+     * @param lastModified the Last-Modified header of the local copy, may be null
+     */
+    protected HttpURLConnection connectFollowingRedirect(URL downloadUrl, String etag, String lastModified) throws MalformedURLException, IOException {
         HttpURLConnection con = null;
         int numRedirects = 0;
         while(true) {
@@ -288,9 +485,16 @@ public class MirroredInputStream extends InputStream {
             con.setInstanceFollowRedirects(false);
             con.setConnectTimeout(Main.pref.getInteger("socket.timeout.connect",15)*1000);
             con.setReadTimeout(Main.pref.getInteger("socket.timeout.read",30)*1000);
+            if (etag != null) {
+                con.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                con.setRequestProperty("If-Modified-Since", lastModified);
+            }
             con.connect();
             switch(con.getResponseCode()) {
             case HttpURLConnection.HTTP_OK:
+            case HttpURLConnection.HTTP_NOT_MODIFIED:
                 return con;
             case HttpURLConnection.HTTP_MOVED_PERM:
             case HttpURLConnection.HTTP_MOVED_TEMP:
@@ -6,12 +6,22 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.DataSetMerger;
@@ -23,6 +33,7 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
@@ -57,11 +68,18 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
      */
     static private int MAX_IDS_PER_REQUEST = 200;
 
+    /**
+     * the max. number of packages requested from the server at the same time
+     */
+    public static final IntegerProperty PROP_THREADS = new IntegerProperty("osm-server.multi-fetch.threads", 4);
+
     private Set<Long> nodes;
     private Set<Long> ways;
     private Set<Long> relations;
     private Set<PrimitiveId> missingPrimitives;
     private DataSet outputDataSet;
+    /** the fetchers currently requesting a package from the server */
+    private final Set<PackageFetcher> activeFetchers = new HashSet<PackageFetcher>();
 
     /**
      * constructor
@@ -245,6 +263,20 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         return pkg;
     }
 
+    /**
+     * splits a package of ids in two halves.
+     *
+     * @param pkg the package of ids, with at least two ids
+     * @return the two halves
+     */
+    protected List<Set<Long>> splitIdPackage(Set<Long> pkg) {
+        List<Long> ids = new ArrayList<Long>(pkg);
+        List<Set<Long>> halves = new ArrayList<Set<Long>>(2);
+        halves.add(new LinkedHashSet<Long>(ids.subList(0, ids.size() / 2)));
+        halves.add(new LinkedHashSet<Long>(ids.subList(ids.size() / 2, ids.size())));
+        return halves;
+    }
+
     /**
      * builds the Multi Get request string for a set of ids and a given
      * {@see OsmPrimitiveType}.
@@ -284,6 +316,28 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         return sb.toString();
     }
 
+    /**
+     * invokes a Multi Get for a set of ids and a given {@see OsmPrimitiveType} and replies
+     * the retrieved primitives.
+     *
+     * @param reader the reader whose connection is used
+     * @param type the type
+     * @param pkg the package of ids
+     * @return the retrieved primitives, null if the request was canceled
+     * @exception OsmTransferException thrown if an error occurs while communicating with the API server,
+     * in particular an {@see OsmApiException} with return code 404 if one of the ids doesn't exist
+     */
+    protected DataSet readIdPackage(OsmServerReader reader, OsmPrimitiveType type, Set<Long> pkg, ProgressMonitor progressMonitor) throws OsmTransferException {
+        final InputStream in = reader.getInputStream(buildRequestString(type, pkg), progressMonitor);
+        if (in == null)
+            return null;
+        try {
+            return OsmReader.parseDataSet(in, progressMonitor);
+        } catch(Exception e) {
+            throw new OsmTransferException(e);
+        }
+    }
+
     /**
      * invokes a Multi Get for a set of ids and a given {@see OsmPrimitiveType}.
      * The retrieved primitives are merged to {@see #outputDataSet}.
@@ -291,19 +345,15 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
      * @param type the type
      * @param pkg the package of ids
      * @exception OsmTransferException thrown if an error occurs while communicating with the API server
-     *
+     * @deprecated the packages are fetched concurrently by {@see #fetchPrimitives(Set, OsmPrimitiveType, ProgressMonitor)}
      */
+    @Deprecated
     protected void multiGetIdPackage(OsmPrimitiveType type, Set<Long> pkg, ProgressMonitor progressMonitor) throws OsmTransferException {
-        String request = buildRequestString(type, pkg);
-        final InputStream in = getInputStream(request, NullProgressMonitor.INSTANCE);
-        if (in == null) return;
         progressMonitor.subTask(tr("Downloading OSM data..."));
-        try {
-            DataSet loaded = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(pkg.size(), false));
+        DataSet loaded = readIdPackage(this, type, pkg, progressMonitor.createSubTaskMonitor(pkg.size(), false));
+        if (loaded != null) {
             rememberNodesOfIncompleteWaysToLoad(loaded);
             merge(loaded);
-        } catch(Exception e) {
-            throw new OsmTransferException(e);
         }
     }
 
@@ -314,36 +364,29 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
      * @param type the type
      * @param id the id
      * @exception OsmTransferException thrown if an error occurs while communicating with the API server
-     *
+     * @deprecated the packages are fetched concurrently by {@see #fetchPrimitives(Set, OsmPrimitiveType, ProgressMonitor)}
      */
+    @Deprecated
     protected void singleGetId(OsmPrimitiveType type, long id, ProgressMonitor progressMonitor) throws OsmTransferException {
-        String request = buildRequestString(type, id);
-        final InputStream in = getInputStream(request, NullProgressMonitor.INSTANCE);
-        if (in == null)
-            return;
         progressMonitor.subTask(tr("Downloading OSM data..."));
-        try {
-            DataSet loaded = OsmReader.parseDataSet(in, progressMonitor.createSubTaskMonitor(1, false));
+        DataSet loaded = readIdPackage(this, type, Collections.singleton(id), progressMonitor.createSubTaskMonitor(1, false));
+        if (loaded != null) {
             rememberNodesOfIncompleteWaysToLoad(loaded);
             merge(loaded);
-        } catch(Exception e) {
-            throw new OsmTransferException(e);
         }
     }
 
     /**
      * invokes a sequence of Multi Gets for individual ids in a set of ids and a given {@see OsmPrimitiveType}.
-     * The retrieved primitives are merged to {@see #outputDataSet}.
-     *
-     * This method is used if one of the ids in pkg doesn't exist (the server replies with return code 404).
-     * If the set is fetched with this method it is possible to find out which of the ids doesn't exist.
-     * Unfortunatelly, the server does not provide an error header or an error body for a 404 reply.
+     * The retrieved primitives are merged to {@see #outputDataSet}. Ids which don't exist
+     * are added to the missing primitives.
      *
      * @param type the type
      * @param pkg the set of ids
      * @exception OsmTransferException thrown if an error occurs while communicating with the API server
-     *
+     * @deprecated packages with missing ids are split in halves by {@see #fetchPrimitives(Set, OsmPrimitiveType, ProgressMonitor)}
      */
+    @Deprecated
     protected void singleGetIdPackage(OsmPrimitiveType type, Set<Long> pkg, ProgressMonitor progressMonitor) throws OsmTransferException {
         for (long id : pkg) {
             try {
@@ -392,6 +435,11 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
     /**
      * fetches a set of ids of a given {@see OsmPrimitiveType} from the server
      *
+     * Up to {@see #PROP_THREADS} packages are requested concurrently. The retrieved packages are
+     * merged to {@see #outputDataSet} on the calling thread, one after the other. If the server replies
+     * with return code 404 for a package, the package is split in two halves which are fetched again,
+     * until the ids which don't exist are found.
+     *
      * @param ids the set of ids
      * @param type the  type
      * @exception OsmTransferException thrown if an error occurs while communicating with the API server
@@ -405,18 +453,70 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         }
         progressMonitor.setTicksCount(ids.size());
         progressMonitor.setTicks(0);
-        Set<Long> toFetch = new HashSet<Long>(ids);
-        while(! toFetch.isEmpty() && !isCanceled()) {
-            Set<Long> pkg = extractIdPackage(toFetch);
-            progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
-            try {
-                multiGetIdPackage(type, pkg, progressMonitor);
-            } catch(OsmApiException e) {
-                if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
-                    System.out.println(tr("Server replied with response code 404, retrying with an individual request for each object."));
-                    singleGetIdPackage(type, pkg, progressMonitor);
-                } else
-                    throw e;
+        Set<Long> toFetch = new LinkedHashSet<Long>(ids);
+        if (toFetch.isEmpty() || isCanceled())
+            return;
+
+        int packages = (toFetch.size() + MAX_IDS_PER_REQUEST - 1) / MAX_IDS_PER_REQUEST;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(PROP_THREADS.get(), packages)), new ThreadFactory() {
+            private int count;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Multi fetch " + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        CompletionService<PackageFetcher> completionService = new ExecutorCompletionService<PackageFetcher>(executor);
+        int pending = 0;
+        try {
+            while (!toFetch.isEmpty()) {
+                completionService.submit(new PackageFetcher(type, extractIdPackage(toFetch)));
+                pending++;
+            }
+            while (pending > 0 && !isCanceled()) {
+                progressMonitor.subTask(msg + "... " + progressMonitor.getTicks() + "/" + progressMonitor.getTicksCount());
+                PackageFetcher fetcher = completionService.take().get();
+                pending--;
+                if (fetcher.notFound) {
+                    if (fetcher.pkg.size() == 1) {
+                        long id = fetcher.pkg.iterator().next();
+                        System.out.println(tr("Server replied with response code 404 for id {0}. Skipping.", Long.toString(id)));
+                        missingPrimitives.add(new SimplePrimitiveId(id, type));
+                        progressMonitor.worked(1);
+                    } else {
+                        System.out.println(tr("Server replied with response code 404, retrying with two packages of {0} objects.", fetcher.pkg.size() / 2));
+                        for (Set<Long> half : splitIdPackage(fetcher.pkg)) {
+                            completionService.submit(new PackageFetcher(type, half));
+                            pending++;
+                        }
+                    }
+                } else if (fetcher.result != null) {
+                    rememberNodesOfIncompleteWaysToLoad(fetcher.result);
+                    merge(fetcher.result);
+                    progressMonitor.worked(fetcher.pkg.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw new OsmTransferCancelledException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OsmTransferException)
+                throw (OsmTransferException) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new OsmTransferException(cause);
+        } finally {
+            executor.shutdownNow();
+            if (pending > 0) {
+                // an error occurred or the download was canceled, abort the requests which are still running
+                for (PackageFetcher fetcher : getActiveFetchers()) {
+                    fetcher.cancel();
+                }
             }
         }
     }
@@ -443,6 +543,8 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         try {
             missingPrimitives = new HashSet<PrimitiveId>();
             if (isCanceled())return null;
+            // negotiate the protocol version before the packages are requested concurrently
+            OsmApi.getOsmApi().initialize(progressMonitor);
             fetchPrimitives(ways,OsmPrimitiveType.WAY, progressMonitor);
             if (isCanceled())return null;
             fetchPrimitives(nodes,OsmPrimitiveType.NODE, progressMonitor);
@@ -457,6 +559,66 @@ public class MultiFetchServerObjectReader extends OsmServerReader{
         }
     }
 
+    private List<PackageFetcher> getActiveFetchers() {
+        synchronized (activeFetchers) {
+            return new ArrayList<PackageFetcher>(activeFetchers);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        super.cancel();
+        for (PackageFetcher fetcher : getActiveFetchers()) {
+            fetcher.cancel();
+        }
+    }
+
+    /**
+     * Fetches a package of ids with a Multi Get. Each fetcher uses its own connection, so several
+     * packages can be fetched concurrently. The primitives are only parsed here and merged to
+     * {@see #outputDataSet} by {@see #fetchPrimitives(Set, OsmPrimitiveType, ProgressMonitor)}.
+     */
+    private class PackageFetcher extends OsmServerReader implements Callable<PackageFetcher> {
+        private final OsmPrimitiveType type;
+        private final Set<Long> pkg;
+        /** the retrieved primitives, null if the fetcher was canceled or the package wasn't found */
+        private DataSet result;
+        /** true, if the server replied with return code 404 */
+        private boolean notFound;
+
+        public PackageFetcher(OsmPrimitiveType type, Set<Long> pkg) {
+            this.type = type;
+            this.pkg = pkg;
+            setDoAuthenticate(MultiFetchServerObjectReader.this.isDoAuthenticate());
+        }
+
+        @Override
+        public PackageFetcher call() throws OsmTransferException {
+            synchronized (activeFetchers) {
+                activeFetchers.add(this);
+            }
+            try {
+                if (!MultiFetchServerObjectReader.this.isCanceled()) {
+                    result = parseOsm(NullProgressMonitor.INSTANCE);
+                }
+            } catch (OsmApiException e) {
+                if (e.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND)
+                    throw e;
+                notFound = true;
+            } finally {
+                synchronized (activeFetchers) {
+                    activeFetchers.remove(this);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
+            return readIdPackage(this, type, pkg, progressMonitor);
+        }
+    }
+
     /**
      * replies the set of ids of all primitives for which a fetch request to the
      * server was submitted but which are not available from the server (the server
@@ -12,8 +12,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
@@ -126,6 +126,22 @@ public class OsmApi extends OsmConnection {
         }
     }
 
+    /**
+     * Parses the "capabilities" response while it is read.
+     */
+    private final ResponseHandler<Void> capabilitiesResponseHandler = new ResponseHandler<Void>() {
+        public Void handle(InputStream in) throws IOException, OsmTransferException {
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(new InputSource(in), new CapabilitiesParser());
+            } catch (SAXException e) {
+                throw new OsmTransferException(e);
+            } catch (ParserConfigurationException e) {
+                throw new OsmTransferException(e);
+            }
+            return null;
+        }
+    };
+
     /**
      * creates an OSM api for a specific server URL
      *
@@ -160,9 +176,7 @@ public class OsmApi extends OsmConnection {
             return;
         cancel = false;
         try {
-            String s = sendRequest("GET", "capabilities", null, monitor, false, fastFail);
-            InputSource inputSource = new InputSource(new StringReader(s));
-            SAXParserFactory.newInstance().newSAXParser().parse(inputSource, new CapabilitiesParser());
+            sendRequest("GET", "capabilities", null, capabilitiesResponseHandler, monitor, false, fastFail, false);
             if (capabilities.supportsVersion("0.6")) {
                 version = "0.6";
             } else {
@@ -203,15 +217,6 @@ public class OsmApi extends OsmConnection {
                 }
             }
 
-        } catch(IOException e) {
-            initialized = false;
-            throw new OsmApiInitializationException(e);
-        } catch(SAXException e) {
-            initialized = false;
-            throw new OsmApiInitializationException(e);
-        } catch(ParserConfigurationException e) {
-            initialized = false;
-            throw new OsmApiInitializationException(e);
         } catch(OsmTransferCancelledException e){
             throw e;
         } catch(OsmTransferException e) {
@@ -436,7 +441,21 @@ public class OsmApi extends OsmConnection {
      * @return list of processed primitives
      * @throws OsmTransferException if something is wrong
      */
-    public Collection<IPrimitive> uploadDiff(Collection<? extends IPrimitive> list, ProgressMonitor monitor) throws OsmTransferException {
+    public Collection<IPrimitive> uploadDiff(final Collection<? extends IPrimitive> list, final ProgressMonitor monitor) throws OsmTransferException {
+        return uploadDiff(list, null, monitor);
+    }
+
+    /**
+     * Uploads a list of changes in "diff" form to the server.
+     *
+     * @param list the list of changed OSM Primitives
+     * @param osmChange the osmChange document for <code>list</code>, built by {@link #buildOsmChange(Changeset, Collection)}
+     * before the upload, or null to build it while it is sent to the server
+     * @param  monitor the progress monitor
+     * @return list of processed primitives
+     * @throws OsmTransferException if something is wrong
+     */
+    public Collection<IPrimitive> uploadDiff(final Collection<? extends IPrimitive> list, String osmChange, final ProgressMonitor monitor) throws OsmTransferException {
         try {
             monitor.beginTask("", list.size() * 2);
             if (changeset == null)
@@ -444,38 +463,75 @@ public class OsmApi extends OsmConnection {
 
             initialize(monitor);
 
-            // prepare upload request
+            RequestBody diffUploadRequest;
+            if (osmChange != null) {
+                diffUploadRequest = new StringRequestBody(osmChange);
+            } else {
+                // the upload request is written to the server while it is built
+                //
+                final Changeset cs = changeset;
+                diffUploadRequest = new RequestBody() {
+                    public void writeTo(Writer out) throws IOException {
+                        OsmChangeBuilder changeBuilder = new OsmChangeBuilder(cs, null, out);
+                        changeBuilder.start();
+                        changeBuilder.append(list);
+                        changeBuilder.finish();
+                        if (changeBuilder.checkError())
+                            throw new IOException(tr("Failed to send the upload request to the server."));
+                    }
+                };
+            }
+
+            // the response is parsed while it is read from the server
             //
-            OsmChangeBuilder changeBuilder = new OsmChangeBuilder(changeset);
-            monitor.subTask(tr("Preparing upload request..."));
-            changeBuilder.start();
-            changeBuilder.append(list);
-            changeBuilder.finish();
-            String diffUploadRequest = changeBuilder.getDocument();
+            final DiffResultProcessor reader = new DiffResultProcessor(list);
+            ResponseHandler<Void> diffUploadResponse = new ResponseHandler<Void>() {
+                public Void handle(InputStream in) throws OsmTransferException {
+                    try {
+                        reader.parse(in, monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
+                    } catch (OsmDataParsingException e) {
+                        throw new OsmTransferException(e);
+                    }
+                    return null;
+                }
+            };
 
             // Upload to the server
             //
             monitor.indeterminateSubTask(
                     trn("Uploading {0} object...", "Uploading {0} objects...", list.size(), list.size()));
-            String diffUploadResponse = sendRequest("POST", "changeset/" + changeset.getId() + "/upload", diffUploadRequest,monitor);
+            sendRequest("POST", "changeset/" + changeset.getId() + "/upload", diffUploadRequest,
+                    diffUploadResponse, monitor, true, false,
+                    osmChange == null && Main.pref.getBoolean("osm-server.upload-chunked", true));
 
             // Process the response from the server
             //
-            DiffResultProcessor reader = new DiffResultProcessor(list);
-            reader.parse(diffUploadResponse, monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false));
             return reader.postProcess(
                     getChangeset(),
                     monitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)
             );
-        } catch(OsmTransferException e) {
-            throw e;
-        } catch(OsmDataParsingException e) {
-            throw new OsmTransferException(e);
         } finally {
             monitor.finishTask();
         }
     }
 
+    /**
+     * Builds the osmChange document uploaded by {@link #uploadDiff(Collection, String, ProgressMonitor)}.
+     * The document refers to the primitives by their current ids, so the ids of new primitives
+     * it refers to must not change before it is uploaded.
+     *
+     * @param changeset the changeset the changes are uploaded to
+     * @param list the list of changed OSM Primitives
+     * @return the osmChange document
+     */
+    public static String buildOsmChange(Changeset changeset, Collection<? extends IPrimitive> list) {
+        OsmChangeBuilder changeBuilder = new OsmChangeBuilder(changeset);
+        changeBuilder.start();
+        changeBuilder.append(list);
+        changeBuilder.finish();
+        return changeBuilder.getDocument();
+    }
+
     private void sleepAndListen(int retry, ProgressMonitor monitor) throws OsmTransferCancelledException {
         System.out.print(tr("Waiting 10 seconds ... "));
         for(int i=0; i < 10; i++) {
@@ -514,6 +570,68 @@ public class OsmApi extends OsmConnection {
         return sendRequest(requestMethod, urlSuffix, requestBody, monitor, doAuth, false);
     }
 
+    /**
+     * The body of a request, written to the connection when the request is sent. It is
+     * written again if the request is retried.
+     */
+    protected interface RequestBody {
+        /**
+         * Writes the body.
+         * @param out the writer, encoding in UTF-8
+         * @throws IOException if writing fails
+         */
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /**
+     * Reads the body of a response with the code "200 OK" from the connection.
+     */
+    protected interface ResponseHandler<T> {
+        /**
+         * Reads the response.
+         * @param in the body of the response
+         * @return the result of the request
+         * @throws IOException if reading fails
+         * @throws OsmTransferException if the response isn't valid
+         */
+        T handle(InputStream in) throws IOException, OsmTransferException;
+    }
+
+    /**
+     * A request body consisting of a string.
+     */
+    private static class StringRequestBody implements RequestBody {
+        private final String body;
+
+        public StringRequestBody(String body) {
+            this.body = body;
+        }
+
+        public void writeTo(Writer out) throws IOException {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Reads a response into a string, line by line.
+     */
+    private static final ResponseHandler<String> STRING_RESPONSE = new ResponseHandler<String>() {
+        public String handle(InputStream in) throws IOException {
+            return readResponse(in);
+        }
+    };
+
+    private static String readResponse(InputStream i) throws IOException {
+        StringBuilder responseBody = new StringBuilder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(i));
+        String s;
+        while((s = in.readLine()) != null) {
+            responseBody.append(s);
+            responseBody.append("\n");
+        }
+        return responseBody.toString();
+    }
+
     /**
      * Generic method for sending requests to the OSM API.
      *
@@ -534,7 +652,31 @@ public class OsmApi extends OsmConnection {
      *    been exhausted), or rewrapping a Java exception.
      */
     private String sendRequest(String requestMethod, String urlSuffix,String requestBody, ProgressMonitor monitor, boolean doAuthenticate, boolean fastFail) throws OsmTransferException {
-        StringBuffer responseBody = new StringBuffer();
+        return sendRequest(requestMethod, urlSuffix, requestBody == null ? null : new StringRequestBody(requestBody),
+                STRING_RESPONSE, monitor, doAuthenticate, fastFail, false);
+    }
+
+    /**
+     * Sends a request to the OSM API, writing the request body to the connection and
+     * reading the response from it while they are processed.
+     *
+     * @param requestMethod The http method used when talking with the server.
+     * @param urlSuffix The suffix to add at the server url
+     * @param requestBody the body of the HTTP request, if any.
+     * @param responseHandler reads the body of the response if the response code is "200 OK"
+     * @param monitor the progress monitor
+     * @param doAuthenticate  set to true, if the request sent to the server shall include authentication
+     * credentials;
+     * @param fastFail true to request a short timeout
+     * @param chunked true to send the request body in chunks, without buffering it to compute
+     * its length first
+     * @return the result of the response handler
+     * @exception OsmTransferException if the HTTP return code was not 200 (and retries have
+     *    been exhausted), or rewrapping a Java exception.
+     */
+    private <T> T sendRequest(String requestMethod, String urlSuffix, RequestBody requestBody,
+            ResponseHandler<T> responseHandler, ProgressMonitor monitor, boolean doAuthenticate, boolean fastFail,
+            boolean chunked) throws OsmTransferException {
         int retries = getMaxRetries();
 
         while(true) { // the retry loop
@@ -551,6 +693,9 @@ public class OsmApi extends OsmConnection {
                 if (requestMethod.equals("PUT") || requestMethod.equals("POST") || requestMethod.equals("DELETE")) {
                     activeConnection.setDoOutput(true);
                     activeConnection.setRequestProperty("Content-type", "text/xml");
+                    if (chunked && requestBody != null) {
+                        activeConnection.setChunkedStreamingMode(0);
+                    }
                     OutputStream out = activeConnection.getOutputStream();
 
                     // It seems that certain bits of the Ruby API are very unhappy upon
@@ -561,7 +706,7 @@ public class OsmApi extends OsmConnection {
                     // even if there is no payload.
                     if (requestBody != null) {
                         BufferedWriter bwr = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
-                        bwr.write(requestBody);
+                        requestBody.writeTo(bwr);
                         bwr.flush();
                     }
                     out.close();
@@ -579,8 +724,22 @@ public class OsmApi extends OsmConnection {
                     }
                 }
 
-                // populate return fields.
-                responseBody.setLength(0);
+                String errorHeader = null;
+                // Look for a detailed error message from the server
+                if (activeConnection.getHeaderField("Error") != null) {
+                    errorHeader = activeConnection.getHeaderField("Error");
+                    System.err.println("Error header: " + errorHeader);
+                }
+
+                if (retCode == HttpURLConnection.HTTP_OK) {
+                    InputStream in = activeConnection.getInputStream();
+                    try {
+                        return responseHandler.handle(in);
+                    } finally {
+                        in.close();
+                        activeConnection.disconnect();
+                    }
+                }
 
                 // If the API returned an error code like 403 forbidden, getInputStream
                 // will fail with an IOException.
@@ -590,33 +749,22 @@ public class OsmApi extends OsmConnection {
                 } catch (IOException ioe) {
                     i = activeConnection.getErrorStream();
                 }
+                String responseBody = "";
                 if (i != null) {
                     // the input stream can be null if both the input and the error stream
                     // are null. Seems to be the case if the OSM server replies a 401
                     // Unauthorized, see #3887.
                     //
-                    BufferedReader in = new BufferedReader(new InputStreamReader(i));
-                    String s;
-                    while((s = in.readLine()) != null) {
-                        responseBody.append(s);
-                        responseBody.append("\n");
-                    }
+                    responseBody = readResponse(i);
                 }
-                String errorHeader = null;
-                // Look for a detailed error message from the server
-                if (activeConnection.getHeaderField("Error") != null) {
-                    errorHeader = activeConnection.getHeaderField("Error");
-                    System.err.println("Error header: " + errorHeader);
-                } else if (retCode != 200 && responseBody.length()>0) {
+                if (errorHeader == null && responseBody.length()>0) {
                     System.err.println("Error body: " + responseBody);
                 }
                 activeConnection.disconnect();
 
                 errorHeader = errorHeader == null? null : errorHeader.trim();
-                String errorBody = responseBody.length() == 0? null : responseBody.toString().trim();
+                String errorBody = responseBody.length() == 0? null : responseBody.trim();
                 switch(retCode) {
-                case HttpURLConnection.HTTP_OK:
-                    return responseBody.toString();
                 case HttpURLConnection.HTTP_GONE:
                     throw new OsmApiPrimitiveGoneException(errorHeader, errorBody);
                 case HttpURLConnection.HTTP_CONFLICT:
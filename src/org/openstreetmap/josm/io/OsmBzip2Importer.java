@@ -7,10 +7,10 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.tools.bzip2.CBZip2InputStream;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
-import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 public class OsmBzip2Importer extends OsmImporter {
 
@@ -20,7 +20,7 @@ public class OsmBzip2Importer extends OsmImporter {
     }
 
     @Override
-    public void importData(File file, ProgressMonitor progressMonitor) throws IOException, IllegalDataException {
+    protected InputStream openStream(File file) throws IOException {
         BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
         int b = bis.read();
         if (b != 'B')
@@ -28,7 +28,6 @@ public class OsmBzip2Importer extends OsmImporter {
         b = bis.read();
         if (b != 'Z')
             throw new IOException(tr("Invalid bz2 file."));
-        CBZip2InputStream in = new CBZip2InputStream(bis);
-        importData(in, file);
+        return new CBZip2InputStream(bis);
     }
 }
@@ -5,6 +5,7 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Collection;
 
 import org.openstreetmap.josm.data.osm.Changeset;
@@ -31,8 +32,25 @@ public class OsmChangeBuilder {
     }
 
     public OsmChangeBuilder(Changeset changeset, String apiVersion) {
+        this(changeset, apiVersion, null);
+    }
+
+    /**
+     * Creates a builder which writes the document to <code>out</code> while it is built,
+     * instead of keeping it in memory.
+     *
+     * @param changeset the changeset. May be null.
+     * @param apiVersion the API version. Uses {@link #DEFAULT_API_VERSION} if null.
+     * @param out the writer the document is written to. If null, the document is kept in memory
+     * and available from {@link #getDocument()}.
+     */
+    public OsmChangeBuilder(Changeset changeset, String apiVersion, Writer out) {
         this.apiVersion = apiVersion == null ? DEFAULT_API_VERSION : apiVersion;
-        writer = new PrintWriter(swriter = new StringWriter());
+        if (out == null) {
+            writer = new PrintWriter(swriter = new StringWriter());
+        } else {
+            writer = out instanceof PrintWriter ? (PrintWriter) out : new PrintWriter(out);
+        }
         osmwriter = new OsmWriter(writer, false, apiVersion);
         osmwriter.setChangeset(changeset);
     }
@@ -126,9 +144,29 @@ public class OsmChangeBuilder {
             writer.println(">");
         }
         writer.println("</osmChange>");
+        writer.flush();
     }
 
-    public String getDocument() {
+    /**
+     * Replies the document built so far.
+     *
+     * @return the document
+     * @throws IllegalStateException thrown if the document is written to a writer given
+     * to the constructor
+     */
+    public String getDocument() throws IllegalStateException {
+        if (swriter == null)
+            throw new IllegalStateException(tr("OsmChange document is not kept in memory."));
         return swriter.toString();
     }
+
+    /**
+     * Replies true if writing the document to the writer given to the constructor failed.
+     * The writer doesn't throw exceptions itself.
+     *
+     * @return true if an error occurred
+     */
+    public boolean checkError() {
+        return writer.checkError();
+    }
 }
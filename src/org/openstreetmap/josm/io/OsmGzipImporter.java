@@ -6,10 +6,10 @@ import static org.openstreetmap.josm.tools.I18n.tr;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
 
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
-import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 
 public class OsmGzipImporter extends OsmImporter {
 
@@ -18,8 +18,7 @@ public class OsmGzipImporter extends OsmImporter {
     }
 
     @Override
-    public void importData(File file, ProgressMonitor progressMonitor) throws IOException, IllegalDataException {
-        GZIPInputStream in = new GZIPInputStream(new FileInputStream(file));
-        importData(in, file);
+    protected InputStream openStream(File file) throws IOException {
+        return new GZIPInputStream(new FileInputStream(file));
     }
 }
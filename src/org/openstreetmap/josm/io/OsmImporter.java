@@ -29,15 +29,43 @@ public class OsmImporter extends FileImporter {
     }
 
     @Override public void importData(File file, ProgressMonitor progressMonitor) throws IOException, IllegalDataException {
+        importData(openStream(file), file);
+    }
+
+    /**
+     * Opens the stream of OSM data in a file.
+     *
+     * @param file the file
+     * @return the stream of the uncompressed data
+     * @throws IOException if the file can't be read
+     */
+    protected InputStream openStream(File file) throws IOException {
         try {
-            FileInputStream in = new FileInputStream(file);
-            importData(in, file);
+            return new FileInputStream(file);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
             throw new IOException(tr("File ''{0}'' does not exist.", file.getName()));
         }
     }
 
+    /**
+     * Reads the data of a file without adding a layer for it.
+     *
+     * @param file the file
+     * @param progressMonitor the progress monitor. May be null.
+     * @return the data set read
+     * @throws IOException if the file can't be read
+     * @throws IllegalDataException if the file doesn't contain valid OSM data
+     */
+    public DataSet parseDataSet(File file, ProgressMonitor progressMonitor) throws IOException, IllegalDataException {
+        InputStream in = openStream(file);
+        try {
+            return OsmReader.parseDataSet(in, progressMonitor);
+        } finally {
+            in.close();
+        }
+    }
+
     protected void importData(InputStream in, File associatedFile) throws IllegalDataException {
         DataSet dataSet = OsmReader.parseDataSet(in, NullProgressMonitor.INSTANCE);
         final OsmDataLayer layer = new OsmDataLayer(dataSet, associatedFile.getName(), associatedFile);
@@ -54,15 +54,39 @@ public class OsmServerHistoryReader extends OsmServerReader {
      * @throws OsmTransferException thrown, if an exception occurs
      */
     public HistoryDataSet parseHistory(ProgressMonitor progressMonitor) throws OsmTransferException {
+        return parse(primitiveType.getAPIName() + "/" + id + "/history", progressMonitor);
+    }
+
+    /**
+     * Fetches the current version of the primitive from the OSM API. Fails with an
+     * {@see OsmApiException} with status 410 if the primitive is deleted.
+     *
+     * @return the data set with the current version
+     * @throws OsmTransferException thrown, if an exception occurs
+     */
+    public HistoryDataSet parseLatestVersion(ProgressMonitor progressMonitor) throws OsmTransferException {
+        return parse(primitiveType.getAPIName() + "/" + id, progressMonitor);
+    }
+
+    /**
+     * Fetches one version of the primitive from the OSM API
+     *
+     * @param version the version. > 0 required.
+     * @return the data set with the version
+     * @throws OsmTransferException thrown, if an exception occurs
+     */
+    public HistoryDataSet parseVersion(long version, ProgressMonitor progressMonitor) throws OsmTransferException {
+        if (version <= 0)
+            throw new IllegalArgumentException(MessageFormat.format("Parameter ''{0}'' > 0 expected. Got ''{1}''.", "version", version));
+        return parse(primitiveType.getAPIName() + "/" + id + "/" + version, progressMonitor);
+    }
+
+    protected HistoryDataSet parse(String urlStr, ProgressMonitor progressMonitor) throws OsmTransferException {
         InputStream in = null;
         progressMonitor.beginTask("");
         try {
             progressMonitor.indeterminateSubTask(tr("Contacting OSM Server..."));
-            StringBuffer sb = new StringBuffer();
-            sb.append(primitiveType.getAPIName())
-            .append("/").append(id).append("/history");
-
-            in = getInputStream(sb.toString(), progressMonitor.createSubTaskMonitor(1, true));
+            in = getInputStream(urlStr, progressMonitor.createSubTaskMonitor(1, true));
             if (in == null)
                 return null;
             progressMonitor.indeterminateSubTask(tr("Downloading history..."));
@@ -7,13 +7,25 @@ import static org.openstreetmap.josm.tools.I18n.trn;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.osm.Changeset;
 import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.io.UploadStrategySpecification;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
@@ -127,6 +139,11 @@ public class OsmServerWriter {
     /**
      * Upload all changes in one diff upload
      *
+     * If the preference <code>osm-server.upload-pipelined</code> is true (the default), the
+     * osmChange document of the next chunk is built while the current chunk is uploaded,
+     * unless the next chunk refers to new primitives of the current chunk. Their ids are
+     * only known when the server has replied.
+     *
      * @param primitives the collection of primitives to upload
      * @param progressMonitor  the progress monitor
      * @param chunkSize the size of the individual upload chunks. > 0 required.
@@ -136,35 +153,115 @@ public class OsmServerWriter {
     protected void uploadChangesInChunks(Collection<? extends IPrimitive> primitives, ProgressMonitor progressMonitor, int chunkSize) throws OsmTransferException, IllegalArgumentException {
         if (chunkSize <=0)
             throw new IllegalArgumentException(tr("Value >0 expected for parameter ''{0}'', got {1}", "chunkSize", chunkSize));
+        ExecutorService serializer = null;
         try {
             progressMonitor.beginTask(tr("Starting to upload in chunks..."));
-            List<IPrimitive> chunk = new ArrayList<IPrimitive>(chunkSize);
-            Iterator<? extends IPrimitive> it = primitives.iterator();
-            int numChunks = (int)Math.ceil((double)primitives.size() / (double)chunkSize);
-            int i= 0;
-            while(it.hasNext()) {
-                i++;
+            List<List<IPrimitive>> chunks = new ArrayList<List<IPrimitive>>();
+            List<IPrimitive> chunk = null;
+            for (IPrimitive osm : primitives) {
+                if (chunk == null || chunk.size() == chunkSize) {
+                    chunk = new ArrayList<IPrimitive>(chunkSize);
+                    chunks.add(chunk);
+                }
+                chunk.add(osm);
+            }
+            if (chunks.size() > 1 && Main.pref.getBoolean("osm-server.upload-pipelined", true)) {
+                serializer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Upload serializer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            Future<String> nextOsmChange = null;
+            for (int i = 0; i < chunks.size(); i++) {
                 if (canceled) return;
-                int j = 0;
-                chunk.clear();
-                while(it.hasNext() && j < chunkSize) {
-                    if (canceled) return;
-                    j++;
-                    chunk.add(it.next());
+                chunk = chunks.get(i);
+                String osmChange = getOsmChange(nextOsmChange);
+                nextOsmChange = null;
+                if (serializer != null && i + 1 < chunks.size() && !refersToNewPrimitives(chunks.get(i + 1), chunk)) {
+                    final Changeset changeset = api.getChangeset();
+                    final List<IPrimitive> nextChunk = chunks.get(i + 1);
+                    nextOsmChange = serializer.submit(new Callable<String>() {
+                        public String call() {
+                            return OsmApi.buildOsmChange(changeset, nextChunk);
+                        }
+                    });
                 }
                 progressMonitor.setCustomText(
                         trn("({0}/{1}) Uploading {2} object...",
                                 "({0}/{1}) Uploading {2} objects...",
-                                chunk.size(), i, numChunks, chunk.size()));
-                processed.addAll(api.uploadDiff(chunk, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)));
+                                chunk.size(), i + 1, chunks.size(), chunk.size()));
+                processed.addAll(api.uploadDiff(chunk, osmChange, progressMonitor.createSubTaskMonitor(ProgressMonitor.ALL_TICKS, false)));
             }
         } catch(OsmTransferException e) {
             throw e;
         } finally {
+            if (serializer != null) {
+                serializer.shutdownNow();
+            }
             progressMonitor.finishTask();
         }
     }
 
+    /**
+     * Replies the osmChange document built in the background.
+     *
+     * @param osmChange the future of the document. May be null.
+     * @return the document, or null if it has to be built while it is uploaded
+     * @throws OsmTransferCancelledException thrown if the thread is interrupted while waiting
+     */
+    private String getOsmChange(Future<String> osmChange) throws OsmTransferCancelledException {
+        if (osmChange == null)
+            return null;
+        try {
+            return osmChange.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OsmTransferCancelledException();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Replies true if a chunk refers to one of the new primitives of another chunk.
+     *
+     * @param chunk the chunk
+     * @param other the other chunk
+     * @return true if <code>chunk</code> refers to a new primitive in <code>other</code>
+     */
+    protected boolean refersToNewPrimitives(Collection<IPrimitive> chunk, Collection<IPrimitive> other) {
+        Set<IPrimitive> newPrimitives = new HashSet<IPrimitive>();
+        for (IPrimitive osm : other) {
+            if (osm.isNew()) {
+                newPrimitives.add(osm);
+            }
+        }
+        if (newPrimitives.isEmpty())
+            return false;
+        for (IPrimitive osm : chunk) {
+            if (osm.isDeleted()) {
+                // only the id is uploaded
+                continue;
+            } else if (osm instanceof Way) {
+                for (Node n : ((Way) osm).getNodes()) {
+                    if (newPrimitives.contains(n))
+                        return true;
+                }
+            } else if (osm instanceof Relation) {
+                for (RelationMember m : ((Relation) osm).getMembers()) {
+                    if (newPrimitives.contains(m.getMember()))
+                        return true;
+                }
+            } else if (!(osm instanceof Node))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Send the dataset to the server.
      *
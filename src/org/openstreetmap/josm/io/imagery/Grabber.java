@@ -1,6 +1,9 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.io.imagery;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.ProjectionBounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
@@ -47,6 +50,20 @@ abstract public class Grabber implements Runnable {
 
     abstract void fetch(WMSRequest request, int attempt) throws Exception; // the image fetch code
 
+    /**
+     * Fetches the images of several cells of one metatile with a single request.
+     * Only called if {@link #getMetaTileSize()} is larger than 1.
+     */
+    abstract void fetchMetaTile(List<WMSRequest> requests, int attempt) throws Exception;
+
+    /**
+     * Replies the number of cells per side of the metatiles this grabber fetches, 1 if
+     * each cell is fetched on its own.
+     */
+    protected int getMetaTileSize() {
+        return 1;
+    }
+
     int width(){
         return layer.getBaseImageWidth();
     }
@@ -64,7 +81,17 @@ abstract public class Grabber implements Runnable {
                 return;
             updateState(request);
             if(!loadFromCache(request)){
-                attempt(request);
+                List<WMSRequest> metaTile = collectMetaTile(request);
+                if (metaTile.size() > 1) {
+                    attemptMetaTile(metaTile);
+                    for (WMSRequest r : metaTile) {
+                        if (r != request) {
+                            layer.finishRequest(r);
+                        }
+                    }
+                } else {
+                    attempt(request);
+                }
             }
             layer.finishRequest(request);
         }
@@ -93,6 +120,58 @@ abstract public class Grabber implements Runnable {
         }
     }
 
+    /**
+     * Takes the pending requests of the metatile containing the given request from the
+     * queue. Requests which can be answered from the cache are finished right away.
+     * @return the requests to fetch, including the given one
+     */
+    private List<WMSRequest> collectMetaTile(WMSRequest request) {
+        List<WMSRequest> result = new ArrayList<WMSRequest>();
+        result.add(request);
+        int metaTileSize = getMetaTileSize();
+        if (metaTileSize > 1) {
+            for (WMSRequest r : layer.takeMetaTileRequests(request, metaTileSize)) {
+                updateState(r);
+                if (loadFromCache(r)) {
+                    layer.finishRequest(r);
+                } else {
+                    result.add(r);
+                }
+            }
+            updateState(request);
+        }
+        return result;
+    }
+
+    protected void attemptMetaTile(List<WMSRequest> requests) {
+        int maxTries = 5;
+        for (int i = 1; i <= maxTries; i++) {
+            if (canceled)
+                return;
+            try {
+                boolean valid = false;
+                for (WMSRequest r : requests) {
+                    valid |= layer.requestIsValid(r);
+                }
+                if (!valid)
+                    return;
+                fetchMetaTile(requests, i);
+                break;
+            } catch (Exception e) {
+                try {
+                    Thread.sleep(random(1000, 2000));
+                } catch (InterruptedException e1) {}
+
+                if(i == maxTries) {
+                    e.printStackTrace();
+                    for (WMSRequest r : requests) {
+                        r.finish(State.FAILED, null);
+                    }
+                }
+            }
+        }
+    }
+
     public static int random(int min, int max) {
         return (int)(Math.random() * ((max+1)-min) ) + min;
     }
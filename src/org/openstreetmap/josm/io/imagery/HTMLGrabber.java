@@ -25,6 +25,11 @@ public class HTMLGrabber extends WMSGrabber {
         super(mv, layer);
     }
 
+    @Override
+    protected int getMetaTileSize() {
+        return 1;
+    }
+
     @Override
     protected BufferedImage grab(URL url, int attempt) throws IOException {
         String urlstring = url.toExternalForm();
@@ -0,0 +1,240 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Fetches imagery over HTTP for the TMS and WMS layers.
+ *
+ * <ul>
+ *   <li>Identical requests issued at the same time, e.g. by two layers showing the same
+ *   source, are sent to the server only once and all callers get the same response.</li>
+ *   <li>Response bodies are always read completely, so the underlying connection can be
+ *   kept alive and reused for the next request to the same server.</li>
+ *   <li>An ETag or modification time of a cached copy can be passed to make a conditional
+ *   request, which is answered with <code>304 Not Modified</code> if the copy is still valid.</li>
+ *   <li>Failed connections and temporary server errors (5xx, 429) are retried with
+ *   exponential backoff.</li>
+ * </ul>
+ */
+public class ImageryFetchService {
+    public static final IntegerProperty PROP_MAX_ATTEMPTS = new IntegerProperty("imagery.fetch.maxAttempts", 3);
+    public static final IntegerProperty PROP_BACKOFF = new IntegerProperty("imagery.fetch.backoff", 500);
+
+    private static ImageryFetchService instance;
+
+    public static synchronized ImageryFetchService getInstance() {
+        if (instance == null) {
+            instance = new ImageryFetchService();
+        }
+        return instance;
+    }
+
+    /**
+     * The response to a fetch. The content is shared between all callers of coalesced
+     * requests and must not be modified.
+     */
+    public static class Response {
+        private final URL url;
+        private final int responseCode;
+        private final byte[] content;
+        private final Map<String, String> headers;
+
+        Response(URL url, int responseCode, byte[] content, Map<String, String> headers) {
+            this.url = url;
+            this.responseCode = responseCode;
+            this.content = content;
+            this.headers = headers;
+        }
+
+        public URL getURL() {
+            return url;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        public boolean isOk() {
+            return responseCode == HttpURLConnection.HTTP_OK;
+        }
+
+        public boolean isNotModified() {
+            return responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * Replies the response body. For error responses this is the error message of the server.
+         */
+        public byte[] getContent() {
+            return content;
+        }
+
+        /**
+         * Replies the value of a header field, the name is case insensitive.
+         */
+        public String getHeaderField(String name) {
+            return headers.get(name);
+        }
+
+        public String getContentType() {
+            return getHeaderField("Content-Type");
+        }
+
+        public String getETag() {
+            return getHeaderField("ETag");
+        }
+    }
+
+    private final ConcurrentMap<String, FutureTask<Response>> inFlight = new ConcurrentHashMap<String, FutureTask<Response>>();
+
+    /**
+     * Fetches the given URL, retrying up to {@link #PROP_MAX_ATTEMPTS} times.
+     * @see #fetch(URL, Map, String, long, int)
+     */
+    public Response fetch(URL url, Map<String, String> headers) throws IOException {
+        return fetch(url, headers, null, 0, PROP_MAX_ATTEMPTS.get());
+    }
+
+    /**
+     * Fetches the given URL. If an identical request is already being processed, waits
+     * for its response instead of sending a new request.
+     *
+     * @param url the URL
+     * @param headers the request headers, may be null
+     * @param etag the ETag of a cached copy to send in an <code>If-None-Match</code> header, or null
+     * @param ifModifiedSince the modification time of a cached copy, or 0
+     * @param maxAttempts the number of attempts for failed connections and temporary server errors
+     * @return the response. Error responses are returned, not thrown.
+     * @throws IOException if the server could not be reached in any attempt
+     */
+    public Response fetch(final URL url, final Map<String, String> headers, final String etag, final long ifModifiedSince,
+            final int maxAttempts) throws IOException {
+        String key = getKey(url, headers, etag, ifModifiedSince);
+        FutureTask<Response> task = new FutureTask<Response>(new Callable<Response>() {
+            @Override
+            public Response call() throws IOException {
+                return fetchWithRetry(url, headers, etag, ifModifiedSince, maxAttempts);
+            }
+        });
+        FutureTask<Response> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else
+                throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Replies the key of a request. Header names are case insensitive, so requests which
+     * only differ in the case of their header names have the same key.
+     */
+    static String getKey(URL url, Map<String, String> headers, String etag, long ifModifiedSince) {
+        Map<String, String> normalized = new TreeMap<String, String>();
+        if (headers != null) {
+            for (Entry<String, String> e : headers.entrySet()) {
+                normalized.put(e.getKey().toLowerCase(Locale.ENGLISH), e.getValue());
+            }
+        }
+        return url.toExternalForm() + '\n' + normalized + '\n' + etag + '\n' + ifModifiedSince;
+    }
+
+    private static boolean isTemporaryError(int responseCode) {
+        return responseCode >= 500 || responseCode == 429;
+    }
+
+    protected Response fetchWithRetry(URL url, Map<String, String> headers, String etag, long ifModifiedSince,
+            int maxAttempts) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Response response = fetchOnce(url, headers, etag, ifModifiedSince);
+                if (!isTemporaryError(response.getResponseCode()) || attempt >= maxAttempts)
+                    return response;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts)
+                    throw e;
+            }
+            try {
+                Thread.sleep((long) PROP_BACKOFF.get() * (1 << (attempt - 1)) + Grabber.random(0, PROP_BACKOFF.get()));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException(e.getMessage());
+            }
+        }
+    }
+
+    protected Response fetchOnce(URL url, Map<String, String> headers, String etag, long ifModifiedSince) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        if (headers != null) {
+            for (Entry<String, String> e : headers.entrySet()) {
+                conn.setRequestProperty(e.getKey(), e.getValue());
+            }
+        }
+        if (etag != null) {
+            conn.setRequestProperty("If-None-Match", etag);
+        }
+        if (ifModifiedSince > 0) {
+            conn.setIfModifiedSince(ifModifiedSince);
+        }
+        conn.setConnectTimeout(Main.pref.getInteger("socket.timeout.connect",15) * 1000);
+        conn.setReadTimeout(Main.pref.getInteger("socket.timeout.read", 30) * 1000);
+
+        int code = conn.getResponseCode();
+        Map<String, String> responseHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Entry<String, List<String>> e : conn.getHeaderFields().entrySet()) {
+            if (e.getKey() != null && !e.getValue().isEmpty()) {
+                responseHeaders.put(e.getKey(), e.getValue().get(0));
+            }
+        }
+        // read the body completely in any case, otherwise the connection can't be kept alive
+        InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        byte[] content = new byte[0];
+        if (in != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                Utils.copyStream(in, out);
+            } finally {
+                in.close();
+            }
+            content = out.toByteArray();
+        }
+        return new Response(url, code, content, Collections.unmodifiableMap(responseHeaders));
+    }
+}
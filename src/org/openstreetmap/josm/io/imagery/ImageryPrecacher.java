@@ -0,0 +1,381 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
+import org.openstreetmap.gui.jmapviewer.OsmTileLoader;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Version;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.imagery.ImageryInfo;
+import org.openstreetmap.josm.data.imagery.WmsCache;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.data.projection.Projection;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.OsmTransferException;
+import org.openstreetmap.josm.io.imagery.ImageryFetchService.Response;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
+
+/**
+ * Downloads all imagery tiles covering a list of areas for a range of zoom levels into the
+ * disk caches used by the TMS and WMS layers, so the imagery can be used without network
+ * connection later on.
+ *
+ * Tiles already in the cache are skipped, so an interrupted run is resumed by simply
+ * starting it again.
+ */
+public class ImageryPrecacher {
+    public static final IntegerProperty PROP_SIMULTANEOUS_CONNECTIONS = new IntegerProperty("imagery.precache.simultaneousConnections", 3);
+    public static final IntegerProperty PROP_MAX_ATTEMPTS = new IntegerProperty("imagery.precache.maxAttempts", 3);
+
+    /** Size of the WMS cache tiles in pixel, see WMSLayer.imageSize */
+    private static final int WMS_TILE_SIZE = 500;
+
+    private final List<Bounds> areas;
+    private final int minZoom;
+    private final int maxZoom;
+
+    /* TMS */
+    private TileSource tileSource;
+    private String tileCacheDir;
+
+    /* WMS */
+    private String wmsBaseUrl;
+    private boolean wmsUrlWithPatterns;
+    private Map<String, String> wmsHeaders;
+    private WmsCache wmsCache;
+
+    private volatile boolean canceled;
+    private int downloaded;
+    private int skipped;
+    private int failed;
+
+    private ImageryPrecacher(Collection<Bounds> areas, int minZoom, int maxZoom) {
+        CheckParameterUtil.ensureParameterNotNull(areas, "areas");
+        if (minZoom > maxZoom)
+            throw new IllegalArgumentException(tr("Parameter ''{0}'' must not be greater than ''{1}''.", "minZoom", "maxZoom"));
+        this.areas = new ArrayList<Bounds>(areas);
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+    }
+
+    /**
+     * Creates a precacher which stores the tiles of a TMS source in the file cache
+     * of {@link OsmFileCacheTileLoader}.
+     *
+     * @param source the tile source
+     * @param cacheDir the base directory of the tile cache, see TMSLayer.PROP_TILECACHE_DIR
+     * @param areas the areas to download
+     * @param minZoom the lowest zoom level to download
+     * @param maxZoom the highest zoom level to download
+     */
+    public ImageryPrecacher(TileSource source, File cacheDir, Collection<Bounds> areas, int minZoom, int maxZoom) {
+        this(areas, minZoom, maxZoom);
+        CheckParameterUtil.ensureParameterNotNull(source, "source");
+        CheckParameterUtil.ensureParameterNotNull(cacheDir, "cacheDir");
+        this.tileSource = source;
+        this.tileCacheDir = cacheDir.getAbsolutePath();
+    }
+
+    /**
+     * Creates a precacher which stores the tiles of a WMS server in a {@link WmsCache}.
+     * The zoom levels are translated to the resolution TMS tiles would have at
+     * this zoom level in the current projection.
+     *
+     * @param info the imagery entry of the WMS server
+     * @param cache the cache to fill
+     * @param areas the areas to download
+     * @param minZoom the lowest zoom level to download
+     * @param maxZoom the highest zoom level to download
+     */
+    public ImageryPrecacher(ImageryInfo info, WmsCache cache, Collection<Bounds> areas, int minZoom, int maxZoom) {
+        this(areas, minZoom, maxZoom);
+        CheckParameterUtil.ensureParameterNotNull(info, "info");
+        CheckParameterUtil.ensureParameterNotNull(cache, "cache");
+        this.wmsHeaders = new HashMap<String, String>();
+        this.wmsBaseUrl = WMSGrabber.extractHeaders(info, wmsHeaders);
+        this.wmsUrlWithPatterns = ImageryInfo.isUrlWithPatterns(wmsBaseUrl);
+        this.wmsCache = cache;
+    }
+
+    /**
+     * A single tile to download.
+     */
+    private abstract static class PrecacheJob {
+        abstract boolean isCached();
+        abstract void download() throws IOException, OsmTransferException;
+    }
+
+    private class TmsJob extends PrecacheJob {
+        private final int zoom;
+        private final int x;
+        private final int y;
+
+        public TmsJob(int zoom, int x, int y) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        private File getFile() {
+            return OsmFileCacheTileLoader.getTileFile(tileCacheDir, tileSource, zoom, x, y);
+        }
+
+        @Override
+        boolean isCached() {
+            return getFile().length() > 0;
+        }
+
+        @Override
+        void download() throws IOException {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("User-Agent", OsmTileLoader.USER_AGENT != null ? OsmTileLoader.USER_AGENT : Version.getInstance().getAgentString());
+            headers.put("Accept", OsmTileLoader.ACCEPT);
+            URL url = new URL(tileSource.getTileUrl(zoom, x, y));
+            Response response = ImageryFetchService.getInstance().fetch(url, headers, null, 0, 1);
+            if (!response.isOk() || response.getContent().length == 0)
+                throw new IOException(tr("Server returned {0} for tile {1}", response.getResponseCode(), url));
+            File file = getFile();
+            file.getParentFile().mkdirs();
+            // write to a temporary file first, so an interrupted download doesn't leave a broken tile behind
+            File tmp = new File(file.getPath() + ".part");
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(response.getContent());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException(tr("Failed to store tile {0}", url));
+            }
+        }
+    }
+
+    private class WmsJob extends PrecacheJob {
+        private final Projection projection;
+        private final double pixelPerDegree;
+        private final double east;
+        private final double north;
+
+        public WmsJob(Projection projection, double pixelPerDegree, int xIndex, int yIndex) {
+            this.projection = projection;
+            this.pixelPerDegree = pixelPerDegree;
+            this.east = (xIndex * WMS_TILE_SIZE) / pixelPerDegree;
+            this.north = (yIndex * WMS_TILE_SIZE) / pixelPerDegree;
+        }
+
+        @Override
+        boolean isCached() {
+            return wmsCache.hasExactMatch(projection, pixelPerDegree, east, north);
+        }
+
+        @Override
+        void download() throws IOException, OsmTransferException {
+            double size = WMS_TILE_SIZE / pixelPerDegree;
+            URL url = WMSGrabber.getURL(wmsBaseUrl, wmsUrlWithPatterns, east, north, east + size, north + size,
+                    WMS_TILE_SIZE, WMS_TILE_SIZE);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            WMSGrabber.download(url, wmsHeaders, baos);
+            wmsCache.saveToCache(null, new ByteArrayInputStream(baos.toByteArray()), projection, pixelPerDegree, east, north);
+        }
+    }
+
+    /**
+     * Replies the resolution of a TMS tile of the given zoom level in the current projection.
+     */
+    public static double getPixelPerDegree(int zoom) {
+        Projection proj = Main.getProjection();
+        Bounds world = proj.getWorldBoundsLatLon();
+        double worldWidth = proj.latlon2eastNorth(world.getMax()).east() - proj.latlon2eastNorth(world.getMin()).east();
+        return 256.0 * (1 << zoom) / worldWidth;
+    }
+
+    /**
+     * Computes the tiles covering the areas. Tiles covered by more than one area are only
+     * contained once.
+     */
+    protected List<PrecacheJob> computeJobs() {
+        Map<String, PrecacheJob> jobs = new LinkedHashMap<String, PrecacheJob>();
+        if (tileSource != null) {
+            int minZ = Math.max(minZoom, tileSource.getMinZoom());
+            int maxZ = Math.min(maxZoom, tileSource.getMaxZoom());
+            for (int z = minZ; z <= maxZ; z++) {
+                int max = (1 << z) - 1;
+                for (Bounds b : areas) {
+                    int minX = clamp((int) Math.floor(tileSource.lonToTileX(b.getMin().lon(), z)), max);
+                    int maxX = clamp((int) Math.floor(tileSource.lonToTileX(b.getMax().lon(), z)), max);
+                    int minY = clamp((int) Math.floor(tileSource.latToTileY(b.getMax().lat(), z)), max);
+                    int maxY = clamp((int) Math.floor(tileSource.latToTileY(b.getMin().lat(), z)), max);
+                    for (int x = minX; x <= maxX; x++) {
+                        for (int y = minY; y <= maxY; y++) {
+                            jobs.put(z + "/" + x + "/" + y, new TmsJob(z, x, y));
+                        }
+                    }
+                }
+            }
+        } else {
+            Projection proj = Main.getProjection();
+            for (int z = minZoom; z <= maxZoom; z++) {
+                double ppd = getPixelPerDegree(z);
+                for (Bounds b : areas) {
+                    EastNorth min = proj.latlon2eastNorth(b.getMin());
+                    EastNorth max = proj.latlon2eastNorth(b.getMax());
+                    int minX = (int) Math.floor(min.east() * ppd / WMS_TILE_SIZE);
+                    int maxX = (int) Math.floor(max.east() * ppd / WMS_TILE_SIZE);
+                    int minY = (int) Math.floor(min.north() * ppd / WMS_TILE_SIZE);
+                    int maxY = (int) Math.floor(max.north() * ppd / WMS_TILE_SIZE);
+                    for (int x = minX; x <= maxX; x++) {
+                        for (int y = minY; y <= maxY; y++) {
+                            jobs.put(z + "/" + x + "/" + y, new WmsJob(proj, ppd, x, y));
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<PrecacheJob>(jobs.values());
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    /**
+     * Replies the number of tiles covering the areas, including tiles which are
+     * already cached.
+     */
+    public int getTileCount() {
+        return computeJobs().size();
+    }
+
+    private boolean runJob(PrecacheJob job) {
+        int maxAttempts = Math.max(1, PROP_MAX_ATTEMPTS.get());
+        for (int attempt = 1; ; attempt++) {
+            if (canceled)
+                return false;
+            try {
+                job.download();
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    System.err.println(tr("Failed to download tile: {0}", e.getMessage()));
+                    return false;
+                }
+                try {
+                    // back off before asking the server again
+                    Thread.sleep(attempt * Grabber.random(1000, 2000));
+                } catch (InterruptedException e1) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads all tiles which are not cached yet.
+     *
+     * @param monitor the progress monitor. {@link NullProgressMonitor#INSTANCE} assumed if null.
+     */
+    public void precache(ProgressMonitor monitor) {
+        if (monitor == null) {
+            monitor = NullProgressMonitor.INSTANCE;
+        }
+        List<PrecacheJob> jobs = computeJobs();
+        downloaded = 0;
+        skipped = 0;
+        failed = 0;
+        monitor.beginTask(tr("Downloading imagery tiles"), jobs.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, PROP_SIMULTANEOUS_CONNECTIONS.get()));
+        try {
+            CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+            int submitted = 0;
+            for (PrecacheJob job : jobs) {
+                if (job.isCached()) {
+                    skipped++;
+                    monitor.worked(1);
+                    continue;
+                }
+                final PrecacheJob j = job;
+                completion.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return runJob(j);
+                    }
+                });
+                submitted++;
+            }
+            for (int i = 0; i < submitted; i++) {
+                if (monitor.isCancelled()) {
+                    canceled = true;
+                    break;
+                }
+                monitor.setCustomText(tr("Downloaded {0} of {1} tiles", downloaded + failed, submitted));
+                Future<Boolean> result = completion.take();
+                if (result.get()) {
+                    downloaded++;
+                } else {
+                    failed++;
+                }
+                monitor.worked(1);
+            }
+        } catch (InterruptedException e) {
+            canceled = true;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (wmsCache != null) {
+                wmsCache.saveIndex();
+            }
+            monitor.finishTask();
+        }
+    }
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /** Replies the number of tiles downloaded by the last run */
+    public int getDownloadedCount() {
+        return downloaded;
+    }
+
+    /** Replies the number of tiles the last run found in the cache */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /** Replies the number of tiles which couldn't be downloaded in the last run */
+    public int getFailedCount() {
+        return failed;
+    }
+}
@@ -0,0 +1,111 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.josm.io.imagery.ImageryFetchService.Response;
+
+/**
+ * A file cache tile loader which downloads tiles through the {@link ImageryFetchService},
+ * so that several layers showing the same source share their requests.
+ *
+ * The update checks of the tile source are done with conditional requests instead of
+ * separate <code>HEAD</code> requests.
+ */
+public class TMSFileCacheTileLoader extends OsmFileCacheTileLoader {
+
+    public TMSFileCacheTileLoader(TileLoaderListener map, File cacheDir) throws IOException {
+        super(map, cacheDir);
+    }
+
+    @Override
+    public Runnable createTileLoaderJob(TileSource source, int tilex, int tiley, int zoom) {
+        return new FetchServiceLoadJob(source, tilex, tiley, zoom);
+    }
+
+    protected Map<String, String> getRequestHeaders() {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (USER_AGENT != null) {
+            headers.put("User-Agent", USER_AGENT);
+        }
+        headers.put("Accept", ACCEPT);
+        return headers;
+    }
+
+    protected class FetchServiceLoadJob extends FileLoadJob {
+
+        public FetchServiceLoadJob(TileSource source, int tilex, int tiley, int zoom) {
+            super(source, tilex, tiley, zoom);
+        }
+
+        @Override
+        protected void loadOrUpdateTile() {
+            try {
+                String etag = null;
+                long ifModifiedSince = 0;
+                if (tileFile != null) {
+                    switch (source.getTileUpdate()) {
+                    case IfNoneMatch:
+                    case ETag:
+                        etag = tile.getValue("etag");
+                        break;
+                    case IfModifiedSince:
+                    case LastModified:
+                        ifModifiedSince = fileAge;
+                        break;
+                    }
+                }
+                Response response = ImageryFetchService.getInstance().fetch(new URL(tile.getUrl()),
+                        getRequestHeaders(), etag, ifModifiedSince, ImageryFetchService.PROP_MAX_ATTEMPTS.get());
+                if (response.isNotModified() && tileFile != null) {
+                    tile.setLoaded(true);
+                    tileFile.setLastModified(System.currentTimeMillis() - maxCacheFileAge + recheckAfter);
+                    return;
+                }
+                if (!response.isOk())
+                    throw new IOException(tr("Server returned HTTP response code {0} for URL {1}",
+                            response.getResponseCode(), response.getURL()));
+
+                if (response.getETag() != null) {
+                    tile.putValue("etag", response.getETag());
+                }
+                String str = response.getHeaderField("X-VE-TILEMETA-CaptureDatesRange");
+                if (str != null) {
+                    tile.putValue("capture-date", str);
+                }
+                str = response.getHeaderField("X-VE-Tile-Info");
+                if (str != null) {
+                    tile.putValue("tile-info", str);
+                }
+                saveTagsToFile();
+
+                if ("no-tile".equals(tile.getValue("tile-info"))) {
+                    tile.setError("No tile at this zoom level");
+                    listener.tileLoadingFinished(tile, true);
+                } else if (response.getContent().length > 0) {
+                    tile.loadImage(new ByteArrayInputStream(response.getContent()));
+                    tile.setLoaded(true);
+                    listener.tileLoadingFinished(tile, true);
+                    saveTileToFile(response.getContent());
+                }
+            } catch (Exception e) {
+                tile.setError(e.getMessage());
+                listener.tileLoadingFinished(tile, false);
+                System.err.println("failed loading " + zoom + "/" + tilex + "/" + tiley + " " + e.getMessage());
+            } finally {
+                tile.setLoading(false);
+                tile.setLoaded(true);
+            }
+        }
+    }
+}
@@ -3,23 +3,21 @@ package org.openstreetmap.josm.io.imagery;
 
 import static org.openstreetmap.josm.tools.I18n.tr;
 
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Locale;
 import java.util.Map;
 import java.util.HashMap;
@@ -37,10 +35,10 @@ import org.openstreetmap.josm.data.imagery.GeorefImage.State;
 import org.openstreetmap.josm.data.imagery.ImageryInfo;
 import org.openstreetmap.josm.data.projection.Mercator;
 import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.ImageryLayer;
 import org.openstreetmap.josm.gui.layer.WMSLayer;
+import org.openstreetmap.josm.io.imagery.ImageryFetchService.Response;
 import org.openstreetmap.josm.io.OsmTransferException;
-import org.openstreetmap.josm.io.ProgressInputStream;
-import org.openstreetmap.josm.tools.Utils;
 
 
 public class WMSGrabber extends Grabber {
@@ -52,23 +50,33 @@ public class WMSGrabber extends Grabber {
 
     public WMSGrabber(MapView mv, WMSLayer layer) {
         super(mv, layer);
-        this.baseURL = layer.getInfo().getUrl();
         this.serverProjections = layer.getServerProjections();
+        this.baseURL = extractHeaders(layer.getInfo(), props);
         /* URL containing placeholders? */
         urlWithPatterns = ImageryInfo.isUrlWithPatterns(baseURL);
-        if(layer.getInfo().getCookies() != null && !layer.getInfo().getCookies().equals("")) {
-            props.put("Cookie", layer.getInfo().getCookies());
+    }
+
+    /**
+     * Collects the HTTP request headers to use for the given imagery entry, including
+     * headers given in the URL by <code>{header(name,value)}</code> patterns.
+     * @param info the imagery entry
+     * @param props the map to put the headers into
+     * @return the base URL with the header patterns removed
+     */
+    public static String extractHeaders(ImageryInfo info, Map<String, String> props) {
+        if(info.getCookies() != null && !info.getCookies().equals("")) {
+            props.put("Cookie", info.getCookies());
         }
         props.put("User-Agent", Main.pref.get("imagery.wms.user_agent", Version.getInstance().getAgentString()));
         Pattern pattern = Pattern.compile("\\{header\\(([^,]+),([^}]+)\\)\\}");
         StringBuffer output = new StringBuffer();
-        Matcher matcher = pattern.matcher(this.baseURL);
+        Matcher matcher = pattern.matcher(info.getUrl());
         while (matcher.find()) {
             props.put(matcher.group(1),matcher.group(2));
             matcher.appendReplacement(output, "");
         }
         matcher.appendTail(output);
-        this.baseURL = output.toString();
+        return output.toString();
     }
 
     @Override
@@ -87,11 +95,66 @@ public class WMSGrabber extends Grabber {
         }
     }
 
+    @Override
+    protected int getMetaTileSize() {
+        // with overlapping the cells don't line up, so they can't be cut out of a larger image
+        return layer.isOverlapEnabled() ? 1 : Math.max(1, WMSLayer.PROP_METATILE_SIZE.get());
+    }
+
+    @Override
+    void fetchMetaTile(List<WMSRequest> requests, int attempt) throws Exception {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (WMSRequest r : requests) {
+            minX = Math.min(minX, r.getXIndex());
+            minY = Math.min(minY, r.getYIndex());
+            maxX = Math.max(maxX, r.getXIndex());
+            maxY = Math.max(maxY, r.getYIndex());
+        }
+        int size = layer.getImageSize();
+        int width = (maxX - minX + 1) * size;
+        int height = (maxY - minY + 1) * size;
+        EastNorth min = layer.getEastNorth(minX, minY);
+        EastNorth max = layer.getEastNorth(maxX + 1, maxY + 1);
+        URL url = null;
+        try {
+            url = getURL(min.east(), min.north(), max.east(), max.north(), width, height);
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(download(url, attempt)));
+            if (img == null || img.getWidth() != width || img.getHeight() != height)
+                throw new IOException(tr("Server returned an image of unexpected size"));
+            for (WMSRequest r : requests) {
+                // image rows go from north to south, the cell indices from south to north
+                BufferedImage tile = ImageryLayer.createCompatibleImage(size, size, img.getTransparency());
+                int x = (r.getXIndex() - minX) * size;
+                int y = (maxY - r.getYIndex()) * size;
+                Graphics2D g = tile.createGraphics();
+                g.drawImage(img, 0, 0, size, size, x, y, x + size, y + size, null);
+                g.dispose();
+                EastNorth en = layer.getEastNorth(r.getXIndex(), r.getYIndex());
+                layer.cache.saveToCache(tile, null, Main.getProjection(), pixelPerDegree, en.east(), en.north());
+                r.finish(State.IMAGE, tile);
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+            throw new Exception(e.getMessage() + "\nImage couldn't be fetched: " + (url != null ? url.toString() : ""));
+        }
+    }
+
     public static final NumberFormat latLonFormat = new DecimalFormat("###0.0000000",
             new DecimalFormatSymbols(Locale.US));
 
     protected URL getURL(double w, double s,double e,double n,
             int wi, int ht) throws MalformedURLException {
+        return getURL(baseURL, urlWithPatterns, w, s, e, n, wi, ht);
+    }
+
+    /**
+     * Builds the GetMap URL for the given bounds in the current projection.
+     * @param baseURL the base URL, with header patterns already removed
+     * @param urlWithPatterns true if the base URL contains placeholders
+     */
+    public static URL getURL(String baseURL, boolean urlWithPatterns, double w, double s,double e,double n,
+            int wi, int ht) throws MalformedURLException {
         String myProj = Main.getProjection().toCode();
         String srs = "";
         boolean useepsg = false;
@@ -227,39 +290,40 @@ public class WMSGrabber extends Grabber {
     }
 
     protected BufferedImage grab(URL url, int attempt) throws IOException, OsmTransferException {
-        System.out.println("Grabbing WMS " + (attempt > 1? "(attempt " + attempt + ") ":"") + url);
-
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        for(Entry<String, String> e : props.entrySet()) {
-            conn.setRequestProperty(e.getKey(), e.getValue());
-        }
-        conn.setConnectTimeout(Main.pref.getInteger("socket.timeout.connect",15) * 1000);
-        conn.setReadTimeout(Main.pref.getInteger("socket.timeout.read", 30) * 1000);
-
-        String contentType = conn.getHeaderField("Content-Type");
-        if( conn.getResponseCode() != 200
-                || contentType != null && !contentType.startsWith("image") )
-            throw new IOException(readException(conn));
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        InputStream is = new ProgressInputStream(conn, null);
-        try {
-            Utils.copyStream(is, baos);
-        } finally {
-            is.close();
-        }
-
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        ByteArrayInputStream bais = new ByteArrayInputStream(download(url, attempt));
         BufferedImage img = layer.normalizeImage(ImageIO.read(bais));
         bais.reset();
         layer.cache.saveToCache(layer.isOverlapEnabled()?img:null, bais, Main.getProjection(), pixelPerDegree, b.minEast, b.minNorth);
         return img;
     }
 
-    protected String readException(URLConnection conn) throws IOException {
+    private byte[] download(URL url, int attempt) throws IOException {
+        System.out.println("Grabbing WMS " + (attempt > 1? "(attempt " + attempt + ") ":"") + url);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        download(url, props, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Downloads an image from the given URL.
+     * @param url the URL
+     * @param props the HTTP request headers
+     * @param out the stream to write the image data to
+     * @throws IOException if the server doesn't answer with an image
+     */
+    public static void download(URL url, Map<String, String> props, OutputStream out) throws IOException {
+        // retries are done by Grabber.attempt()
+        Response response = ImageryFetchService.getInstance().fetch(url, props, null, 0, 1);
+        String contentType = response.getContentType();
+        if (!response.isOk() || contentType != null && !contentType.startsWith("image"))
+            throw new IOException(readException(response));
+        out.write(response.getContent());
+    }
+
+    protected static String readException(Response response) throws IOException {
         StringBuilder exception = new StringBuilder();
-        InputStream in = conn.getInputStream();
-        BufferedReader br = new BufferedReader(new InputStreamReader(in));
+        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(response.getContent())));
         try {
             String line = null;
             while( (line = br.readLine()) != null) {
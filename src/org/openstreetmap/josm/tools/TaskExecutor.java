@@ -0,0 +1,174 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openstreetmap.josm.gui.progress.ProgressMonitor.CancelListener;
+
+/**
+ * An executor with a pool of worker threads which runs the waiting tasks by priority.
+ * Tasks with the same priority are started in the order they were submitted, but several
+ * tasks may run at the same time. Tasks which have to run one after the other, like a
+ * download and the processing of the downloaded data, are submitted to
+ * {@link org.openstreetmap.josm.Main#worker} instead.
+ * <p>
+ * Cancelling the {@link Future} of a task which is a {@link CancelListener}, like a
+ * {@link org.openstreetmap.josm.gui.PleaseWaitRunnable}, notifies the task, so it can
+ * abort the running operation.
+ */
+public class TaskExecutor extends ThreadPoolExecutor {
+
+    /**
+     * The priority of a task.
+     */
+    public enum Priority {
+        /** the user is waiting for the result */
+        HIGH,
+        NORMAL,
+        /** background work, like precaching */
+        LOW
+    }
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * A task with a priority. Tasks are ordered by priority and then by the order they
+     * were submitted in.
+     */
+    private static class PrioritizedTask<T> extends FutureTask<T> implements Comparable<PrioritizedTask<?>> {
+        private final Object task;
+        private final Priority priority;
+        private final long number = sequence.getAndIncrement();
+        /** true, if nobody gets the result, so an exception of the task has to be reported */
+        private boolean reportException;
+
+        public PrioritizedTask(Runnable task, T result, Priority priority) {
+            super(task, result);
+            this.task = task;
+            this.priority = priority;
+        }
+
+        public PrioritizedTask(Callable<T> task, Priority priority) {
+            super(task);
+            this.task = task;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && task instanceof CancelListener) {
+                ((CancelListener) task).operationCanceled();
+            }
+            return cancelled;
+        }
+
+        public int compareTo(PrioritizedTask<?> other) {
+            int c = priority.compareTo(other.priority);
+            if (c != 0)
+                return c;
+            return number < other.number ? -1 : (number == other.number ? 0 : 1);
+        }
+    }
+
+    /**
+     * Constructs a new {@code TaskExecutor}. The threads are daemon threads and terminate
+     * when they have been idle for a minute.
+     *
+     * @param name the name of the threads
+     * @param threads the max. number of tasks running at the same time
+     */
+    public TaskExecutor(final String name, int threads) {
+        super(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name + " " + (count++));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits a task with the given priority.
+     *
+     * @param task the task
+     * @param priority the priority
+     * @return the future of the task
+     */
+    public Future<?> submit(Runnable task, Priority priority) {
+        CheckParameterUtil.ensureParameterNotNull(task, "task");
+        PrioritizedTask<Object> future = new PrioritizedTask<Object>(task, null, priority);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * Submits a task with the given priority.
+     *
+     * @param task the task
+     * @param priority the priority
+     * @return the future of the task
+     */
+    public <T> Future<T> submit(Callable<T> task, Priority priority) {
+        CheckParameterUtil.ensureParameterNotNull(task, "task");
+        PrioritizedTask<T> future = new PrioritizedTask<T>(task, priority);
+        execute(future);
+        return future;
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PrioritizedTask<T>(runnable, value, Priority.NORMAL);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PrioritizedTask<T>(callable, Priority.NORMAL);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        // the queue can only order prioritized tasks
+        if (command instanceof PrioritizedTask<?>) {
+            super.execute(command);
+        } else {
+            PrioritizedTask<Object> task = new PrioritizedTask<Object>(command, null, Priority.NORMAL);
+            task.reportException = true;
+            super.execute(task);
+        }
+    }
+
+    /**
+     * Passes the exception of a task started by {@link #execute(Runnable)} to the uncaught
+     * exception handler, as a plain executor does. The future of the task swallows it
+     * otherwise, as nobody asks it for the result.
+     */
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (!(r instanceof PrioritizedTask<?>))
+            return;
+        PrioritizedTask<?> task = (PrioritizedTask<?>) r;
+        if (!task.reportException || task.isCancelled())
+            return;
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
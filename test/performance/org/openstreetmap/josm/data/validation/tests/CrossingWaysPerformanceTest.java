@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.geom.Point2D;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.data.validation.OsmValidator;
+import org.openstreetmap.josm.data.validation.util.SegmentGrid;
+import org.openstreetmap.josm.data.validation.util.ValUtil;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+public class CrossingWaysPerformanceTest {
+
+    private static DataSet dsCity;
+    /** The end nodes of all way segments of the city */
+    private static List<Node[]> segments;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Main.setProjection(new Mercator());
+        OsmValidator.griddetail = 0.01;
+        Main.pref = new Preferences();
+        dsCity = OsmReader.parseDataSet(new FileInputStream("data_nodist/neubrandenburg.osm"), NullProgressMonitor.INSTANCE);
+        segments = new ArrayList<Node[]>();
+        for (Way w : dsCity.getWays()) {
+            for (int i = 0; i < w.getNodesCount() - 1; i++) {
+                segments.add(new Node[] {w.getNode(i), w.getNode(i + 1)});
+            }
+        }
+
+        // Warm up
+        test(5, dsCity);
+        assertEquals(findCandidatesCellMap(), findCandidatesSegmentGrid());
+    }
+
+    private static void test(int iterations, DataSet ds) {
+        for (int i=0; i<iterations; i++) {
+            CrossingWays test = new CrossingWays();
+            test.startTest(NullProgressMonitor.INSTANCE);
+            test.visit(ds.allPrimitives());
+            test.endTest();
+        }
+    }
+
+    /**
+     * Finds the pairs of segments sharing a cell like CrossingWays did before the
+     * {@link SegmentGrid}, with a map of cells and lists of segments.
+     * @return the number of distinct candidate pairs
+     */
+    private static int findCandidatesCellMap() {
+        Map<Point2D, List<Integer>> cellSegments = new HashMap<Point2D, List<Integer>>(1000);
+        int pairs = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Node[] s = segments.get(i);
+            List<List<Integer>> cells = new ArrayList<List<Integer>>();
+            for (Point2D cell : ValUtil.getSegmentCells(s[0], s[1], OsmValidator.griddetail)) {
+                List<Integer> list = cellSegments.get(cell);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    cellSegments.put(cell, list);
+                }
+                cells.add(list);
+            }
+            // the segments sharing several cells are visited once per cell
+            Set<Integer> seen = new HashSet<Integer>();
+            for (List<Integer> list : cells) {
+                seen.addAll(list);
+                list.add(i);
+            }
+            pairs += seen.size();
+        }
+        return pairs;
+    }
+
+    /**
+     * Finds the pairs of segments sharing a cell with a {@link SegmentGrid}.
+     * @return the number of distinct candidate pairs
+     */
+    private static int findCandidatesSegmentGrid() {
+        SegmentGrid grid = new SegmentGrid(OsmValidator.griddetail);
+        int pairs = 0;
+        for (Node[] s : segments) {
+            pairs += grid.add(s[0].getEastNorth().east(), s[0].getEastNorth().north(),
+                    s[1].getEastNorth().east(), s[1].getEastNorth().north());
+        }
+        return pairs;
+    }
+
+    @Test
+    public void testCity() {
+        test(50, dsCity);
+    }
+
+    @Test
+    public void testCandidatesCellMap() {
+        for (int i = 0; i < 50; i++) {
+            findCandidatesCellMap();
+        }
+    }
+
+    @Test
+    public void testCandidatesSegmentGrid() {
+        for (int i = 0; i < 50; i++) {
+            findCandidatesSegmentGrid();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.actions.downloadtasks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSource;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class DownloadOsmTaskListTest {
+
+    private HttpServer server;
+
+    @BeforeClass
+    public static void init() {
+        Main.setProjection(new Mercator());
+    }
+
+    /**
+     * Starts a server which replies one node for each bounding box. The first boxes are
+     * answered last, so the downloads finish in the reverse order of the boxes.
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/capabilities", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange, "<osm version=\"0.6\"><api><version minimum=\"0.6\" maximum=\"0.6\"/></api></osm>");
+            }
+        });
+        server.createContext("/api/0.6/map", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String bbox = exchange.getRequestURI().getQuery().substring("bbox=".length());
+                String[] c = bbox.split(",");
+                int index = (int) Math.round(Double.parseDouble(c[0]));
+                try {
+                    Thread.sleep((2 - index) * 200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                reply(exchange, "<osm version=\"0.6\" generator=\"test\">"
+                        + "<bounds minlat=\"" + c[1] + "\" minlon=\"" + c[0] + "\" maxlat=\"" + c[3] + "\" maxlon=\"" + c[2] + "\"/>"
+                        + "<node id=\"" + (index + 1) + "\" version=\"1\" lat=\"0.25\" lon=\"" + (index + 0.25) + "\"/>"
+                        + "</osm>");
+            }
+        });
+        server.start();
+        Main.pref = new Preferences();
+        Main.pref.put("osm-server.url", "http://localhost:" + server.getAddress().getPort() + "/api");
+        Main.pref.putInteger(DownloadOsmTaskList.PROP_SIMULTANEOUS_DOWNLOADS.getKey(), 3);
+    }
+
+    private static void reply(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testMergeInOrderOfBounds() throws Exception {
+        final List<DataSet> merged = new ArrayList<DataSet>();
+        DownloadOsmTaskList taskList = new DownloadOsmTaskList() {
+            @Override
+            protected void mergeDownloadedData(DataSet data) {
+                merged.add(data);
+            }
+        };
+        List<Rectangle2D> rects = new ArrayList<Rectangle2D>();
+        for (int i = 0; i < 3; i++) {
+            rects.add(new Rectangle2D.Double(i, 0, 0.5, 0.5));
+        }
+        taskList.download(false, rects, NullProgressMonitor.INSTANCE).get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, merged.size());
+        DataSet data = merged.get(0);
+        assertEquals(3, data.getNodes().size());
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(data.getPrimitiveById(i + 1, OsmPrimitiveType.NODE));
+        }
+        List<Bounds> sources = new ArrayList<Bounds>();
+        for (DataSource source : data.dataSources) {
+            sources.add(source.bounds);
+        }
+        List<Bounds> expected = new ArrayList<Bounds>();
+        for (Rectangle2D r : rects) {
+            expected.add(new Bounds(r));
+        }
+        assertEquals(expected, sources);
+        assertEquals(3, taskList.getDownloadedPrimitives().size());
+    }
+}
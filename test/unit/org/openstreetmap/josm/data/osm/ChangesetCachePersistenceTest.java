@@ -0,0 +1,220 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.io.ChangesetQuery;
+
+public class ChangesetCachePersistenceTest {
+
+    private File file;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("changesets", "");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+        Main.pref.put("osm-server.url", null);
+        Main.pref.put(ChangesetCache.PROP_MAX_ENTRIES.getKey(), null);
+    }
+
+    private static Changeset changeset(int id, int uid, long created, Long closed) {
+        Changeset cs = new Changeset(id);
+        cs.setIncomplete(false);
+        cs.setUser(User.createOsmUser(uid, "user" + uid));
+        cs.setCreatedAt(new Date(created));
+        cs.setOpen(closed == null);
+        if (closed != null) {
+            cs.setClosedAt(new Date(closed));
+        }
+        return cs;
+    }
+
+    private static ChangesetQuery queryForUser(int uid) {
+        return new ChangesetQuery().forUser(uid).beingClosed(true);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ChangesetCache cache = new ChangesetCache();
+        Changeset cs1 = changeset(1, 10, 1000, 2000L);
+        cs1.setMin(new LatLon(1.5, 2.5));
+        cs1.setMax(new LatLon(3.5, 4.5));
+        cs1.put("comment", "\u00e4\u00f6\u00fc");
+        Changeset cs2 = changeset(2, 11, 3000, null);
+        Changeset cs3 = new Changeset(3);
+        cs3.setIncomplete(true);
+        cache.update(Arrays.asList(cs1, cs2, cs3));
+        cache.rememberQueryResult(queryForUser(10), Arrays.asList(cs1));
+        cache.save(file);
+
+        ChangesetCache loaded = new ChangesetCache();
+        loaded.load(file);
+
+        assertEquals(3, loaded.size());
+        Changeset c = loaded.get(1);
+        assertEquals(10, c.getUser().getId());
+        assertEquals("user10", c.getUser().getName());
+        assertEquals(new Date(1000), c.getCreatedAt());
+        assertEquals(new Date(2000), c.getClosedAt());
+        assertFalse(c.isOpen());
+        assertEquals(new LatLon(1.5, 2.5), c.getMin());
+        assertEquals(new LatLon(3.5, 4.5), c.getMax());
+        assertEquals("\u00e4\u00f6\u00fc", c.get("comment"));
+
+        c = loaded.get(2);
+        assertTrue(c.isOpen());
+        assertNull(c.getClosedAt());
+        assertNull(c.getMin());
+        assertTrue(loaded.get(3).isIncomplete());
+
+        assertEquals(new Date(2000), loaded.getLastClosedAt(queryForUser(10)));
+        assertNull(loaded.getLastClosedAt(queryForUser(11)));
+    }
+
+    @Test
+    public void testKeepsChangesetsOfThisSession() throws IOException {
+        ChangesetCache cache = new ChangesetCache();
+        cache.update(changeset(1, 10, 1000, 2000L));
+        cache.save(file);
+
+        ChangesetCache loaded = new ChangesetCache();
+        Changeset current = changeset(1, 10, 1000, null);
+        loaded.update(current);
+        loaded.load(file);
+        assertTrue(loaded.get(1).isOpen());
+    }
+
+    @Test
+    public void testInvalidMagic() throws IOException {
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+        out.writeInt(0x12345678);
+        out.writeUTF("http://api.openstreetmap.org/api");
+        out.writeInt(0);
+        out.close();
+
+        ChangesetCache cache = new ChangesetCache();
+        cache.load(file);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNotCompressed() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+
+        ChangesetCache cache = new ChangesetCache();
+        cache.load(file);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOtherServer() throws IOException {
+        Main.pref.put("osm-server.url", "http://localhost/api");
+        ChangesetCache cache = new ChangesetCache();
+        cache.update(changeset(1, 10, 1000, 2000L));
+        cache.rememberQueryResult(queryForUser(10), Arrays.asList(cache.get(1)));
+        cache.save(file);
+
+        Main.pref.put("osm-server.url", "http://localhost/other/api");
+        ChangesetCache loaded = new ChangesetCache();
+        loaded.load(file);
+        assertEquals(0, loaded.size());
+        assertNull(loaded.getLastClosedAt(queryForUser(10)));
+
+        Main.pref.put("osm-server.url", "http://localhost/api");
+        loaded = new ChangesetCache();
+        loaded.load(file);
+        assertEquals(1, loaded.size());
+        assertNotNull(loaded.getLastClosedAt(queryForUser(10)));
+    }
+
+    @Test
+    public void testEvictionOrder() throws IOException {
+        ChangesetCache cache = new ChangesetCache();
+        Changeset noDate = changeset(1, 10, 0, 500L);
+        noDate.setCreatedAt(null);
+        cache.update(Arrays.asList(noDate, changeset(2, 10, 4000, 4500L), changeset(3, 11, 1000, 1500L),
+                changeset(4, 12, 3000, 3500L), changeset(5, 12, 2000, 2500L)));
+        cache.rememberQueryResult(queryForUser(11), Arrays.asList(cache.get(3)));
+        cache.rememberQueryResult(queryForUser(12), Arrays.asList(cache.get(4), cache.get(5)));
+        cache.save(file);
+
+        // the changesets without a creation date go first, then the ones created first
+        Main.pref.putInteger(ChangesetCache.PROP_MAX_ENTRIES.getKey(), 2);
+        ChangesetCache loaded = new ChangesetCache();
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        assertNotNull(loaded.get(2));
+        assertNotNull(loaded.get(4));
+
+        // only the query whose result lost a changeset is sent in full again
+        assertNull(loaded.getLastClosedAt(queryForUser(11)));
+        assertNull(loaded.getLastClosedAt(queryForUser(12)));
+
+        Main.pref.putInteger(ChangesetCache.PROP_MAX_ENTRIES.getKey(), 4);
+        loaded = new ChangesetCache();
+        loaded.load(file);
+        assertEquals(4, loaded.size());
+        assertNull(loaded.get(1));
+        assertNotNull(loaded.getLastClosedAt(queryForUser(11)));
+        assertEquals(new Date(3500), loaded.getLastClosedAt(queryForUser(12)));
+    }
+
+    @Test
+    public void testRemoveKeepsOtherQueries() {
+        ChangesetCache cache = new ChangesetCache();
+        cache.update(Arrays.asList(changeset(1, 10, 1000, 1500L), changeset(2, 11, 2000, 2500L)));
+        cache.rememberQueryResult(queryForUser(10), Arrays.asList(cache.get(1)));
+        cache.rememberQueryResult(queryForUser(11), Arrays.asList(cache.get(2)));
+
+        cache.remove(1);
+        assertNull(cache.getLastClosedAt(queryForUser(10)));
+        assertEquals(new Date(2500), cache.getLastClosedAt(queryForUser(11)));
+    }
+
+    @Test
+    public void testTruncatedReply() {
+        ChangesetCache cache = new ChangesetCache();
+        List<Changeset> reply = new ArrayList<Changeset>();
+        for (int id = 1; id <= ChangesetQuery.MAX_REPLY_SIZE; id++) {
+            reply.add(changeset(id, 10, id * 1000L, id * 1000L + 500));
+        }
+        cache.update(reply);
+        cache.rememberQueryResult(queryForUser(10), reply);
+        assertNull(cache.getLastClosedAt(queryForUser(10)));
+
+        cache.rememberQueryResult(queryForUser(10), reply.subList(0, ChangesetQuery.MAX_REPLY_SIZE - 1));
+        assertEquals(new Date((ChangesetQuery.MAX_REPLY_SIZE - 1) * 1000L + 500), cache.getLastClosedAt(queryForUser(10)));
+    }
+}
@@ -0,0 +1,117 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.io.ChangesetQuery;
+import org.openstreetmap.josm.io.ChangesetQuery.ChangesetQueryUrlException;
+
+/**
+ * Checks that {@link ChangesetQuery#matches(Changeset)} agrees with the changesets the
+ * server replies, the {@link ChangesetCache} answers queries with it.
+ */
+public class ChangesetQueryMatchesTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    private static Changeset changeset() {
+        Changeset cs = new Changeset(1);
+        cs.setIncomplete(false);
+        cs.setUser(User.createOsmUser(10, "user10"));
+        cs.setCreatedAt(new Date(1000));
+        cs.setClosedAt(new Date(2000));
+        cs.setOpen(false);
+        cs.setMin(new LatLon(1, 1));
+        cs.setMax(new LatLon(2, 2));
+        return cs;
+    }
+
+    @Test
+    public void testUser() {
+        Changeset cs = changeset();
+        assertTrue(new ChangesetQuery().matches(cs));
+        assertTrue(new ChangesetQuery().forUser(10).matches(cs));
+        assertFalse(new ChangesetQuery().forUser(11).matches(cs));
+        assertTrue(new ChangesetQuery().forUser("user10").matches(cs));
+        assertFalse(new ChangesetQuery().forUser("user11").matches(cs));
+
+        cs.setUser(null);
+        assertFalse(new ChangesetQuery().forUser(10).matches(cs));
+        assertFalse(new ChangesetQuery().forUser("user10").matches(cs));
+    }
+
+    @Test
+    public void testBbox() {
+        Changeset cs = changeset();
+        assertTrue(new ChangesetQuery().inBbox(0, 0, 1.5, 1.5).matches(cs));
+        assertFalse(new ChangesetQuery().inBbox(3, 3, 4, 4).matches(cs));
+
+        cs.setMin(null);
+        cs.setMax(null);
+        assertFalse(new ChangesetQuery().inBbox(0, 0, 1.5, 1.5).matches(cs));
+    }
+
+    @Test
+    public void testTime() {
+        Changeset cs = changeset();
+        assertTrue(new ChangesetQuery().closedAfter(new Date(1500)).matches(cs));
+        assertFalse(new ChangesetQuery().closedAfter(new Date(2000)).matches(cs));
+        assertTrue(new ChangesetQuery().closedAfterAndCreatedBefore(new Date(1500), new Date(1500)).matches(cs));
+        assertFalse(new ChangesetQuery().closedAfterAndCreatedBefore(new Date(1500), new Date(1000)).matches(cs));
+
+        // open changesets are never closed too early
+        cs.setOpen(true);
+        cs.setClosedAt(null);
+        assertTrue(new ChangesetQuery().closedAfter(new Date(5000)).matches(cs));
+    }
+
+    @Test
+    public void testOpenAndClosed() {
+        Changeset cs = changeset();
+        assertTrue(new ChangesetQuery().beingClosed(true).matches(cs));
+        assertFalse(new ChangesetQuery().beingClosed(false).matches(cs));
+        assertFalse(new ChangesetQuery().beingOpen(true).matches(cs));
+        assertTrue(new ChangesetQuery().beingOpen(false).matches(cs));
+
+        cs.setOpen(true);
+        assertTrue(new ChangesetQuery().beingOpen(true).matches(cs));
+        assertFalse(new ChangesetQuery().beingClosed(true).matches(cs));
+    }
+
+    @Test
+    public void testParsedQueryString() throws ChangesetQueryUrlException {
+        // the cache remembers queries by their query string
+        Changeset cs = changeset();
+        ChangesetQuery query = ChangesetQuery.buildFromUrlQuery(new ChangesetQuery().forUser(10).beingClosed(true).getQueryString());
+        assertTrue(query.matches(cs));
+        cs.setUser(User.createOsmUser(11, "user11"));
+        assertFalse(query.matches(cs));
+        cs.setUser(User.createOsmUser(10, "user10"));
+
+        query = ChangesetQuery.buildFromUrlQuery(new ChangesetQuery().forUser("user10").getQueryString());
+        assertEquals("user10", query.getUserName());
+        assertNull(query.getUserId());
+        assertTrue(query.matches(cs));
+    }
+
+    @Test
+    public void testIncomplete() {
+        Changeset cs = new Changeset(1);
+        assertTrue(cs.isIncomplete());
+        assertFalse(new ChangesetQuery().matches(cs));
+        assertFalse(new ChangesetQuery().beingOpen(false).matches(cs));
+    }
+}
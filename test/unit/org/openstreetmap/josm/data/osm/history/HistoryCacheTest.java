@@ -0,0 +1,155 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+
+public class HistoryCacheTest {
+
+    private File dir;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+    }
+
+    @Before
+    public void createDir() throws IOException {
+        dir = File.createTempFile("history", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static HistoryNode node(long version, LatLon coords) {
+        HistoryNode n = new HistoryNode(1, version, true, "user", 2, 10 + version, new Date(1000000L * version), coords);
+        n.put("name", "v" + version);
+        return n;
+    }
+
+    private static History history(long id, OsmPrimitiveType type, HistoryOsmPrimitive... versions) {
+        return new History(id, type, new ArrayList<HistoryOsmPrimitive>(Arrays.asList(versions)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        HistoryCache cache = new HistoryCache(dir);
+        cache.put(history(1, OsmPrimitiveType.NODE, node(1, new LatLon(1.5, 2.5)), node(2, null)));
+
+        HistoryWay way = new HistoryWay(3, 1, true, "\u00e4\u00f6\u00fc", 4, 5, new Date(123456789L),
+                new ArrayList<Long>(Arrays.asList(7L, 8L, 7L)));
+        way.put("highway", "residential");
+        cache.put(history(3, OsmPrimitiveType.WAY, way));
+
+        ArrayList<RelationMember> members = new ArrayList<RelationMember>();
+        members.add(new RelationMember("outer", OsmPrimitiveType.WAY, 3));
+        members.add(new RelationMember("", OsmPrimitiveType.NODE, 1));
+        members.add(new RelationMember("sub", OsmPrimitiveType.RELATION, 9));
+        cache.put(history(6, OsmPrimitiveType.RELATION,
+                new HistoryRelation(6, 4, false, "user", 2, 11, new Date(987654321L), members)));
+
+        // read the files again, not what the instance remembers
+        cache = new HistoryCache(dir);
+
+        History nodes = cache.get(new SimplePrimitiveId(1, OsmPrimitiveType.NODE));
+        assertEquals(2, nodes.getNumVersions());
+        HistoryNode n1 = (HistoryNode) nodes.getByVersion(1);
+        assertEquals(new LatLon(1.5, 2.5), n1.getCoords());
+        assertEquals("user", n1.getUser());
+        assertEquals(2, n1.getUid());
+        assertEquals(11, n1.getChangesetId());
+        assertEquals(new Date(1000000L), n1.getTimestamp());
+        assertEquals("v1", n1.get("name"));
+        assertNull(((HistoryNode) nodes.getByVersion(2)).getCoords());
+
+        HistoryWay w = (HistoryWay) cache.get(new SimplePrimitiveId(3, OsmPrimitiveType.WAY)).getByVersion(1);
+        assertEquals("\u00e4\u00f6\u00fc", w.getUser());
+        assertEquals(Arrays.asList(7L, 8L, 7L), w.getNodes());
+        assertEquals("residential", w.get("highway"));
+
+        HistoryRelation r = (HistoryRelation) cache.get(new SimplePrimitiveId(6, OsmPrimitiveType.RELATION)).getByVersion(4);
+        assertFalse(r.isVisible());
+        assertEquals(3, r.getNumMembers());
+        for (int i = 0; i < members.size(); i++) {
+            assertEquals(members.get(i).getRole(), r.getMembers().get(i).getRole());
+            assertEquals(members.get(i).getPrimitiveType(), r.getMembers().get(i).getPrimitiveType());
+            assertEquals(members.get(i).getPrimitiveId(), r.getMembers().get(i).getPrimitiveId());
+        }
+
+        assertNull(cache.get(new SimplePrimitiveId(2, OsmPrimitiveType.NODE)));
+    }
+
+    @Test
+    public void testKeepsCachedVersions() {
+        HistoryCache cache = new HistoryCache(dir);
+        cache.put(history(1, OsmPrimitiveType.NODE, node(1, null), node(2, null)));
+        cache.put(history(1, OsmPrimitiveType.NODE, node(3, null)));
+
+        History h = new HistoryCache(dir).get(new SimplePrimitiveId(1, OsmPrimitiveType.NODE));
+        assertEquals(3, h.getNumVersions());
+        assertTrue(h.contains(1) && h.contains(2) && h.contains(3));
+        assertEquals(3, h.getLatest().getVersion());
+    }
+
+    @Test
+    public void testInvalidFile() throws IOException {
+        File file = new File(dir, "node1");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+
+        assertNull(new HistoryCache(dir).get(new SimplePrimitiveId(1, OsmPrimitiveType.NODE)));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testEviction() {
+        Main.pref.putInteger(HistoryCache.PROP_MAX_SIZE.getKey(), 1);
+        try {
+            HistoryCache cache = new HistoryCache(dir);
+            List<HistoryOsmPrimitive> versions = new ArrayList<HistoryOsmPrimitive>();
+            for (int v = 1; v <= 20; v++) {
+                versions.add(node(v, new LatLon(v, v)));
+            }
+            for (long id = 1; id <= 3; id++) {
+                cache.put(new History(id, OsmPrimitiveType.NODE, versions));
+            }
+            // the last put is never evicted, the older files are once the cache is too large
+            assertTrue(new File(dir, "node3").exists());
+            assertFalse(new File(dir, "node1").exists());
+            assertNull(cache.get(new SimplePrimitiveId(1, OsmPrimitiveType.NODE)));
+        } finally {
+            Main.pref.put(HistoryCache.PROP_MAX_SIZE.getKey(), null);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.data.validation.tests.UntaggedNode;
+
+public class ValidationEngineTest {
+
+    private static List<OsmPrimitive> primitives;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+        DataSet ds = new DataSet();
+        for (int i = 0; i < 10000; i++) {
+            Node n = new Node(new LatLon(i / 1000.0, i % 1000 / 1000.0));
+            if (i % 3 == 0) {
+                n.put("amenity", "bench");
+            } else if (i % 3 == 1) {
+                n.put("source", "survey");
+            }
+            ds.addPrimitive(n);
+        }
+        primitives = new ArrayList<OsmPrimitive>(ds.allPrimitives());
+    }
+
+    private List<TestError> validate(int threads) {
+        ValidationEngine.PROP_THREADS.put(threads);
+        ValidationEngine.PROP_CHUNK_SIZE.put(1000);
+        Collection<org.openstreetmap.josm.data.validation.Test> tests =
+            new ArrayList<org.openstreetmap.josm.data.validation.Test>();
+        tests.add(new UntaggedNode());
+        return new ValidationEngine(tests).validate(primitives, false, null);
+    }
+
+    @Test
+    public void parallelResultEqualsSequentialResult() {
+        List<TestError> sequential = validate(1);
+        List<TestError> parallel = validate(4);
+        assertEquals(6666, sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertSame(sequential.get(i).getPrimitives().iterator().next(),
+                    parallel.get(i).getPrimitives().iterator().next());
+            assertEquals(sequential.get(i).getCode(), parallel.get(i).getCode());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.validation.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SegmentGridTest {
+
+    /**
+     * Replies the cells of a segment, as visited by {@link ValUtil#visitSegmentCells}.
+     */
+    private static List<String> cells(double east1, double north1, double east2, double north2) {
+        final List<String> cells = new ArrayList<String>();
+        ValUtil.visitSegmentCells(east1, north1, east2, north2, 1, new ValUtil.CellVisitor() {
+            public void visit(long x, long y) {
+                cells.add(x + "," + y);
+            }
+        });
+        return cells;
+    }
+
+    @Test
+    public void cellsOfDiagonalSegment() {
+        // north is shifted by one cell
+        List<String> cells = cells(0.5, 0.2, 2.5, 1.2);
+        assertEquals("[0,1, 1,1, 2,1, 2,2]", cells.toString());
+        // the same cells in the other direction
+        List<String> reverse = cells(2.5, 1.2, 0.5, 0.2);
+        assertEquals(cells, reverse);
+        // descending
+        assertEquals("[0,2, 1,2, 2,2, 2,1]", cells(0.5, 1.8, 2.5, 0.8).toString());
+    }
+
+    @Test
+    public void cellsOfDegenerateSegments() {
+        // a point
+        assertEquals("[1,2]", cells(1.5, 1.5, 1.5, 1.5).toString());
+        // vertical and horizontal segments
+        assertEquals("[1,1, 1,2, 1,3]", cells(1.5, 0.5, 1.5, 2.5).toString());
+        assertEquals("[1,3, 1,2, 1,1]", cells(1.5, 2.5, 1.5, 0.5).toString());
+        assertEquals("[0,2, 1,2, 2,2]", cells(0.5, 1.5, 2.5, 1.5).toString());
+    }
+
+    @Test
+    public void candidates() {
+        SegmentGrid grid = new SegmentGrid(1);
+        assertEquals(0, grid.add(0.5, 0.2, 2.5, 1.2));
+        // in a cell of the first segment
+        assertEquals(1, grid.add(1.1, 0.6, 1.2, 0.8));
+        assertEquals(0, grid.getCandidates()[0]);
+        // in a cell next to the first segment
+        assertEquals(0, grid.add(0.1, 1.5, 0.3, 1.6));
+        // a point in the last cell of the first segment
+        assertEquals(1, grid.add(2.7, 1.7, 2.7, 1.7));
+        assertEquals(0, grid.getCandidates()[0]);
+        // sharing several cells with the first segment, reported once
+        assertEquals(3, grid.add(0.1, 0.1, 2.9, 1.9));
+        int[] candidates = grid.getCandidates();
+        assertEquals(0, candidates[0]);
+        assertEquals(1, candidates[1]);
+        assertEquals(3, candidates[2]);
+        assertEquals(5, grid.size());
+    }
+
+    @Test
+    public void manySegments() {
+        // enough cells and entries to grow the tables
+        SegmentGrid grid = new SegmentGrid(1);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(0, grid.add(i + 0.1, 0.5, i + 0.2, 0.5));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(1, grid.add(i + 0.3, 0.5, i + 0.4, 0.5));
+            assertEquals(i, grid.getCandidates()[0]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.data.osm.PrimitiveId;
+import org.openstreetmap.josm.data.osm.SimplePrimitiveId;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+
+public class MultiFetchServerObjectReaderTest {
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        Main.setProjection(new Mercator());
+    }
+
+    /**
+     * A reader which replies nodes for the requested ids instead of asking the server,
+     * and the return code 404 if one of the ids is missing.
+     */
+    private static class StubReader extends MultiFetchServerObjectReader {
+        private final Set<Long> missing;
+        private final List<Set<Long>> requests = new ArrayList<Set<Long>>();
+        private final List<Long> merged = new ArrayList<Long>();
+
+        public StubReader(Long... missing) {
+            this.missing = new HashSet<Long>(Arrays.asList(missing));
+        }
+
+        @Override
+        protected DataSet readIdPackage(OsmServerReader reader, OsmPrimitiveType type, Set<Long> pkg,
+                ProgressMonitor progressMonitor) throws OsmTransferException {
+            synchronized (requests) {
+                requests.add(pkg);
+            }
+            for (long id : pkg) {
+                if (missing.contains(id))
+                    throw new OsmApiException(HttpURLConnection.HTTP_NOT_FOUND, null, null);
+            }
+            DataSet ds = new DataSet();
+            for (long id : pkg) {
+                Node n = new Node(id, 1);
+                n.setCoor(new LatLon(0, 0));
+                ds.addPrimitive(n);
+            }
+            return ds;
+        }
+
+        @Override
+        protected void merge(DataSet from) {
+            for (Node n : from.getNodes()) {
+                merged.add(n.getId());
+            }
+            super.merge(from);
+        }
+    }
+
+    private static Set<Long> ids(int count) {
+        Set<Long> ids = new LinkedHashSet<Long>();
+        for (long id = 1; id <= count; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testAllFound() throws OsmTransferException {
+        StubReader reader = new StubReader();
+        reader.fetchPrimitives(ids(450), OsmPrimitiveType.NODE, NullProgressMonitor.INSTANCE);
+        assertEquals(3, reader.requests.size());
+        assertEquals(450, reader.merged.size());
+        assertEquals(450, new HashSet<Long>(reader.merged).size());
+        assertTrue(reader.getMissingPrimitives().isEmpty());
+    }
+
+    @Test
+    public void testBisectMissing() throws OsmTransferException {
+        StubReader reader = new StubReader(7L, 250L, 251L);
+        reader.fetchPrimitives(ids(300), OsmPrimitiveType.NODE, NullProgressMonitor.INSTANCE);
+
+        Set<PrimitiveId> expected = new HashSet<PrimitiveId>();
+        expected.add(new SimplePrimitiveId(7, OsmPrimitiveType.NODE));
+        expected.add(new SimplePrimitiveId(250, OsmPrimitiveType.NODE));
+        expected.add(new SimplePrimitiveId(251, OsmPrimitiveType.NODE));
+        assertEquals(expected, reader.getMissingPrimitives());
+
+        // every existing id is merged exactly once
+        assertEquals(297, reader.merged.size());
+        assertEquals(297, new HashSet<Long>(reader.merged).size());
+
+        // the packages are split in halves, so a missing id costs a few requests, not one per id
+        assertTrue(reader.requests.size() < 60);
+        for (Set<Long> pkg : reader.requests) {
+            assertTrue(pkg.size() <= 200);
+        }
+    }
+
+    @Test
+    public void testSmallPackage() throws OsmTransferException {
+        StubReader reader = new StubReader(3L);
+        reader.fetchPrimitives(ids(5), OsmPrimitiveType.NODE, NullProgressMonitor.INSTANCE);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L, 5L)), new HashSet<Long>(reader.merged));
+        assertEquals(4, reader.merged.size());
+        assertEquals(new HashSet<PrimitiveId>(Arrays.asList(new SimplePrimitiveId(3, OsmPrimitiveType.NODE))),
+                reader.getMissingPrimitives());
+    }
+}
@@ -0,0 +1,144 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.io.imagery.ImageryFetchService.Response;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ImageryFetchServiceTest {
+
+    private static final byte[] TILE = new byte[] {1, 2, 3, 4};
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile CountDownLatch release;
+    private volatile int failures;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        ImageryFetchService.PROP_BACKOFF.put(1);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                requests.incrementAndGet();
+                if (release != null) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                if (failures > 0) {
+                    failures--;
+                    ex.sendResponseHeaders(503, -1);
+                } else if ("\"v1\"".equals(ex.getRequestHeaders().getFirst("If-None-Match"))) {
+                    ex.sendResponseHeaders(304, -1);
+                } else {
+                    ex.getResponseHeaders().add("ETag", "\"v1\"");
+                    ex.sendResponseHeaders(200, TILE.length);
+                    OutputStream out = ex.getResponseBody();
+                    out.write(TILE);
+                    out.close();
+                }
+                ex.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void coalesceConcurrentRequests() throws Exception {
+        final ImageryFetchService service = new ImageryFetchService();
+        final URL url = url("/1/2/3.png");
+        final Response[] responses = new Response[4];
+        release = new CountDownLatch(1);
+        Thread[] threads = new Thread[responses.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // the layers don't agree on the case of the header names
+                        String name = index % 2 == 0 ? "User-Agent" : "User-agent";
+                        responses[index] = service.fetch(url, Collections.singletonMap(name, "JOSM"));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(1, requests.get());
+        for (Response r : responses) {
+            assertSame(responses[0], r);
+        }
+        assertTrue(responses[0].isOk());
+        assertEquals("\"v1\"", responses[0].getETag());
+    }
+
+    @Test
+    public void conditionalRequest() throws Exception {
+        ImageryFetchService service = new ImageryFetchService();
+        Response r = service.fetch(url("/a.png"), null, "\"v1\"", 0, 1);
+        assertTrue(r.isNotModified());
+        assertEquals(0, r.getContent().length);
+    }
+
+    @Test
+    public void retryTemporaryErrors() throws Exception {
+        ImageryFetchService service = new ImageryFetchService();
+        failures = 2;
+        Response r = service.fetch(url("/b.png"), null, null, 0, 3);
+        assertTrue(r.isOk());
+        assertEquals(3, requests.get());
+
+        failures = 2;
+        requests.set(0);
+        r = service.fetch(url("/c.png"), null, null, 0, 1);
+        assertEquals(503, r.getResponseCode());
+        assertEquals(1, requests.get());
+    }
+}
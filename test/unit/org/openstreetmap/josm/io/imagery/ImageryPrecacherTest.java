@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.io.imagery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openstreetmap.gui.jmapviewer.OsmFileCacheTileLoader;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.tools.Utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the {@link ImageryPrecacher} against a local stand-in tile server.
+ */
+public class ImageryPrecacherTest {
+
+    private static final byte[] TILE = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean failOddTiles;
+    private File cacheDir;
+    private TMSTileSource source;
+    private List<Bounds> areas;
+
+    @BeforeClass
+    public static void init() {
+        Main.pref = new Preferences();
+        ImageryPrecacher.PROP_MAX_ATTEMPTS.put(1);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                requests.incrementAndGet();
+                String path = ex.getRequestURI().getPath();
+                // path is /zoom/x/y.png
+                int x = Integer.parseInt(path.split("/")[2]);
+                if (failOddTiles && x % 2 == 1) {
+                    ex.sendResponseHeaders(404, -1);
+                } else {
+                    ex.getResponseHeaders().add("Content-Type", "image/png");
+                    ex.sendResponseHeaders(200, TILE.length);
+                    OutputStream out = ex.getResponseBody();
+                    out.write(TILE);
+                    out.close();
+                }
+                ex.close();
+            }
+        });
+        server.start();
+        cacheDir = File.createTempFile("josm-precache", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        source = new TMSTileSource("test", "http://localhost:" + server.getAddress().getPort(), 0, 18);
+        areas = Collections.singletonList(new Bounds(new LatLon(50.0, 8.0), new LatLon(50.02, 8.03)));
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Utils.deleteDirectory(cacheDir);
+    }
+
+    @Test
+    public void downloadAndSkipCached() {
+        ImageryPrecacher precacher = new ImageryPrecacher(source, cacheDir, areas, 14, 15);
+        int count = precacher.getTileCount();
+        assertTrue(count > 2);
+
+        precacher.precache(null);
+        assertEquals(count, precacher.getDownloadedCount());
+        assertEquals(0, precacher.getFailedCount());
+        assertEquals(count, requests.get());
+        assertEquals(TILE.length, OsmFileCacheTileLoader.getTileFile(cacheDir.getAbsolutePath(), source, 14,
+                (int) source.lonToTileX(8.0, 14), (int) source.latToTileY(50.0, 14)).length());
+
+        precacher.precache(null);
+        assertEquals(0, precacher.getDownloadedCount());
+        assertEquals(count, precacher.getSkippedCount());
+        assertEquals(count, requests.get());
+    }
+
+    @Test
+    public void resumeAfterFailures() {
+        ImageryPrecacher precacher = new ImageryPrecacher(source, cacheDir, areas, 14, 15);
+        int count = precacher.getTileCount();
+
+        failOddTiles = true;
+        precacher.precache(null);
+        int failed = precacher.getFailedCount();
+        assertTrue(failed > 0);
+        assertEquals(count, precacher.getDownloadedCount() + failed);
+
+        failOddTiles = false;
+        requests.set(0);
+        precacher.precache(null);
+        assertEquals(failed, precacher.getDownloadedCount());
+        assertEquals(failed, requests.get());
+        assertEquals(0, precacher.getFailedCount());
+    }
+}